@@ -0,0 +1,98 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * Decides how large the {@link android.media.AudioTrack} buffer is and how much of it is used.
+ * <p>
+ * A small buffer starts playback sooner and keeps the latency low, but underruns as soon as the
+ * writer is late. A large buffer lets the writer sleep longer between writes, but takes longer to
+ * fill. {@link Mode#ADAPTIVE} starts small and grows on underruns, which needs
+ * {@link android.media.AudioTrack#setBufferSizeInFrames(int)} on API 24+. The sizes are all in
+ * frames.
+ */
+public final class AudioBufferPolicy {
+
+    public enum Mode {
+        /**
+         * Uses the minimum buffer size of the platform, and never grows it.
+         */
+        LOW_LATENCY,
+        /**
+         * Allocates a moderately large buffer, uses only its minimum part at first and doubles the
+         * part in use whenever an underrun is observed. Behaves like a fixed buffer of the allocated
+         * size before API 24.
+         */
+        ADAPTIVE,
+        /**
+         * Uses a large buffer, so that the writer wakes up rarely.
+         */
+        POWER_SAVING
+    }
+
+    /**
+     * A multiplication factor to apply to the minimum buffer size requested by the underlying
+     * {@link android.media.AudioTrack}.
+     */
+    private static final int BUFFER_MULTIPLICATION_FACTOR = 4;
+
+    /**
+     * A minimum length for the {@link android.media.AudioTrack} buffer, in microseconds.
+     */
+    private static final long MIN_BUFFER_DURATION_US = 250000;
+    /**
+     * A maximum length for the {@link android.media.AudioTrack} buffer, in microseconds.
+     */
+    private static final long MAX_BUFFER_DURATION_US = 750000;
+    /**
+     * The length of the {@link Mode#POWER_SAVING} buffer, in microseconds.
+     */
+    private static final long POWER_SAVING_BUFFER_DURATION_US = 2000000;
+
+    private final Mode mode;
+
+    public AudioBufferPolicy(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param minBufferFrames The minimum buffer size of the platform.
+     * @return The size to allocate the buffer with.
+     */
+    public int getCapacityFrames(int minBufferFrames, int sampleRate) {
+        switch (mode) {
+            case LOW_LATENCY:
+                return minBufferFrames;
+            case POWER_SAVING:
+                return (int) Math.max(minBufferFrames, durationUsToFrames(POWER_SAVING_BUFFER_DURATION_US, sampleRate));
+            default:
+                int multipliedBufferFrames = minBufferFrames * BUFFER_MULTIPLICATION_FACTOR;
+                int minAppBufferFrames = (int) durationUsToFrames(MIN_BUFFER_DURATION_US, sampleRate);
+                int maxAppBufferFrames = (int) Math.max(minBufferFrames,
+                        durationUsToFrames(MAX_BUFFER_DURATION_US, sampleRate));
+                return multipliedBufferFrames < minAppBufferFrames ? minAppBufferFrames
+                        : multipliedBufferFrames > maxAppBufferFrames ? maxAppBufferFrames
+                        : multipliedBufferFrames;
+        }
+    }
+
+    /**
+     * @return The part of the buffer to use at first.
+     */
+    public int getInitialSizeFrames(int minBufferFrames, int capacityFrames) {
+        return mode == Mode.ADAPTIVE ? Math.min(minBufferFrames, capacityFrames) : capacityFrames;
+    }
+
+    /**
+     * @return The part of the buffer to use after an underrun, at most {@code capacityFrames}.
+     */
+    public int getSizeFramesAfterUnderrun(int currentSizeFrames, int capacityFrames) {
+        return mode == Mode.ADAPTIVE ? Math.min(capacityFrames, currentSizeFrames * 2) : currentSizeFrames;
+    }
+
+    private static long durationUsToFrames(long durationUs, int sampleRate) {
+      return (durationUs * sampleRate) / 1000000L;
+    }
+}
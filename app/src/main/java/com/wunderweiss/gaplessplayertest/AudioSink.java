@@ -0,0 +1,97 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Plays PCM, like an {@link android.media.AudioTrack} in streaming mode.
+ */
+public interface AudioSink {
+
+    /**
+     * A frame position together with the system time it was presented at, like
+     * {@link android.media.AudioTimestamp}.
+     */
+    final class Timestamp {
+        /**
+         * The frame position, which may wrap around at 2^32 like the playback head position.
+         */
+        public long framePosition;
+        /**
+         * The {@link System#nanoTime()} the frame was presented at.
+         */
+        public long nanoTime;
+    }
+
+    /**
+     * @return Whether the sink can be configured with {@code encoding}. Sinks support at least
+     *         {@link PcmEncoding#PCM_16BIT}.
+     */
+    boolean isEncodingSupported(PcmEncoding encoding);
+
+    /**
+     * Opens the sink. Must be called once, before anything else.
+     * @throws IllegalArgumentException If the channel count or encoding is not supported.
+     */
+    void configure(int sampleRate, int channelCount, PcmEncoding encoding);
+
+    void play();
+
+    /**
+     * Pauses playback. Makes a blocking write return early.
+     */
+    void pause();
+
+    /**
+     * Drops the PCM written but not played yet. Must only be called while paused. The playback head
+     * position restarts at 0.
+     */
+    void flush();
+
+    /**
+     * Writes {@code size} bytes from the position of {@code buffer}, blocking until they are
+     * accepted or the sink is paused.
+     * @return The number of bytes written, or a negative error code. The position of the buffer is
+     *         advanced by that many bytes.
+     */
+    int write(ByteBuffer buffer, int size);
+
+    /**
+     * Like {@link #write(ByteBuffer, int)}, from an array.
+     */
+    int write(byte[] data, int offset, int size);
+
+    /**
+     * Like {@link #write(byte[], int, int)}, but only writes as much as fits into the sink's buffer
+     * right now. Sinks that cannot write without blocking, like an {@link android.media.AudioTrack}
+     * before API 21, block instead.
+     * @return The number of bytes written, which may be 0, or a negative error code.
+     */
+    int writeNonBlocking(byte[] data, int offset, int size);
+
+    /**
+     * @return The number of frames played since the sink was configured, as an unsigned 32-bit
+     *         value that wraps around like {@link android.media.AudioTrack#getPlaybackHeadPosition()}.
+     */
+    long getPlaybackHeadPosition();
+
+    /**
+     * Fills in the latest presentation timestamp of the sink.
+     * @return Whether a timestamp is available. Sinks that don't support timestamps always return
+     *         false.
+     */
+    boolean getTimestamp(Timestamp timestamp);
+
+    int getSampleRate();
+
+    /**
+     * @return The total number of underruns, or -1 if the sink cannot tell.
+     */
+    int getUnderrunCount();
+
+    /**
+     * Called on the thread that is going to write to the sink, e.g. to raise its priority.
+     */
+    void onWriterThreadStarted();
+
+    void release();
+}
@@ -0,0 +1,226 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains a {@link PcmRingBuffer} into an {@link AudioSink} on its own thread, so that stalls in
+ * extraction or decoder setup don't stop audio output as long as the ring buffer has data.
+ * <p>
+ * By default it waits in blocking writes for the sink to make room. In the power saving mode, see
+ * {@link #setLowWatermark(int, int)}, it tops the sink up without blocking and sleeps until the sink
+ * has played down to the low watermark, which wakes the thread once per sink buffer instead of once
+ * per write.
+ */
+public final class AudioSinkWriter extends Thread implements PcmRingBuffer.Reader {
+
+    private static final String TAG = AudioSinkWriter.class.getSimpleName();
+
+    private static final long AWAIT_DATA_TIMEOUT_NS = 5000000;
+    /**
+     * The shortest sleep in the power saving mode, in nanoseconds. Below it, the writer waits for
+     * data instead.
+     */
+    private static final long MIN_SLEEP_NS = 2000000;
+
+    private final AudioSink sink;
+    private final PcmRingBuffer ringBuffer;
+    private final int minWriteSize;
+    private final int maxWriteSize;
+    private final PipelineMetrics metrics;
+
+    private int lowWatermarkFrames;
+    private int frameSize;
+
+    private volatile boolean released;
+    private volatile boolean paused;
+    /**
+     * Whether the writer saw {@link #paused} and stays away from the ring buffer and the sink.
+     */
+    private volatile boolean idle;
+    private volatile Thread idleWaiter;
+    private long writtenBytes;
+    private boolean sinkFull;
+    private long wakeupCount;
+
+    /**
+     * @param minWriteSize The number of bytes the writer waits for before writing, to batch small
+     *        chunks into fewer writes. At the end of stream the rest is written anyway. Must be well
+     *        below the sink's buffer, which drains meanwhile.
+     * @param maxWriteSize The maximum number of bytes passed to a single {@link AudioSink#write},
+     *        must be a multiple of the frame size.
+     * @param metrics Receives the time each write blocked.
+     */
+    public AudioSinkWriter(AudioSink sink, PcmRingBuffer ringBuffer, int minWriteSize, int maxWriteSize,
+                           PipelineMetrics metrics) {
+        super(TAG);
+        this.sink = sink;
+        this.ringBuffer = ringBuffer;
+        // A full ring buffer has to be written in any case.
+        this.minWriteSize = Math.max(1, Math.min(minWriteSize, ringBuffer.capacity()));
+        this.maxWriteSize = maxWriteSize;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run() {
+        sink.onWriterThreadStarted();
+
+        while (!released) {
+            // Cleared before paused is checked, so that flush() cannot see a stale idle state.
+            idle = false;
+            if (paused) {
+                idle = true;
+                Thread waiter = idleWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+                // Sleeps until setPaused(false), flush() or release() unparks it.
+                LockSupport.park(this);
+                wakeupCount++;
+                continue;
+            }
+            if (lowWatermarkFrames > 0) {
+                if (!topUpAndSleep()) {
+                    break;
+                }
+                continue;
+            }
+            if (!ringBuffer.awaitData(minWriteSize, AWAIT_DATA_TIMEOUT_NS)) {
+                continue;
+            }
+            if (ringBuffer.read(this, maxWriteSize) == 0 && ringBuffer.isEndOfStream()) {
+                break;
+            }
+        }
+        metrics.addWakeups(wakeupCount + ringBuffer.getParkCount());
+        L.d(TAG, "run - finished (released: %s)", released);
+    }
+
+    /**
+     * Writes as much as the sink takes without blocking, then sleeps until it has played down to the
+     * low watermark, or waits for data if it is there already.
+     * @return False at the end of stream.
+     */
+    private boolean topUpAndSleep() {
+        sinkFull = false;
+        while (!sinkFull && !released && ringBuffer.read(this, maxWriteSize) > 0) {
+            // Until the sink is full or the ring buffer is empty.
+        }
+        if (ringBuffer.isEndOfStream()) {
+            return false;
+        }
+        // The head position wraps around at 2^32, like the written frames do here.
+        long bufferedFrames = (writtenBytes / frameSize - sink.getPlaybackHeadPosition()) & 0xFFFFFFFFL;
+        long sleepNs = (bufferedFrames - lowWatermarkFrames) * 1000000000L / sink.getSampleRate();
+        if (sleepNs >= MIN_SLEEP_NS) {
+            LockSupport.parkNanos(this, sleepNs);
+            wakeupCount++;
+        } else if (sinkFull) {
+            // The sink's buffer doesn't reach above the low watermark.
+            LockSupport.parkNanos(this, MIN_SLEEP_NS);
+            wakeupCount++;
+        } else {
+            ringBuffer.awaitData(minWriteSize, AWAIT_DATA_TIMEOUT_NS);
+        }
+        return true;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+        long writeStartNs = System.nanoTime();
+        int written = lowWatermarkFrames > 0
+                ? sink.writeNonBlocking(data, offset, length) : sink.write(data, offset, length);
+        metrics.recordSinkWrite(System.nanoTime() - writeStartNs);
+        if (written < 0) {
+            L.e(TAG, "read - AudioSink.write failed: %d", written);
+            released = true;
+            return 0;
+        }
+        sinkFull = written < length;
+        writtenBytes += written;
+        return written;
+    }
+
+    /**
+     * Enables the power saving mode, in which the sink is written without blocking and the writer
+     * sleeps while the sink holds more than {@code lowWatermarkFrames}. The sink's buffer must be well
+     * above the low watermark, the rest of it is what the writer sleeps for. Must be called before
+     * {@link #start()}.
+     * @param lowWatermarkFrames The frames left in the sink when the writer wakes up, 0 disables the
+     *        mode.
+     * @param frameSize The size of a frame in the sink, in bytes.
+     */
+    public AudioSinkWriter setLowWatermark(int lowWatermarkFrames, int frameSize) {
+        this.lowWatermarkFrames = lowWatermarkFrames;
+        this.frameSize = frameSize;
+        return this;
+    }
+
+    /**
+     * Stops or resumes draining the ring buffer, e.g. while the sink is paused, which would make
+     * every write return early.
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    /**
+     * Drops what is left in the ring buffer, e.g. on a seek. Pauses the writer and the sink, which
+     * cuts a blocking write short, and waits until the writer is idle before the ring buffer is
+     * cleared. Must be called from the thread that fills the ring buffer. The caller flushes the sink
+     * and resumes the writer with {@link #setPaused(boolean)} afterwards.
+     */
+    public void flush() {
+        idleWaiter = Thread.currentThread();
+        paused = true;
+        sink.pause();
+        LockSupport.unpark(this);
+        while (!idle && isAlive()) {
+            LockSupport.parkNanos(this, AWAIT_DATA_TIMEOUT_NS);
+        }
+        idleWaiter = null;
+        ringBuffer.clear();
+        // The sink's playback head restarts at 0 once flushed.
+        writtenBytes = 0;
+    }
+
+    /**
+     * Lets the writer drain what is left in the ring buffer and waits for it to finish.
+     */
+    public void finish() {
+        ringBuffer.setEndOfStream();
+        // Cuts a sleep short, to write the rest right away.
+        LockSupport.unpark(this);
+        joinUninterruptibly();
+    }
+
+    /**
+     * Stops the writer as soon as possible, dropping what is left in the ring buffer, and waits for
+     * it to finish.
+     */
+    public void release() {
+        released = true;
+        ringBuffer.close();
+        LockSupport.unpark(this);
+        // Makes a blocking write return early.
+        sink.pause();
+        joinUninterruptibly();
+    }
+
+    private void joinUninterruptibly() {
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.wunderweiss.gaplessplayertest;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link AudioSink} backed by a streaming {@link AudioTrack}.
+ */
+public final class AudioTrackSink implements AudioSink {
+
+    private static final String TAG = AudioTrackSink.class.getSimpleName();
+
+    /**
+     * How PCM is handed from a {@link ByteBuffer} to the {@link AudioTrack}.
+     */
+    public enum OutputMode {
+        /**
+         * Copies every buffer into a newly allocated array.
+         */
+        ALLOCATING,
+        /**
+         * Copies every buffer into a single reusable {@link PcmScratchBuffer}.
+         */
+        POOLED,
+        /**
+         * Writes the buffers to the {@link AudioTrack} directly on API 21+, behaves like
+         * {@link #POOLED} on older devices.
+         */
+        DIRECT
+    }
+
+    /**
+     * How often {@link AudioBufferPolicy.Mode#ADAPTIVE} checks for underruns, in nanoseconds.
+     */
+    private static final long UNDERRUN_CHECK_INTERVAL_NS = 100000000;
+
+    private final PcmScratchBuffer scratchBuffer = new PcmScratchBuffer();
+    private OutputMode outputMode = OutputMode.DIRECT;
+    private AudioBufferPolicy bufferPolicy = new AudioBufferPolicy(AudioBufferPolicy.Mode.ADAPTIVE);
+
+    private AudioTrack audioTrack;
+    private AudioTimestamp audioTimestamp;
+    private boolean floatOutput;
+    private ByteBuffer arrayBuffer;
+
+    private int capacityFrames;
+    private int bufferSizeFrames;
+    private boolean adaptingBufferSize;
+    private int lastUnderrunCount;
+    private long lastUnderrunCheckNs;
+
+    /**
+     * Sets how {@link #write(ByteBuffer, int)} hands PCM to the {@link AudioTrack}.
+     */
+    public AudioTrackSink setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+        return this;
+    }
+
+    /**
+     * Sets how large the {@link AudioTrack} buffer is. Must be called before {@link #configure}.
+     */
+    public AudioTrackSink setBufferPolicy(AudioBufferPolicy.Mode mode) {
+        this.bufferPolicy = new AudioBufferPolicy(mode);
+        return this;
+    }
+
+    /**
+     * Supports 16-bit PCM, and float PCM on API 21+. The 24 and 32-bit integer encodings need API 31.
+     */
+    @Override
+    public boolean isEncodingSupported(PcmEncoding encoding) {
+        return encoding == PcmEncoding.PCM_16BIT
+                || (encoding == PcmEncoding.PCM_FLOAT && Build.VERSION.SDK_INT >= 21);
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount, PcmEncoding pcmEncoding) {
+        if (!isEncodingSupported(pcmEncoding)) {
+            throw new IllegalArgumentException("Unsupported encoding: " + pcmEncoding);
+        }
+        int channelConfig;
+        switch (channelCount) {
+            case 1:
+                channelConfig = AudioFormat.CHANNEL_OUT_MONO;
+                break;
+            case 2:
+                channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+                break;
+            case 6:
+                channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
+                break;
+            case 8:
+                channelConfig = AudioFormat.CHANNEL_OUT_7POINT1;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported channel count: " + channelCount);
+        }
+
+        floatOutput = pcmEncoding == PcmEncoding.PCM_FLOAT;
+        int encoding = floatOutput ? AudioFormat.ENCODING_PCM_FLOAT : AudioFormat.ENCODING_PCM_16BIT;
+        int frameSize = pcmEncoding.getFrameSize(channelCount);
+
+        int minBufferSize = android.media.AudioTrack.getMinBufferSize(sampleRate, channelConfig, encoding);
+        int minBufferFrames = minBufferSize / frameSize;
+        capacityFrames = bufferPolicy.getCapacityFrames(minBufferFrames, sampleRate);
+        int bufferSize = capacityFrames * frameSize;
+
+        audioTrack = new AudioTrack(
+                AudioManager.STREAM_MUSIC,
+                sampleRate,
+                channelConfig,
+                encoding,
+                bufferSize,
+                android.media.AudioTrack.MODE_STREAM
+        );
+
+        bufferSizeFrames = capacityFrames;
+        adaptingBufferSize = Build.VERSION.SDK_INT >= 24 && bufferPolicy.getMode() == AudioBufferPolicy.Mode.ADAPTIVE;
+        if (adaptingBufferSize) {
+            bufferSizeFrames = setBufferSizeInFramesV24(bufferPolicy.getInitialSizeFrames(minBufferFrames, capacityFrames));
+        }
+        L.i(TAG, "buffer - encoding: %s, policy: %s, minBufferFrames: %d, capacityFrames: %d, bufferSizeFrames: %d",
+                pcmEncoding, bufferPolicy.getMode(), minBufferFrames, capacityFrames, bufferSizeFrames);
+    }
+
+    @Override
+    public void play() {
+        audioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        audioTrack.pause();
+    }
+
+    @Override
+    public void flush() {
+        audioTrack.flush();
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, int size) {
+        maybeAdaptBufferSize();
+        if (floatOutput) {
+            // Float tracks only take arrays of floats, but buffers of any encoding.
+            return writeV21(buffer, size);
+        }
+        switch (outputMode) {
+            case DIRECT:
+                if (Build.VERSION.SDK_INT >= 21) {
+                    return writeV21(buffer, size);
+                }
+                // Fall through.
+            case POOLED:
+                byte[] data = scratchBuffer.copyFrom(buffer, size);
+                return audioTrack.write(data, 0, size);
+            default:
+                final byte[] chunk = new byte[size];
+                buffer.get(chunk); // Read the buffer all at once
+                return audioTrack.write(chunk, 0, chunk.length);
+        }
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int size) {
+        maybeAdaptBufferSize();
+        if (floatOutput) {
+            return writeV21(wrap(data, offset, size), size);
+        }
+        return audioTrack.write(data, offset, size);
+    }
+
+    @Override
+    public int writeNonBlocking(byte[] data, int offset, int size) {
+        if (Build.VERSION.SDK_INT >= 21) {
+            maybeAdaptBufferSize();
+            return writeNonBlockingV21(wrap(data, offset, size), size);
+        }
+        return write(data, offset, size);
+    }
+
+    @Override
+    public long getPlaybackHeadPosition() {
+        // The head position is an unsigned 32-bit value.
+        return 0xFFFFFFFFL & audioTrack.getPlaybackHeadPosition();
+    }
+
+    @Override
+    public boolean getTimestamp(Timestamp timestamp) {
+        return Build.VERSION.SDK_INT >= 19 && getTimestampV19(timestamp);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return audioTrack.getSampleRate();
+    }
+
+    @Override
+    public int getUnderrunCount() {
+        return Build.VERSION.SDK_INT >= 24 ? getUnderrunCountV24() : -1;
+    }
+
+    @Override
+    public void onWriterThreadStarted() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+    }
+
+    @Override
+    public void release() {
+        if (audioTrack != null) {
+            audioTrack.release();
+            audioTrack = null;
+        }
+    }
+
+    /**
+     * @return The part of the buffer in use, in frames.
+     */
+    public int getBufferSizeFrames() {
+        return bufferSizeFrames;
+    }
+
+    /**
+     * Grows the part of the buffer in use if the track underran since the last check. Called from the
+     * writing thread, at most every {@link #UNDERRUN_CHECK_INTERVAL_NS}.
+     */
+    private void maybeAdaptBufferSize() {
+        if (!adaptingBufferSize) {
+            return;
+        }
+        long nowNs = System.nanoTime();
+        if (nowNs - lastUnderrunCheckNs < UNDERRUN_CHECK_INTERVAL_NS) {
+            return;
+        }
+        lastUnderrunCheckNs = nowNs;
+
+        int underrunCount = getUnderrunCountV24();
+        if (underrunCount > lastUnderrunCount) {
+            lastUnderrunCount = underrunCount;
+            int sizeFrames = bufferPolicy.getSizeFramesAfterUnderrun(bufferSizeFrames, capacityFrames);
+            if (sizeFrames != bufferSizeFrames) {
+                bufferSizeFrames = setBufferSizeInFramesV24(sizeFrames);
+                L.i(TAG, "buffer - underruns: %d, grown to %d frames", underrunCount, bufferSizeFrames);
+            }
+            adaptingBufferSize = bufferSizeFrames < capacityFrames;
+        }
+    }
+
+    /**
+     * Wraps {@code data} in a buffer that is reused as long as the same array is written, which is the
+     * case for the ring buffer of the {@link AudioSinkWriter}.
+     */
+    private ByteBuffer wrap(byte[] data, int offset, int size) {
+        if (arrayBuffer == null || arrayBuffer.array() != data) {
+            arrayBuffer = ByteBuffer.wrap(data);
+        }
+        arrayBuffer.limit(offset + size);
+        arrayBuffer.position(offset);
+        return arrayBuffer;
+    }
+
+    @TargetApi(21)
+    private int writeV21(ByteBuffer buffer, int size) {
+        int remaining = size;
+        while (remaining > 0) {
+            int written = audioTrack.write(buffer, remaining, AudioTrack.WRITE_BLOCKING);
+            if (written <= 0) {
+                L.w(TAG, "writeV21 - AudioTrack.write returned %d", written);
+                return written < 0 ? written : size - remaining;
+            }
+            remaining -= written;
+        }
+        return size;
+    }
+
+    @TargetApi(21)
+    private int writeNonBlockingV21(ByteBuffer buffer, int size) {
+        return audioTrack.write(buffer, size, AudioTrack.WRITE_NON_BLOCKING);
+    }
+
+    @TargetApi(19)
+    private boolean getTimestampV19(Timestamp timestamp) {
+        if (audioTimestamp == null) {
+            audioTimestamp = new AudioTimestamp();
+        }
+        if (!audioTrack.getTimestamp(audioTimestamp)) {
+            return false;
+        }
+        timestamp.framePosition = audioTimestamp.framePosition;
+        timestamp.nanoTime = audioTimestamp.nanoTime;
+        return true;
+    }
+
+    @TargetApi(24)
+    private int getUnderrunCountV24() {
+        return audioTrack.getUnderrunCount();
+    }
+
+    /**
+     * @return The actual size in frames, or the previous size if setting it failed.
+     */
+    @TargetApi(24)
+    private int setBufferSizeInFramesV24(int sizeFrames) {
+        int result = audioTrack.setBufferSizeInFrames(sizeFrames);
+        return result > 0 ? result : bufferSizeFrames;
+    }
+}
@@ -0,0 +1,96 @@
+package com.wunderweiss.gaplessplayertest;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A pass-through {@link AudioProcessor} that tees ExoPlayer's PCM into a {@link PcmCapture}, as the
+ * counterpart of {@link CustomPlayer#setPcmCaptureFile(java.io.File)}.
+ */
+public final class CapturingAudioProcessor implements AudioProcessor {
+
+    private final PcmCapture capture;
+
+    private int channelCount = Format.NO_VALUE;
+    private ByteBuffer buffer = EMPTY_BUFFER;
+    private ByteBuffer outputBuffer = EMPTY_BUFFER;
+    private boolean inputEnded;
+
+    public CapturingAudioProcessor(PcmCapture capture) {
+        this.capture = capture;
+    }
+
+    @Override
+    public boolean configure(int sampleRateHz, int channelCount, int encoding)
+            throws UnhandledFormatException {
+        if (encoding != C.ENCODING_PCM_16BIT) {
+            throw new UnhandledFormatException(sampleRateHz, channelCount, encoding);
+        }
+        boolean changed = this.channelCount != channelCount;
+        this.channelCount = channelCount;
+        return changed;
+    }
+
+    @Override
+    public boolean isActive() {
+        return true;
+    }
+
+    @Override
+    public int getOutputChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getOutputEncoding() {
+        return C.ENCODING_PCM_16BIT;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        int size = inputBuffer.remaining();
+        capture.write(inputBuffer, size);
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        } else {
+            buffer.clear();
+        }
+        buffer.put(inputBuffer);
+        buffer.flip();
+        outputBuffer = buffer;
+    }
+
+    @Override
+    public void queueEndOfStream() {
+        inputEnded = true;
+    }
+
+    @Override
+    public ByteBuffer getOutput() {
+        ByteBuffer output = outputBuffer;
+        outputBuffer = EMPTY_BUFFER;
+        return output;
+    }
+
+    @Override
+    public boolean isEnded() {
+        return inputEnded && outputBuffer == EMPTY_BUFFER;
+    }
+
+    @Override
+    public void flush() {
+        outputBuffer = EMPTY_BUFFER;
+        inputEnded = false;
+    }
+
+    @Override
+    public void reset() {
+        flush();
+        buffer = EMPTY_BUFFER;
+        channelCount = Format.NO_VALUE;
+    }
+}
@@ -0,0 +1,46 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * Matches codec output buffers to the input buffers they were decoded from by presentation time, to
+ * measure the queue-to-output latency. Preallocated and meant for the decode thread only.
+ */
+final class CodecLatencyTracker {
+
+    private static final int CAPACITY = 64;
+
+    private final long[] presentationTimesUs = new long[CAPACITY];
+    private final long[] queueTimesNs = new long[CAPACITY];
+    private int head;
+    private int size;
+
+    void reset() {
+        head = 0;
+        size = 0;
+    }
+
+    void onInputQueued(long presentationTimeUs, long nowNs) {
+        if (size == CAPACITY) {
+            // The codec holds more buffers than expected, forget the oldest.
+            head = (head + 1) % CAPACITY;
+            size--;
+        }
+        int index = (head + size) % CAPACITY;
+        presentationTimesUs[index] = presentationTimeUs;
+        queueTimesNs[index] = nowNs;
+        size++;
+    }
+
+    /**
+     * Drops all inputs up to {@code presentationTimeUs}.
+     * @return The latency of the last input dropped, or -1 if there was none.
+     */
+    long onOutput(long presentationTimeUs, long nowNs) {
+        long latencyNs = -1;
+        while (size > 0 && presentationTimesUs[head] <= presentationTimeUs) {
+            latencyNs = nowNs - queueTimesNs[head];
+            head = (head + 1) % CAPACITY;
+            size--;
+        }
+        return latencyNs;
+    }
+}
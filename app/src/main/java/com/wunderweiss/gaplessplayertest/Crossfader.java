@@ -0,0 +1,278 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crossfades consecutive playlist items, sample accurately, in the format of the sink.
+ * <p>
+ * The last {@code fadeFrames} of the current item are held back in a delay line, as it isn't known
+ * where an item ends before its decoder reports the end of stream. When the next item starts, see
+ * {@link #startNextItem(PcmTrimmer.Output)}, the held frames become the tail that is faded out while
+ * the head of the new item is faded in, and both are summed. Items shorter than the fade are faded
+ * over their whole length. Since decoding runs ahead of playback, this only delays the PCM reaching
+ * the sink by the fade duration, and the tail of an item and the head of the next one are still
+ * decoded one after the other.
+ * <p>
+ * All buffers are allocated up front, except for the conversion buffers, which only grow on demand.
+ * Not thread-safe.
+ */
+public final class Crossfader {
+
+    private static final String TAG = Crossfader.class.getSimpleName();
+
+    /**
+     * How gains change over the fade. The fade out mirrors the fade in.
+     */
+    public enum FadeCurve {
+        /**
+         * Gains add up to 1, which keeps the level of correlated material, like two takes of the same
+         * recording, but dips by 3 dB in the middle for unrelated material.
+         */
+        LINEAR,
+        /**
+         * Squared gains add up to 1, which keeps the loudness of unrelated material constant.
+         */
+        EQUAL_POWER,
+        /**
+         * A linear fade with smoothed ends, which avoids audible kinks at the start and end of the fade.
+         */
+        S_CURVE;
+
+        float gain(double t) {
+            switch (this) {
+                case LINEAR:
+                    return (float) t;
+                case EQUAL_POWER:
+                    return (float) Math.sin(t * Math.PI / 2);
+                default:
+                    return (float) (t * t * (3 - 2 * t));
+            }
+        }
+    }
+
+    private final int channelCount;
+    private final PcmEncoding encoding;
+    private final int fadeFrames;
+    private final FadeCurve curve;
+
+    /**
+     * The fade in gains, from 0 at index 0 to 1 at {@code fadeFrames}.
+     */
+    private final float[] fadeInGains;
+
+    /**
+     * The delay line holding the latest frames of the current item, as a circular buffer.
+     */
+    private float[] held;
+    private int heldStart;
+    private int heldFrames;
+
+    /**
+     * The held frames of the previous item, while it is faded out.
+     */
+    private float[] tail;
+    private int tailStart;
+    private int tailFrames;
+    private int tailPosition;
+    private final float[] fadeOutFrame;
+
+    private byte[] inputData = new byte[0];
+    private float[] input = new float[0];
+    private float[] output = new float[0];
+    private byte[] outputData = new byte[0];
+    private ByteBuffer outputBuffer = ByteBuffer.wrap(outputData);
+    private int outputFrames;
+
+    private long mixedFrames;
+
+    /**
+     * @param fadeFrames The duration of a crossfade, in frames. Must be positive.
+     */
+    public Crossfader(int channelCount, PcmEncoding encoding, int fadeFrames, FadeCurve curve) {
+        if (fadeFrames <= 0) {
+            throw new IllegalArgumentException("fadeFrames must be positive: " + fadeFrames);
+        }
+        this.channelCount = channelCount;
+        this.encoding = encoding;
+        this.fadeFrames = fadeFrames;
+        this.curve = curve;
+        fadeInGains = new float[fadeFrames + 1];
+        for (int i = 0; i <= fadeFrames; i++) {
+            fadeInGains[i] = curve.gain((double) i / fadeFrames);
+        }
+        held = new float[fadeFrames * channelCount];
+        tail = new float[fadeFrames * channelCount];
+        fadeOutFrame = new float[channelCount];
+    }
+
+    /**
+     * Delays {@code size} bytes from the position of {@code buffer} by up to the fade duration, and
+     * mixes them with the tail of the previous item, if it is still fading out. Hands the frames that
+     * leave the delay line to {@code output}. Advances the position of {@code buffer} by {@code size}.
+     */
+    public void process(ByteBuffer buffer, int size, PcmTrimmer.Output output) {
+        int frames = size / encoding.getFrameSize(channelCount);
+        if (inputData.length < size) {
+            inputData = new byte[size * 3 / 2];
+        }
+        buffer.get(inputData, 0, size);
+        int samples = frames * channelCount;
+        if (input.length < samples) {
+            input = new float[samples * 3 / 2];
+        }
+        PcmConverter.decode(inputData, input, samples, encoding);
+
+        prepareOutput(frames);
+        int frame = 0;
+        if (tailPosition < tailFrames) {
+            frame = mixTail(frames);
+        }
+        for (; frame < frames; frame++) {
+            push(input, frame * channelCount);
+        }
+        writeOutput(output);
+    }
+
+    /**
+     * Marks the end of the current item. The frames processed next belong to the next item and are
+     * faded in over the held frames.
+     */
+    public void startNextItem(PcmTrimmer.Output output) {
+        finishFadeOut(output);
+
+        float[] swap = tail;
+        tail = held;
+        tailStart = heldStart;
+        tailFrames = heldFrames;
+        tailPosition = 0;
+        held = swap;
+        heldStart = 0;
+        heldFrames = 0;
+        L.d(TAG, "startNextItem - fading over %d frames (%s)", tailFrames, curve);
+    }
+
+    /**
+     * Hands all held frames to {@code output}, e.g. at the end of the playlist.
+     */
+    public void flush(PcmTrimmer.Output output) {
+        finishFadeOut(output);
+        prepareOutput(heldFrames);
+        for (int i = 0; i < heldFrames; i++) {
+            appendOutput(held, ((heldStart + i) % fadeFrames) * channelCount);
+        }
+        heldStart = 0;
+        heldFrames = 0;
+        writeOutput(output);
+    }
+
+    /**
+     * Drops all held frames and ends a running fade, e.g. on a seek.
+     */
+    public void reset() {
+        heldStart = 0;
+        heldFrames = 0;
+        tailFrames = 0;
+        tailPosition = 0;
+    }
+
+    /**
+     * @return The number of frames the head of an item was mixed with the tail of its predecessor.
+     */
+    public long getMixedFrames() {
+        return mixedFrames;
+    }
+
+    /**
+     * Mixes the head of the input into the tail, in place, and pushes the result into the delay line.
+     * @return The number of input frames consumed.
+     */
+    private int mixTail(int frames) {
+        int count = Math.min(frames, tailFrames - tailPosition);
+        // Short tails are faded over their whole length, with the same curve.
+        long step = ((long) fadeFrames << 16) / tailFrames;
+        for (int frame = 0; frame < count; frame++, tailPosition++) {
+            int gainIndex = (int) ((tailPosition * step) >> 16);
+            float gainIn = fadeInGains[gainIndex];
+            float gainOut = fadeInGains[fadeFrames - gainIndex];
+            int inputOffset = frame * channelCount;
+            int tailOffset = ((tailStart + tailPosition) % fadeFrames) * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                input[inputOffset + c] = tail[tailOffset + c] * gainOut + input[inputOffset + c] * gainIn;
+            }
+            push(input, inputOffset);
+        }
+        mixedFrames += count;
+        return count;
+    }
+
+    /**
+     * Fades out the rest of the tail, if the item faded in was shorter than the fade.
+     */
+    private void finishFadeOut(PcmTrimmer.Output output) {
+        int remaining = tailFrames - tailPosition;
+        if (remaining <= 0) {
+            return;
+        }
+        prepareOutput(remaining);
+        long step = ((long) fadeFrames << 16) / tailFrames;
+        for (; tailPosition < tailFrames; tailPosition++) {
+            float gainOut = fadeInGains[fadeFrames - (int) ((tailPosition * step) >> 16)];
+            int tailOffset = ((tailStart + tailPosition) % fadeFrames) * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                fadeOutFrame[c] = tail[tailOffset + c] * gainOut;
+            }
+            push(fadeOutFrame, 0);
+        }
+        writeOutput(output);
+    }
+
+    /**
+     * Appends a frame to the delay line, moving the oldest frame to the output if it is full.
+     */
+    private void push(float[] source, int offset) {
+        if (heldFrames < fadeFrames) {
+            System.arraycopy(source, offset, held, ((heldStart + heldFrames) % fadeFrames) * channelCount,
+                    channelCount);
+            heldFrames++;
+            return;
+        }
+        int heldOffset = heldStart * channelCount;
+        appendOutput(held, heldOffset);
+        System.arraycopy(source, offset, held, heldOffset, channelCount);
+        heldStart = heldStart + 1 == fadeFrames ? 0 : heldStart + 1;
+    }
+
+    /**
+     * Makes room for {@code frames} more output frames.
+     */
+    private void prepareOutput(int frames) {
+        int samples = (outputFrames + frames) * channelCount;
+        if (output.length < samples) {
+            float[] grown = new float[samples * 3 / 2];
+            System.arraycopy(output, 0, grown, 0, outputFrames * channelCount);
+            output = grown;
+        }
+    }
+
+    private void appendOutput(float[] source, int offset) {
+        System.arraycopy(source, offset, output, outputFrames * channelCount, channelCount);
+        outputFrames++;
+    }
+
+    private void writeOutput(PcmTrimmer.Output pcmOutput) {
+        if (outputFrames == 0) {
+            return;
+        }
+        int samples = outputFrames * channelCount;
+        int size = samples * encoding.bytesPerSample;
+        if (outputData.length < size) {
+            outputData = new byte[size * 3 / 2];
+            outputBuffer = ByteBuffer.wrap(outputData);
+        }
+        PcmConverter.encode(output, outputData, samples, encoding);
+        outputFrames = 0;
+        outputBuffer.clear();
+        outputBuffer.limit(size);
+        pcmOutput.output(outputBuffer, size);
+    }
+}
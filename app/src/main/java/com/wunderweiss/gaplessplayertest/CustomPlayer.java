@@ -1,319 +1,376 @@
 package com.wunderweiss.gaplessplayertest;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
-import android.media.*;
-import android.os.AsyncTask;
-import android.util.Log;
+import android.os.Debug;
+import android.os.Process;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link PlaybackLoop} with {@link android.media.MediaExtractor},
+ * {@link android.media.MediaCodec} and {@link android.media.AudioTrack} on a dedicated thread with
+ * audio priority. Playback is controlled through commands that may be issued from any thread and
+ * take effect within one iteration of the loop. The {@link Playlist} may be changed from any thread
+ * as well. Call {@link #release()} to stop playback, which returns right away while the audio thread
+ * releases its resources.
+ */
+public class CustomPlayer {
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
+    private static final String TAG = CustomPlayer.class.getSimpleName();
 
-public class CustomPlayer extends AsyncTask<Void, Void, Void> {
+    /**
+     * Notified on the audio thread, or on the thread calling {@link #release(ReleaseListener)} if the
+     * player already stopped.
+     */
+    public interface ReleaseListener {
+        /**
+         * Called once the audio thread released all resources, e.g. to release a shared
+         * {@link PcmCache} afterwards.
+         */
+        void onReleased(CustomPlayer player);
+    }
 
-    private static final String TAG = CustomPlayer.class.getSimpleName();
+    private static final String METADATA_INDEX_FILE = "media-metadata.idx";
 
     /**
-     * A multiplication factor to apply to the minimum buffer size requested by the underlying
-     * {@link android.media.AudioTrack}.
+     * The depth of the ring buffer in the power saving mode, which is decoded in bursts of half of it,
+     * in milliseconds.
      */
-    private static final int BUFFER_MULTIPLICATION_FACTOR = 4;
+    private static final int POWER_SAVING_RING_BUFFER_DURATION_MS = 4000;
+
+    private final AudioTrackSink sink = new AudioTrackSink();
+    private final MediaCodecDecoder.Factory decoderFactory = new MediaCodecDecoder.Factory();
+    private final MediaMetadataIndex metadataIndex;
+    private final Playlist playlist;
+    private final PlaylistProber prober;
+    private final PlaybackLoop loop;
+    private final CountDownLatch released = new CountDownLatch(1);
+    private PcmCache pcmCache;
+    private Thread thread;
+    private ReleaseListener releaseListener;
+
+    public CustomPlayer(Context context, String[] assets) {
+        metadataIndex = new MediaMetadataIndex(new File(context.getCacheDir(), METADATA_INDEX_FILE));
+        MediaExtractorSampleSource.AssetFactory sourceFactory =
+                new MediaExtractorSampleSource.AssetFactory(context, metadataIndex);
+        playlist = new Playlist(assets);
+        prober = new PlaylistProber(playlist, sourceFactory, PlaylistProber.getDefaultParallelism());
+        loop = new PlaybackLoop(playlist, sourceFactory, decoderFactory, sink)
+                .setTimeline(prober.getTimeline());
+    }
 
     /**
-     * A minimum length for the {@link android.media.AudioTrack} buffer, in microseconds.
+     * Sets how decoded PCM is written to the {@link android.media.AudioTrack} when the ring buffer is disabled, see
+     * {@link #setRingBufferDurationMs(int)}. Must be called before {@link #start()}.
      */
-    private static final long MIN_BUFFER_DURATION_US = 250000;
+    public CustomPlayer setOutputMode(AudioTrackSink.OutputMode outputMode) {
+        sink.setOutputMode(outputMode);
+        return this;
+    }
+
     /**
-     * A maximum length for the {@link android.media.AudioTrack} buffer, in microseconds.
+     * Sets how large the {@link android.media.AudioTrack} buffer is, see {@link AudioBufferPolicy}.
+     * Must be called before {@link #start()}.
      */
-    private static final long MAX_BUFFER_DURATION_US = 750000;
+    public CustomPlayer setBufferPolicy(AudioBufferPolicy.Mode bufferPolicy) {
+        sink.setBufferPolicy(bufferPolicy);
+        return this;
+    }
 
-    private MediaExtractor extractor = null;
-    private MediaExtractor nextExtractor = null;
-    private MediaCodec codec = null;
-    private AudioTrack audioTrack = null;
+    /**
+     * Sets whether playback keeps its threads asleep as long as possible, e.g. for background playback.
+     * Combines {@link AudioBufferPolicy.Mode#POWER_SAVING}, a ring buffer of several seconds and
+     * {@link PlaybackLoop#setPowerSaving(boolean, int)}, replacing the buffer policy and ring buffer
+     * depth set before. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setPowerSaving(boolean powerSaving) {
+        if (powerSaving) {
+            sink.setBufferPolicy(AudioBufferPolicy.Mode.POWER_SAVING);
+            loop.setRingBufferDurationMs(POWER_SAVING_RING_BUFFER_DURATION_MS);
+        }
+        loop.setPowerSaving(powerSaving, PlaybackLoop.DEFAULT_LOW_WATERMARK_MS);
+        return this;
+    }
 
-    private long currentExtractorPositionUs = 0;
-    private long absoluteExtractedPositionUs = 0;
-    private long currentCodecPositionUs = 0;
-    private long absoluteDecodedPositionUs = 0;
+    /**
+     * See {@link PlaybackLoop#setDecoderReuseEnabled(boolean)}. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setDecoderReuseEnabled(boolean decoderReuseEnabled) {
+        loop.setDecoderReuseEnabled(decoderReuseEnabled);
+        return this;
+    }
 
-    private int currentAsset = -1;
+    /**
+     * See {@link PlaybackLoop#setSchedulingMode(PlaybackLoop.SchedulingMode)}. Must be called before
+     * {@link #start()}.
+     */
+    public CustomPlayer setSchedulingMode(PlaybackLoop.SchedulingMode schedulingMode) {
+        loop.setSchedulingMode(schedulingMode);
+        return this;
+    }
 
-    private final String[] assets;
+    /**
+     * See {@link PlaybackLoop#setRingBufferDurationMs(int)}. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setRingBufferDurationMs(int ringBufferDurationMs) {
+        loop.setRingBufferDurationMs(ringBufferDurationMs);
+        return this;
+    }
 
-    private final Context context;
+    /**
+     * See {@link PlaybackLoop#setMinWriteDurationMs(int)}. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setMinWriteDurationMs(int minWriteDurationMs) {
+        loop.setMinWriteDurationMs(minWriteDurationMs);
+        return this;
+    }
 
-    public CustomPlayer(Context context, String[] assets) {
-        this.context = context;
-        this.assets = assets;
+    /**
+     * Sets whether encoder delay and padding are trimmed from the decoded PCM, see
+     * {@link GaplessInfo#fromFormat(android.media.MediaFormat)}. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setGaplessTrimmingEnabled(boolean gaplessTrimmingEnabled) {
+        loop.setGaplessTrimmingEnabled(gaplessTrimmingEnabled);
+        return this;
     }
 
-    @Override
-    protected Void doInBackground(Void... params) {
-        decodeLoop();
-        return null;
+    /**
+     * See {@link PlaybackLoop#setOutputFormat(int, int)}. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setOutputFormat(int sampleRate, int channelCount) {
+        loop.setOutputFormat(sampleRate, channelCount);
+        return this;
     }
 
-    private boolean initNextExtractor() throws IOException {
-        if (extractor != null) {
-            extractor.release();
-            extractor = null;
-        }
+    /**
+     * Sets the encoding of the {@link android.media.AudioTrack} and asks the decoders for it, see
+     * {@link PlaybackLoop#setOutputEncoding(PcmEncoding)}. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setOutputEncoding(PcmEncoding outputEncoding) {
+        decoderFactory.setPreferredEncoding(outputEncoding);
+        loop.setOutputEncoding(outputEncoding);
+        return this;
+    }
 
-        if (++currentAsset < assets.length) {
-            final String filename = assets[currentAsset];
+    /**
+     * See {@link PlaybackLoop#setResamplerQuality(Resampler.Quality)}. Must be called before
+     * {@link #start()}.
+     */
+    public CustomPlayer setResamplerQuality(Resampler.Quality resamplerQuality) {
+        loop.setResamplerQuality(resamplerQuality);
+        return this;
+    }
 
-            if (nextExtractor != null) {
-                extractor = nextExtractor;
-                nextExtractor = null;
-            } else {
-                extractor = initExtractor(filename);
-            }
+    /**
+     * See {@link PlaybackLoop#setCrossfade(int, Crossfader.FadeCurve)}. Must be called before
+     * {@link #start()}.
+     */
+    public CustomPlayer setCrossfade(int durationMs, Crossfader.FadeCurve fadeCurve) {
+        loop.setCrossfade(durationMs, fadeCurve);
+        return this;
+    }
 
-            L.d(TAG, "Extractor - asset: %s", filename);
+    /**
+     * Sets a file to dump all PCM written to the {@link android.media.AudioTrack} into, or null to disable the
+     * capture. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setPcmCaptureFile(File pcmCaptureFile) {
+        loop.setPcmCaptureFile(pcmCaptureFile);
+        return this;
+    }
 
-            return true;
-        } else {
-            return false;
+    /**
+     * Sets the cache to replay recently played items from, or null to decode every item, see
+     * {@link PlaybackLoop#setPcmCache(PcmCache)}. The cache may outlive the player and must be released
+     * by the caller. Must be called before {@link #start()}.
+     */
+    public CustomPlayer setPcmCache(PcmCache pcmCache) {
+        this.pcmCache = pcmCache;
+        loop.setPcmCache(pcmCache);
+        return this;
+    }
+
+    /**
+     * See {@link PlaybackLoop#setLookahead(int, long, int, boolean)}. Must be called before
+     * {@link #start()}.
+     */
+    public CustomPlayer setLookahead(int maxItems, long durationMs, int maxPrimedBytes, boolean primeDecoders) {
+        loop.setLookahead(maxItems, durationMs, maxPrimedBytes, primeDecoders);
+        return this;
+    }
+
+    /**
+     * Starts playback on the audio thread. Must be called once.
+     */
+    public synchronized CustomPlayer start() {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
         }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                runLoop();
+            }
+        }, TAG);
+        thread.start();
+        return this;
     }
 
-    private MediaExtractor initExtractor(String filename) throws IOException {
-        AssetFileDescriptor afd = context.getAssets().openFd(filename);
+    /**
+     * Resumes playback, see {@link PlaybackLoop#play()}. May be called from any thread.
+     */
+    public void resume() {
+        loop.play();
+    }
 
-        MediaExtractor extractor = new MediaExtractor();
-        extractor.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-        afd.close();
+    /**
+     * See {@link PlaybackLoop#pause()}. May be called from any thread.
+     */
+    public void pause() {
+        loop.pause();
+    }
 
-        extractor.selectTrack(0); // <= You must select a track. You will read samples from the media from this track!
-        return extractor;
+    /**
+     * See {@link PlaybackLoop#skipToNext()}. May be called from any thread.
+     */
+    public void skipToNext() {
+        loop.skipToNext();
     }
 
-    private void tryPreloadNextExtractor() throws IOException {
-        if (nextExtractor != null || extractor == null) {
-            return;
-        }
+    /**
+     * See {@link PlaybackLoop#skipToPrevious()}. May be called from any thread.
+     */
+    public void skipToPrevious() {
+        loop.skipToPrevious();
+    }
 
-        if (currentAsset < assets.length - 1 && extractor.hasCacheReachedEndOfStream()) {
-            Log.v(TAG, "tryPreloadNextExtractor - init next - current extractor info - cached duration: " + extractor.getCachedDuration() + ", cache reached end: " + extractor.hasCacheReachedEndOfStream());
-            nextExtractor = initExtractor(assets[currentAsset + 1]);
+    /**
+     * Stops playback without waiting for the audio thread, see {@link #release(ReleaseListener)}.
+     */
+    public void release() {
+        release(null);
+    }
+
+    /**
+     * Stops playback and returns right away. May be called from any thread, e.g. the main thread.
+     * @param listener Notified once the audio thread released all resources, or null.
+     */
+    public void release(ReleaseListener listener) {
+        loop.stop();
+        boolean alreadyReleased;
+        synchronized (this) {
+            releaseListener = listener;
+            alreadyReleased = thread == null || released.getCount() == 0;
+        }
+        if (alreadyReleased && listener != null) {
+            listener.onReleased(this);
         }
     }
 
-    private long getPlaybackPositionUs() {
-        if (audioTrack == null) {
-            return -1;
-        } else {
-            return Math.round(((double) audioTrack.getPlaybackHeadPosition() / audioTrack.getSampleRate()) * 1000000);
+    /**
+     * Waits until the audio thread released all resources after {@link #release()}, e.g. in tests or
+     * on a background thread. Must not be called on the main thread.
+     * @return False on timeout.
+     */
+    public boolean awaitRelease(long timeoutMs) throws InterruptedException {
+        synchronized (this) {
+            if (thread == null) {
+                return true;
+            }
         }
+        return released.await(timeoutMs, TimeUnit.MILLISECONDS);
     }
 
-    private long getAbsoluteExtractedPositionUs() {
-        return absoluteExtractedPositionUs + currentExtractorPositionUs;
+    /**
+     * Seeks to {@code positionUs} from the start of the playlist. May be called from any thread.
+     * @return False if the item at that position wasn't probed yet, see {@link #getTimeline()}.
+     */
+    public boolean seekTo(long positionUs) {
+        return loop.seekTo(positionUs);
     }
 
-    private long getAbsoluteDecodedPositionUs() {
-        return absoluteDecodedPositionUs + currentCodecPositionUs;
+    /**
+     * Seeks to {@code positionUs} within item {@code itemIndex}. May be called from any thread.
+     * @return False if the items before it weren't probed yet, see {@link #getTimeline()}.
+     */
+    public boolean seekTo(int itemIndex, long positionUs) {
+        return loop.seekTo(itemIndex, positionUs);
     }
 
-    private void decodeLoop() {
-        Log.v(TAG, "decodeLoop");
+    /**
+     * @return The playlist, which may be changed from any thread during playback.
+     */
+    public Playlist getPlaylist() {
+        return playlist;
+    }
 
-        try {
-            while (!isCancelled() && initNextExtractor()) {
-                Log.d(TAG, "inited next extractor");
-
-                ByteBuffer[] codecInputBuffers;
-                ByteBuffer[] codecOutputBuffers;
-                MediaCodec.BufferInfo outputBufferInfo = new MediaCodec.BufferInfo();
-
-                Log.d(TAG, String.format("TRACKS #: %d", extractor.getTrackCount()));
-                MediaFormat format = extractor.getTrackFormat(0);
-                String mime = format.getString(MediaFormat.KEY_MIME);
-                Log.d(TAG, String.format("MIME TYPE: %s", mime));
-                int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-                Log.d(TAG, String.format("SAMPLE RATE: %d", sampleRate));
-                int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-                Log.d(TAG, String.format("CHANNEL COUNT: %d", channelCount));
-                Log.d(TAG, String.format("DURATION: %d", format.getLong(MediaFormat.KEY_DURATION)));
-
-
-                codec = MediaCodec.createDecoderByType(mime);
-                codec.configure(format, null /* surface */, null /* crypto */, 0 /* flags */);
-                codec.start();
-                codecInputBuffers = codec.getInputBuffers();
-                codecOutputBuffers = codec.getOutputBuffers();
-
-                int channelConfig;
-                switch (channelCount) {
-                    case 1:
-                        channelConfig = AudioFormat.CHANNEL_OUT_MONO;
-                        break;
-                    case 2:
-                        channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
-                        break;
-                    case 6:
-                        channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
-                        break;
-                    case 8:
-                        channelConfig = AudioFormat.CHANNEL_OUT_7POINT1;
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported channel count: " + channelCount);
-                }
-
-                if (audioTrack == null) {
-                    int encoding = AudioFormat.ENCODING_PCM_16BIT;
-
-                    int frameSize = 2 * channelCount;
-                    int minBufferSize = android.media.AudioTrack.getMinBufferSize(sampleRate, channelConfig, encoding);
-                    int multipliedBufferSize = minBufferSize * BUFFER_MULTIPLICATION_FACTOR;
-                    int minAppBufferSize = (int) durationUsToFrames(MIN_BUFFER_DURATION_US, sampleRate) * frameSize;
-                    int maxAppBufferSize = (int) Math.max(minBufferSize,
-                            durationUsToFrames(MAX_BUFFER_DURATION_US, sampleRate) * frameSize);
-                    int bufferSize = multipliedBufferSize < minAppBufferSize ? minAppBufferSize
-                            : multipliedBufferSize > maxAppBufferSize ? maxAppBufferSize
-                            : multipliedBufferSize;
-                    Log.d(TAG, String.format("buffer sizes - minBufferSize: %d, minAppBufferSize: %d, maxAppBufferSize: %d, bufferSize: %d",
-                            minBufferSize, minAppBufferSize, maxAppBufferSize, bufferSize));
-
-                    audioTrack = new AudioTrack(
-                            AudioManager.STREAM_MUSIC,
-                            sampleRate,
-                            channelConfig,
-                            encoding,
-                            bufferSize,
-                            android.media.AudioTrack.MODE_STREAM
-                    );
-
-                    audioTrack.play();
-                }
-
-                int noOutputCounter = 0;
-                int noOutputCounterLimit = 50;
-                boolean sawInputEOS = false;
-                boolean sawOutputEOS = false;
-
-                while (!sawOutputEOS && noOutputCounter < noOutputCounterLimit && !isCancelled()) {
-                    noOutputCounter++;
-                    if (!sawInputEOS) {
-                        int inputBufferIndex = codec.dequeueInputBuffer(0);
-                        if (inputBufferIndex >= 0) {
-                            ByteBuffer dstBuf = codecInputBuffers[inputBufferIndex];
-
-                            int sampleSize = extractor.readSampleData(dstBuf, 0);
-                            long presentationTimeUs = 0;
-                            if (sampleSize < 0) {
-                                sawInputEOS = true;
-                                sampleSize = 0;
-                            } else {
-                                presentationTimeUs = extractor.getSampleTime();
-                                currentExtractorPositionUs = presentationTimeUs;
-                            }
-
-                            codec.queueInputBuffer(inputBufferIndex,
-                                    0, //offset
-                                    sampleSize,
-                                    presentationTimeUs,
-                                    sawInputEOS ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
-                            if (!sawInputEOS) {
-                                extractor.advance();
-                                Log.d(TAG, "queued input buffer, size " + sampleSize + "/" + presentationTimeUs + " (absoluteExtractedPositionUs: " + getAbsoluteExtractedPositionUs() + ", track pos: " + getPlaybackPositionUs() + ")");
-                            } else {
-                                Log.d(TAG, "saw input EOS, size " + sampleSize + "/" + presentationTimeUs + " (absoluteExtractedPositionUs: " + getAbsoluteExtractedPositionUs() + ", track pos: " + getPlaybackPositionUs() + ")");
-                            }
-                        } else {
-                            Log.d(TAG, "no input buffer dequeued (absoluteExtractedPositionUs: " + getAbsoluteExtractedPositionUs() + ", track pos: " + getPlaybackPositionUs() + ")");
-                        }
-                    }
-
-                    int outputBufferIndex = codec.dequeueOutputBuffer(outputBufferInfo, 0);
-                    if (outputBufferIndex >= 0) {
-
-                        currentCodecPositionUs = outputBufferInfo.presentationTimeUs;
-                        Log.d(TAG, "got frame, size " + outputBufferInfo.size + "/" + outputBufferInfo.presentationTimeUs + " (absoluteDecodedPositionUs: " + getAbsoluteDecodedPositionUs() + ", track pos: " + getPlaybackPositionUs() + ")");
-                        if (outputBufferInfo.size > 0) {
-                            noOutputCounter = 0;
-                        }
-
-                        ByteBuffer buf = codecOutputBuffers[outputBufferIndex];
-
-                        final byte[] chunk = new byte[outputBufferInfo.size];
-                        buf.get(chunk); // Read the buffer all at once
-                        buf.clear(); // ** MUST DO!!! OTHERWISE THE NEXT TIME YOU GET THIS SAME BUFFER BAD THINGS WILL HAPPEN
-
-                        if (chunk.length > 0) {
-                            audioTrack.write(chunk, 0, chunk.length);
-                        }
-                        codec.releaseOutputBuffer(outputBufferIndex, false /* render */);
-
-                        if ((outputBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                            Log.d(TAG, "saw output EOS.");
-                            sawOutputEOS = true;
-                        } else {
-                            Log.d(TAG, "released output buffer, next round...");
-                        }
-                    } else {
-                        if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                            // no needed to handle if API level >= 21 and using getOutputBuffer(int)
-                            codecOutputBuffers = codec.getOutputBuffers();
-                            Log.d(TAG, "output buffers have changed.");
-                        } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                            // Subsequent data will conform to new format.
-                            // can ignore if API level >= 21 and using getOutputFormat(outputBufferIndex)
-                            final MediaFormat oformat = codec.getOutputFormat();
-                            Log.d(TAG, "Output format has changed to " + oformat);
-                            audioTrack.setPlaybackRate(oformat.getInteger(MediaFormat.KEY_SAMPLE_RATE));
-                        } else if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                            Log.d(TAG, "output buffer: try again later");
-                        } else {
-                            Log.d(TAG, "unknown output info " + outputBufferIndex);
-                        }
-                    }
-
-                    tryPreloadNextExtractor();
-                }
-
-                codec.stop();
-                codec.release();
-                codec = null;
-
-                absoluteExtractedPositionUs += currentExtractorPositionUs;
-                currentExtractorPositionUs = 0;
-                absoluteDecodedPositionUs += currentCodecPositionUs;
-                currentCodecPositionUs = 0;
-            }
+    /**
+     * @return The timeline of the playlist, which is filled in in parallel to playback once started. May be read from any thread at any time.
+     */
+    public PlaylistTimeline getTimeline() {
+        return prober.getTimeline();
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, "playMedia - exception", e);
+    /**
+     * @return The metrics of the pipeline stages. May be read from any thread at any time.
+     */
+    public PipelineMetrics getMetrics() {
+        return loop.getMetrics();
+    }
+
+    private void runLoop() {
+        long cpuStartNs = Debug.threadCpuTimeNanos();
+        long processCpuStartMs = Process.getElapsedCpuTime();
+        prober.start(null);
+        try {
+            loop.run();
         } finally {
-            releaseResources();
+            prober.cancel();
+            logCpuStats(Debug.threadCpuTimeNanos() - cpuStartNs,
+                    Process.getElapsedCpuTime() - processCpuStartMs);
+            metadataIndex.save();
+            L.i(TAG, "metadata index - %s", metadataIndex);
+            if (pcmCache != null) {
+                L.i(TAG, "pcm cache - %s", pcmCache);
+            }
+            notifyReleased();
         }
     }
 
-    private void releaseResources() {
-        if (extractor != null) {
-            extractor.release();
-            extractor = null;
-        }
-        if (nextExtractor != null) {
-            nextExtractor.release();
-            nextExtractor = null;
+    private void notifyReleased() {
+        ReleaseListener listener;
+        synchronized (this) {
+            // Counted down under the lock, so that a concurrent release() notifies either here or there.
+            released.countDown();
+            listener = releaseListener;
         }
-        if (codec != null) {
-            codec.stop();
-            codec.release();
-            codec = null;
-        }
-
-        if (audioTrack != null) {
-            audioTrack.release();
-            audioTrack = null;
+        if (listener != null) {
+            listener.onReleased(this);
         }
     }
 
-    private static long durationUsToFrames(long durationUs, int sampleRate) {
-      return (durationUs * sampleRate) / 1000000L;
+    /**
+     * @param cpuNs The CPU time of the loop thread.
+     * @param processCpuMs The CPU time of all threads, including the prober and the sink writer.
+     */
+    private void logCpuStats(long cpuNs, long processCpuMs) {
+        long decodedUs = loop.getDecodedDurationUs();
+        if (decodedUs <= 0 || cpuNs < 0) {
+            return;
+        }
+        PipelineMetrics.Snapshot snapshot = loop.getMetrics().snapshot();
+        L.i(TAG, "cpu time - scheduling mode: %s, cpu: %d ms, decoded audio: %d ms, "
+                        + "cpu per minute of audio: %d ms, codec calls per minute of audio: %d, "
+                        + "sink writes per minute of audio: %d",
+                loop.getSchedulingMode(), cpuNs / 1000000, decodedUs / 1000, cpuNs * 60 / decodedUs,
+                snapshot.codecCallCount * 60000000L / decodedUs,
+                snapshot.sinkWrite.count * 60000000L / decodedUs);
+        L.i(TAG, "power - power saving: %s, process cpu per minute of audio: %d ms, "
+                        + "wakeups per minute of audio: %d",
+                loop.isPowerSaving(), processCpuMs * 60000000L / decodedUs,
+                snapshot.wakeupCount * 60000000L / decodedUs);
     }
 }
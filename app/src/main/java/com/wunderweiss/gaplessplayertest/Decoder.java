@@ -0,0 +1,89 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the samples of a {@link SampleSource} into PCM, with the buffer handling of
+ * {@link android.media.MediaCodec}: input and output buffers are dequeued by index and handed back
+ * when done.
+ */
+public interface Decoder {
+
+    /**
+     * Creates started decoders.
+     */
+    interface Factory {
+        Decoder create(TrackFormat format) throws IOException;
+    }
+
+    /**
+     * Describes a dequeued output buffer.
+     */
+    final class OutputInfo {
+        public int offset;
+        public int size;
+        public long presentationTimeUs;
+        public boolean endOfStream;
+    }
+
+    /**
+     * No buffer became available within the timeout.
+     */
+    int INFO_TRY_AGAIN_LATER = -1;
+    /**
+     * The output format changed, see {@link #getOutputSampleRate()} and {@link #getOutputEncoding()}.
+     */
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    /**
+     * The output buffers changed. The decoder has already picked up the new ones.
+     */
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    /**
+     * @return The index of an input buffer, or {@link #INFO_TRY_AGAIN_LATER}.
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int size, long presentationTimeUs, boolean endOfStream);
+
+    /**
+     * @return The index of an output buffer described by {@code info}, or one of the
+     *         {@code INFO_*} constants.
+     */
+    int dequeueOutputBuffer(OutputInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    int getOutputSampleRate();
+
+    /**
+     * @return The encoding of the output, final once {@link #INFO_OUTPUT_FORMAT_CHANGED} was reported.
+     */
+    PcmEncoding getOutputEncoding();
+
+    /**
+     * @return Whether {@link #flush()} is enough to decode {@code format} next, i.e. it needs the same
+     *         configuration as the current one.
+     */
+    boolean canFlushFor(TrackFormat format);
+
+    /**
+     * Drops all queued input and pending output, also after end of stream.
+     */
+    void flush();
+
+    /**
+     * Restarts the decoder with a different configuration.
+     */
+    void reconfigure(TrackFormat format);
+
+    /**
+     * Releases the decoder, even if it is in a bad state.
+     */
+    void release();
+}
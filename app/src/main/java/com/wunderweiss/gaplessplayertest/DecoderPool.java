@@ -0,0 +1,121 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps started {@link Decoder}s around between playlist items, so that the next item doesn't have
+ * to pay for creating a decoder at the track boundary.
+ * <p>
+ * Decoders are keyed by MIME type, sample rate and channel count. If the decoder can decode the next
+ * item after a flush (see {@link Decoder#canFlushFor(TrackFormat)}), it only gets flushed, otherwise
+ * it is reconfigured with the new format. If reuse is disabled, every acquired decoder is newly
+ * created and released when handed back. Not thread-safe, it is meant to be used from the decode
+ * thread only.
+ */
+public final class DecoderPool {
+
+    private static final String TAG = DecoderPool.class.getSimpleName();
+
+    private final Decoder.Factory factory;
+    private final boolean reuseEnabled;
+
+    private final Map<String, Decoder> idleDecoders = new HashMap<>();
+    private final Map<Decoder, TrackFormat> acquiredFormats = new HashMap<>();
+
+    private int createdCount;
+    private int flushedCount;
+    private int reconfiguredCount;
+
+    public DecoderPool(Decoder.Factory factory, boolean reuseEnabled) {
+        this.factory = factory;
+        this.reuseEnabled = reuseEnabled;
+    }
+
+    /**
+     * Returns a started decoder for {@code format}, reusing an idle one if possible.
+     */
+    public Decoder acquire(TrackFormat format) throws IOException {
+        Decoder decoder = idleDecoders.remove(getKey(format));
+        if (decoder != null) {
+            try {
+                if (decoder.canFlushFor(format)) {
+                    decoder.flush();
+                    flushedCount++;
+                } else {
+                    decoder.reconfigure(format);
+                    reconfiguredCount++;
+                }
+            } catch (IllegalStateException e) {
+                L.w(TAG, "acquire - reusing decoder failed, creating a new one", e);
+                decoder.release();
+                decoder = null;
+            }
+        }
+        if (decoder == null) {
+            decoder = factory.create(format);
+            createdCount++;
+        }
+        acquiredFormats.put(decoder, format);
+        return decoder;
+    }
+
+    /**
+     * Hands a decoder back to the pool. It is kept started, replacing any idle decoder for the same
+     * key, or released if reuse is disabled.
+     */
+    public void release(Decoder decoder) {
+        TrackFormat format = acquiredFormats.remove(decoder);
+        if (format == null) {
+            throw new IllegalArgumentException("Decoder has not been acquired from this pool");
+        }
+        if (!reuseEnabled) {
+            decoder.release();
+            return;
+        }
+        Decoder previous = idleDecoders.put(getKey(format), decoder);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Releases an acquired decoder instead of handing it back to the pool, e.g. because it is in an
+     * unknown state.
+     */
+    public void discard(Decoder decoder) {
+        acquiredFormats.remove(decoder);
+        decoder.release();
+    }
+
+    /**
+     * Releases all idle decoders. Acquired decoders are left alone.
+     */
+    public void releaseAll() {
+        for (Decoder decoder : idleDecoders.values()) {
+            decoder.release();
+        }
+        idleDecoders.clear();
+    }
+
+    public boolean isReuseEnabled() {
+        return reuseEnabled;
+    }
+
+    public int getCreatedCount() {
+        return createdCount;
+    }
+
+    public int getFlushedCount() {
+        return flushedCount;
+    }
+
+    public int getReconfiguredCount() {
+        return reconfiguredCount;
+    }
+
+    private static String getKey(TrackFormat format) {
+        return format.mime + '/' + format.sampleRate + '/' + format.channelCount;
+    }
+}
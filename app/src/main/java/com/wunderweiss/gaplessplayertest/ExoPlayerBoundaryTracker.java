@@ -0,0 +1,63 @@
+package com.wunderweiss.gaplessplayertest;
+
+import com.google.android.exoplayer2.Player;
+
+/**
+ * Turns ExoPlayer's listener callbacks into boundary metrics comparable to the ones CustomPlayer
+ * records: a transition into the next period is recorded with the time playback was stalled for
+ * it (0 if it wasn't), and every rebuffer after playback started counts as an underrun.
+ */
+public final class ExoPlayerBoundaryTracker {
+
+    private final PipelineMetrics metrics;
+
+    private int playbackState = Player.STATE_IDLE;
+    private int periodIndex;
+    private long bufferingStartNs = -1;
+    private boolean boundaryPending;
+    private int boundaryRebufferCount;
+
+    /**
+     * @param periodIndex The period the player is at when the tracker is attached, see
+     *        {@link Player#getCurrentPeriodIndex()}, so that the first transition is recorded too.
+     */
+    public ExoPlayerBoundaryTracker(PipelineMetrics metrics, int periodIndex) {
+        this.metrics = metrics;
+        this.periodIndex = periodIndex;
+    }
+
+    public void onPlayerStateChanged(int playbackState) {
+        if (playbackState == Player.STATE_BUFFERING && this.playbackState == Player.STATE_READY) {
+            bufferingStartNs = System.nanoTime();
+            metrics.incrementUnderrunCount();
+        } else if (playbackState == Player.STATE_READY) {
+            if (boundaryPending) {
+                if (bufferingStartNs >= 0) {
+                    boundaryRebufferCount++;
+                }
+                metrics.recordBoundaryTransition(bufferingStartNs >= 0 ? System.nanoTime() - bufferingStartNs : 0);
+                boundaryPending = false;
+            }
+            bufferingStartNs = -1;
+        }
+        this.playbackState = playbackState;
+    }
+
+    /**
+     * @return How many period transitions playback stalled for.
+     */
+    public int getBoundaryRebufferCount() {
+        return boundaryRebufferCount;
+    }
+
+    public void onPositionDiscontinuity(int periodIndex) {
+        if (periodIndex != this.periodIndex) {
+            if (playbackState == Player.STATE_READY) {
+                metrics.recordBoundaryTransition(0);
+            } else {
+                boundaryPending = true;
+            }
+        }
+        this.periodIndex = periodIndex;
+    }
+}
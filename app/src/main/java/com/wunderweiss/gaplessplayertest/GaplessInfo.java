@@ -0,0 +1,105 @@
+package com.wunderweiss.gaplessplayertest;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The number of frames a decoder emits that are not part of the actual audio: the encoder delay
+ * (priming samples) at the start and the padding at the end. Alternatively the exact number of
+ * frames of the item, if the container defines it.
+ */
+public final class GaplessInfo {
+
+    public static final GaplessInfo NONE = new GaplessInfo(0, 0, -1);
+
+    /**
+     * {@code MediaFormat.KEY_ENCODER_DELAY}, API 30, but set by the platform extractors before.
+     */
+    static final String KEY_ENCODER_DELAY = "encoder-delay";
+    /**
+     * {@code MediaFormat.KEY_ENCODER_PADDING}, API 30, but set by the platform extractors before.
+     */
+    static final String KEY_ENCODER_PADDING = "encoder-padding";
+
+    private static final String MIME_OPUS = "audio/opus";
+    private static final String MIME_VORBIS = "audio/vorbis";
+
+    /**
+     * The number of frames to drop at the start.
+     */
+    public final int delayFrames;
+    /**
+     * The number of frames to drop at the end.
+     */
+    public final int paddingFrames;
+    /**
+     * The number of frames to keep after the delay, or -1 if unknown. If known, it takes precedence
+     * over {@link #paddingFrames}.
+     */
+    public final long totalFrames;
+
+    public GaplessInfo(int delayFrames, int paddingFrames, long totalFrames) {
+        this.delayFrames = delayFrames;
+        this.paddingFrames = paddingFrames;
+        this.totalFrames = totalFrames;
+    }
+
+    /**
+     * Reads the gapless info from a track format as returned by
+     * {@link android.media.MediaExtractor#getTrackFormat(int)}.
+     * <ul>
+     * <li>MP3 (LAME/Xing header) and AAC (iTunSMPB, edit lists): the platform extractors report
+     * {@link #KEY_ENCODER_DELAY} and {@link #KEY_ENCODER_PADDING}.</li>
+     * <li>Ogg Opus: the pre-skip from the OpusHead in csd-0, unless the extractor also provides the
+     * codec delay in csd-1, which the platform decoder already skips.</li>
+     * <li>Ogg Vorbis and Opus: the duration is derived from the last granule position, so it defines
+     * the exact number of frames and cuts off the padding of the last page.</li>
+     * </ul>
+     */
+    public static GaplessInfo fromFormat(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        int delayFrames = getInteger(format, KEY_ENCODER_DELAY);
+        int paddingFrames = getInteger(format, KEY_ENCODER_PADDING);
+        long totalFrames = -1;
+
+        if (MIME_OPUS.equals(mime) && format.containsKey("csd-0") && !format.containsKey("csd-1")) {
+            delayFrames = parseOpusPreSkip(format.getByteBuffer("csd-0"));
+        }
+        if ((MIME_VORBIS.equals(mime) || MIME_OPUS.equals(mime))
+                && format.containsKey(MediaFormat.KEY_DURATION)) {
+            // Opus is always decoded at 48 kHz, whatever the input sample rate says.
+            int sampleRate = MIME_OPUS.equals(mime) ? 48000 : format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            totalFrames = (format.getLong(MediaFormat.KEY_DURATION) * sampleRate + 500000) / 1000000;
+        }
+
+        if (delayFrames == 0 && paddingFrames == 0 && totalFrames < 0) {
+            return NONE;
+        }
+        return new GaplessInfo(delayFrames, paddingFrames, totalFrames);
+    }
+
+    /**
+     * Parses the pre-skip, a little endian uint16 at offset 10 of an OpusHead header.
+     * @return The pre-skip in frames at 48 kHz, or 0 if {@code opusHead} is too short.
+     */
+    public static int parseOpusPreSkip(ByteBuffer opusHead) {
+        ByteBuffer header = opusHead.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.rewind();
+        if (header.remaining() < 12) {
+            return 0;
+        }
+        return header.getShort(10) & 0xFFFF;
+    }
+
+    private static int getInteger(MediaFormat format, String key) {
+        return format.containsKey(key) ? format.getInteger(key) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GaplessInfo{delayFrames=" + delayFrames + ", paddingFrames=" + paddingFrames
+                + ", totalFrames=" + totalFrames + '}';
+    }
+}
@@ -0,0 +1,170 @@
+package com.wunderweiss.gaplessplayertest;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * A {@link LoadControl} for gapless playlists, which keeps the next period loaded ahead of its
+ * boundary within a hard memory cap.
+ * <p>
+ * ExoPlayer only prepares the next period once the loading one was loaded to its end, and the
+ * buffered duration it passes in spans period boundaries. {@link DefaultLoadControl} lets that
+ * duration run down to its minimum before loading again, so the loader may reach the end of a period
+ * with little buffer left to prepare the next one in. This control starts loading again a boundary
+ * lead earlier, the time the next period may take to prepare on slow storage. Once the loader crossed
+ * into a new period, it keeps loading until the boundary lead of it is buffered as well, even beyond
+ * the maximum duration, so its start is in memory before playback reaches it.
+ * <p>
+ * Loading always stops at the memory cap, which is also the allocator's target size. Playback then
+ * starts with whatever is buffered, like {@link DefaultLoadControl} does once its target is reached.
+ * <p>
+ * The setters must be called before the player is created. All other methods are called on the
+ * playback thread.
+ */
+public final class GaplessLoadControl implements LoadControl {
+
+    private static final String TAG = GaplessLoadControl.class.getSimpleName();
+
+    /**
+     * The default time to hide the preparation of the next period in, in milliseconds.
+     */
+    public static final int DEFAULT_BOUNDARY_LEAD_MS = 5000;
+    /**
+     * The default memory cap, in bytes. Lower than what {@link DefaultLoadControl} targets for an
+     * audio track, which holds far more than the maximum duration of compressed audio.
+     */
+    public static final int DEFAULT_MAX_BUFFER_BYTES = 2 * 1024 * 1024;
+
+    private final DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+
+    private long minBufferUs = DefaultLoadControl.DEFAULT_MIN_BUFFER_MS * 1000L;
+    private long maxBufferUs = DefaultLoadControl.DEFAULT_MAX_BUFFER_MS * 1000L;
+    private long bufferForPlaybackUs = DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS * 1000L;
+    private long bufferForPlaybackAfterRebufferUs = DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS * 1000L;
+    private long boundaryLeadUs = DEFAULT_BOUNDARY_LEAD_MS * 1000L;
+    private int maxBufferBytes = DEFAULT_MAX_BUFFER_BYTES;
+
+    private boolean isLoading;
+    private boolean periodSelected;
+    private boolean newPeriodSelected;
+    /**
+     * The buffered duration up to which the start of a new period is loaded, or -1.
+     */
+    private long newPeriodFillUs = -1;
+
+    public GaplessLoadControl() {
+        allocator.setTargetBufferSize(maxBufferBytes);
+    }
+
+    /**
+     * Sets the buffered durations, like the ones of {@link DefaultLoadControl}.
+     */
+    public GaplessLoadControl setBufferDurationsMs(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                                                   int bufferForPlaybackAfterRebufferMs) {
+        this.minBufferUs = minBufferMs * 1000L;
+        this.maxBufferUs = maxBufferMs * 1000L;
+        this.bufferForPlaybackUs = bufferForPlaybackMs * 1000L;
+        this.bufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferMs * 1000L;
+        return this;
+    }
+
+    /**
+     * Sets how much earlier than at the minimum duration loading starts again, and how much of a new
+     * period is loaded ahead.
+     */
+    public GaplessLoadControl setBoundaryLeadMs(int boundaryLeadMs) {
+        this.boundaryLeadUs = boundaryLeadMs * 1000L;
+        return this;
+    }
+
+    /**
+     * Sets the memory cap of the allocator, in bytes.
+     */
+    public GaplessLoadControl setMaxBufferBytes(int maxBufferBytes) {
+        this.maxBufferBytes = maxBufferBytes;
+        allocator.setTargetBufferSize(maxBufferBytes);
+        return this;
+    }
+
+    @Override
+    public void onPrepared() {
+        reset(false);
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        // Called for every period once it is prepared, the first one is no boundary.
+        newPeriodSelected = periodSelected;
+        periodSelected = true;
+    }
+
+    @Override
+    public void onStopped() {
+        reset(true);
+    }
+
+    @Override
+    public void onReleased() {
+        reset(true);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        long minUs = rebuffering ? bufferForPlaybackAfterRebufferUs : bufferForPlaybackUs;
+        return minUs <= 0 || bufferedDurationUs >= minUs || isCapReached();
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        if (newPeriodSelected) {
+            newPeriodSelected = false;
+            newPeriodFillUs = bufferedDurationUs + boundaryLeadUs;
+            L.d(TAG, "shouldContinueLoading - next period prepared %d ms ahead", bufferedDurationUs / 1000);
+        }
+        if (newPeriodFillUs >= 0 && bufferedDurationUs >= newPeriodFillUs) {
+            newPeriodFillUs = -1;
+        }
+
+        boolean wasLoading = isLoading;
+        if (isCapReached()) {
+            isLoading = false;
+        } else if (bufferedDurationUs < minBufferUs + boundaryLeadUs || newPeriodFillUs >= 0) {
+            isLoading = true;
+        } else if (bufferedDurationUs >= maxBufferUs) {
+            isLoading = false;
+        }
+        if (isLoading != wasLoading) {
+            L.d(TAG, "shouldContinueLoading - %s at %d ms, %d bytes", isLoading ? "resuming" : "pausing",
+                    bufferedDurationUs / 1000, allocator.getTotalBytesAllocated());
+        }
+        return isLoading;
+    }
+
+    private boolean isCapReached() {
+        return allocator.getTotalBytesAllocated() >= maxBufferBytes;
+    }
+
+    private void reset(boolean resetAllocator) {
+        isLoading = false;
+        periodSelected = false;
+        newPeriodSelected = false;
+        newPeriodFillUs = -1;
+        if (resetAllocator) {
+            // Trimming on reset drops the target size as well.
+            allocator.reset();
+            allocator.setTargetBufferSize(maxBufferBytes);
+        }
+    }
+}
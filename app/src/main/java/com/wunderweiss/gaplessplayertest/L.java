@@ -41,6 +41,48 @@ public class L {
      */
     public static final int ASSERT = 7;
 
+    /**
+     * The number of events the hot path ring can hold.
+     */
+    private static final int HOT_PATH_CAPACITY = 1024;
+
+    private static volatile int minPriority = BuildConfig.DEBUG ? VERBOSE : INFO;
+
+    private static volatile LogRing hotPathRing;
+
+    /**
+     * Sets the lowest priority that is logged. Messages below it are dropped before they are
+     * formatted.
+     */
+    public static void setMinPriority(int priority) {
+        minPriority = priority;
+    }
+
+    /**
+     * @return Whether messages of {@code priority} are logged. Check this before computing expensive
+     *         arguments.
+     */
+    public static boolean isLoggable(int priority) {
+        return priority >= minPriority;
+    }
+
+    /**
+     * Enables or disables the hot path mode. While enabled, the overloads taking long arguments
+     * record the message into a preallocated ring instead of formatting it, and a background thread
+     * formats and prints it later. This keeps logging on the audio threads from changing their
+     * timing.
+     */
+    public static synchronized void setHotPathMode(boolean enabled) {
+        if (enabled && hotPathRing == null) {
+            LogRing ring = new LogRing(HOT_PATH_CAPACITY);
+            ring.startFlushing();
+            hotPathRing = ring;
+        } else if (!enabled && hotPathRing != null) {
+            hotPathRing.stopFlushing();
+            hotPathRing = null;
+        }
+    }
+
     /**
      * Send a {@link #VERBOSE} log message.
      * @param tag Used to identify the source of a log message.  It usually identifies
@@ -55,6 +97,22 @@ public class L {
         println(VERBOSE, tag, msg, args);
     }
 
+    public static void v(String tag, String msg, long arg0) {
+        println(VERBOSE, tag, msg, arg0, 0, 0, 0);
+    }
+
+    public static void v(String tag, String msg, long arg0, long arg1) {
+        println(VERBOSE, tag, msg, arg0, arg1, 0, 0);
+    }
+
+    public static void v(String tag, String msg, long arg0, long arg1, long arg2) {
+        println(VERBOSE, tag, msg, arg0, arg1, arg2, 0);
+    }
+
+    public static void v(String tag, String msg, long arg0, long arg1, long arg2, long arg3) {
+        println(VERBOSE, tag, msg, arg0, arg1, arg2, arg3);
+    }
+
     /**
      * Send a {@link #VERBOSE} log message and log the exception.
      * @param tag Used to identify the source of a log message.  It usually identifies
@@ -80,6 +138,22 @@ public class L {
         println(DEBUG, tag, msg, args);
     }
 
+    public static void d(String tag, String msg, long arg0) {
+        println(DEBUG, tag, msg, arg0, 0, 0, 0);
+    }
+
+    public static void d(String tag, String msg, long arg0, long arg1) {
+        println(DEBUG, tag, msg, arg0, arg1, 0, 0);
+    }
+
+    public static void d(String tag, String msg, long arg0, long arg1, long arg2) {
+        println(DEBUG, tag, msg, arg0, arg1, arg2, 0);
+    }
+
+    public static void d(String tag, String msg, long arg0, long arg1, long arg2, long arg3) {
+        println(DEBUG, tag, msg, arg0, arg1, arg2, arg3);
+    }
+
     /**
      * Send a {@link #DEBUG} log message and log the exception.
      * @param tag Used to identify the source of a log message.  It usually identifies
@@ -105,6 +179,22 @@ public class L {
         println(INFO, tag, msg, args);
     }
 
+    public static void i(String tag, String msg, long arg0) {
+        println(INFO, tag, msg, arg0, 0, 0, 0);
+    }
+
+    public static void i(String tag, String msg, long arg0, long arg1) {
+        println(INFO, tag, msg, arg0, arg1, 0, 0);
+    }
+
+    public static void i(String tag, String msg, long arg0, long arg1, long arg2) {
+        println(INFO, tag, msg, arg0, arg1, arg2, 0);
+    }
+
+    public static void i(String tag, String msg, long arg0, long arg1, long arg2, long arg3) {
+        println(INFO, tag, msg, arg0, arg1, arg2, arg3);
+    }
+
     /**
      * Send a {@link #INFO} log message and log the exception.
      * @param tag Used to identify the source of a log message.  It usually identifies
@@ -130,6 +220,22 @@ public class L {
         println(WARN, tag, msg, args);
     }
 
+    public static void w(String tag, String msg, long arg0) {
+        println(WARN, tag, msg, arg0, 0, 0, 0);
+    }
+
+    public static void w(String tag, String msg, long arg0, long arg1) {
+        println(WARN, tag, msg, arg0, arg1, 0, 0);
+    }
+
+    public static void w(String tag, String msg, long arg0, long arg1, long arg2) {
+        println(WARN, tag, msg, arg0, arg1, arg2, 0);
+    }
+
+    public static void w(String tag, String msg, long arg0, long arg1, long arg2, long arg3) {
+        println(WARN, tag, msg, arg0, arg1, arg2, arg3);
+    }
+
     /**
      * Send a {@link #WARN} log message and log the exception.
      * @param tag Used to identify the source of a log message.  It usually identifies
@@ -165,6 +271,22 @@ public class L {
         println(ERROR, tag, msg, args);
     }
 
+    public static void e(String tag, String msg, long arg0) {
+        println(ERROR, tag, msg, arg0, 0, 0, 0);
+    }
+
+    public static void e(String tag, String msg, long arg0, long arg1) {
+        println(ERROR, tag, msg, arg0, arg1, 0, 0);
+    }
+
+    public static void e(String tag, String msg, long arg0, long arg1, long arg2) {
+        println(ERROR, tag, msg, arg0, arg1, arg2, 0);
+    }
+
+    public static void e(String tag, String msg, long arg0, long arg1, long arg2, long arg3) {
+        println(ERROR, tag, msg, arg0, arg1, arg2, arg3);
+    }
+
     /**
      * Send a {@link #ERROR} log message and log the exception.
      * @param tag Used to identify the source of a log message.  It usually identifies
@@ -210,13 +332,36 @@ public class L {
      * @param msg The message you would like logged.
      */
     public static void println(int priority, String tag, String msg) {
+        if (priority < minPriority) {
+            return;
+        }
         Log.println(priority, tag, msg);
     }
 
     public static void println(int priority, String tag, String msg, Object... args) {
+        if (priority < minPriority) {
+            return;
+        }
         if (args != null && args.length > 0) {
             msg = String.format(msg, args);
         }
         println(priority, tag, msg);
     }
+
+    /**
+     * Logs a message with up to four long arguments, without boxing them. In hot path mode the
+     * message is only recorded, see {@link #setHotPathMode(boolean)}. Unused arguments are ignored by
+     * the format string.
+     */
+    public static void println(int priority, String tag, String msg, long arg0, long arg1, long arg2, long arg3) {
+        if (priority < minPriority) {
+            return;
+        }
+        LogRing ring = hotPathRing;
+        if (ring != null) {
+            ring.record(priority, tag, msg, arg0, arg1, arg2, arg3);
+        } else {
+            println(priority, tag, String.format(msg, arg0, arg1, arg2, arg3));
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with power of two buckets.
+ * <p>
+ * Recording is a few atomic increments and never allocates, so it can stay enabled on the audio
+ * threads. Percentiles are approximated by the upper bound of their bucket.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Bucket {@code i} counts values in {@code [2^(i-1), 2^i)}, the last one everything above.
+     */
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNs = new AtomicLong();
+    private final AtomicLong maxNs = new AtomicLong();
+
+    public void record(long valueNs) {
+        int bucket = valueNs <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(valueNs));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNs.addAndGet(valueNs);
+        long max = maxNs.get();
+        while (valueNs > max && !maxNs.compareAndSet(max, valueNs)) {
+            max = maxNs.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, count.get(), sumNs.get(), maxNs.get());
+    }
+
+    /**
+     * An immutable copy of a histogram. The fields are read one after another, so a snapshot taken
+     * while recording may be off by the values recorded in between.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        public final long count;
+        public final long sumNs;
+        public final long maxNs;
+
+        Snapshot(long[] counts, long count, long sumNs, long maxNs) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNs = sumNs;
+            this.maxNs = maxNs;
+        }
+
+        public long getMeanNs() {
+            return count == 0 ? 0 : sumNs / count;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100.
+         * @return The upper bound of the bucket holding the percentile, at most {@link #maxNs}.
+         */
+        public long getPercentileNs(double percentile) {
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            long threshold = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold && seen > 0) {
+                    return i == 0 ? 0 : Math.min(maxNs, (1L << i) - 1);
+                }
+            }
+            return maxNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d, mean=%dus, p50=%dus, p99=%dus, max=%dus", count, getMeanNs() / 1000,
+                    getPercentileNs(50) / 1000, getPercentileNs(99) / 1000, maxNs / 1000);
+        }
+    }
+}
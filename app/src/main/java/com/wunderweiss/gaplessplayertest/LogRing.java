@@ -0,0 +1,140 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A preallocated ring of log events for {@link L}'s hot path mode.
+ * <p>
+ * Recording an event only stores the priority, the tag, the format string and up to four long
+ * arguments. It neither allocates nor formats nor blocks, and drops the event if the ring is full.
+ * A daemon thread formats and prints the recorded events periodically. Any number of threads may
+ * record events (bounded MPMC queue after Dmitry Vyukov).
+ */
+final class LogRing {
+
+    private static final long FLUSH_INTERVAL_MS = 100;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] priorities;
+    private final String[] tags;
+    private final String[] formats;
+    private final long[] args;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private Thread flushThread;
+
+    /**
+     * @param capacity The number of events the ring can hold, rounded up to a power of two.
+     */
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        priorities = new int[size];
+        tags = new String[size];
+        formats = new String[size];
+        args = new long[size * 4];
+    }
+
+    /**
+     * Records an event. The format string is only applied when the event is flushed.
+     */
+    void record(int priority, String tag, String format, long arg0, long arg1, long arg2, long arg3) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        }
+
+        priorities[index] = priority;
+        tags[index] = tag;
+        formats[index] = format;
+        args[index * 4] = arg0;
+        args[index * 4 + 1] = arg1;
+        args[index * 4 + 2] = arg2;
+        args[index * 4 + 3] = arg3;
+        sequences.lazySet(index, position + 1);
+    }
+
+    /**
+     * Prints all recorded events.
+     */
+    synchronized void flush() {
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            int priority = priorities[index];
+            String tag = tags[index];
+            String message = String.format(formats[index], args[index * 4], args[index * 4 + 1],
+                    args[index * 4 + 2], args[index * 4 + 3]);
+            tags[index] = null;
+            formats[index] = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+
+            L.println(priority, tag, message);
+        }
+
+        long dropped = droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            L.println(L.WARN, LogRing.class.getSimpleName(), "dropped " + dropped + " log events");
+        }
+    }
+
+    /**
+     * Starts the daemon thread that flushes the ring, unless it is already running.
+     */
+    synchronized void startFlushing() {
+        if (flushThread != null) {
+            return;
+        }
+        flushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    flush();
+                    try {
+                        Thread.sleep(FLUSH_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        flush();
+                        return;
+                    }
+                }
+            }
+        }, LogRing.class.getSimpleName());
+        flushThread.setDaemon(true);
+        flushThread.setPriority(Thread.MIN_PRIORITY);
+        flushThread.start();
+    }
+
+    /**
+     * Stops the flush thread after a final flush.
+     */
+    synchronized void stopFlushing() {
+        if (flushThread != null) {
+            flushThread.interrupt();
+            flushThread = null;
+        }
+    }
+}
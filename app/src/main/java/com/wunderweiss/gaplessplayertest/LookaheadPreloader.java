@@ -0,0 +1,384 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Prepares the playlist items following the current one ahead of time, so that they are ready when
+ * playback reaches their boundary.
+ * <p>
+ * Preparing means opening the item's {@link SampleSource} and, if priming is
+ * enabled, starting a decoder and decoding until it emits its first PCM. Items are prepared in
+ * playlist order as long as they start within the lookahead duration, there are less than the
+ * maximum number of prepared items and the primed PCM fits into its buffer, which is allocated once
+ * with the size of the memory budget. Each call to
+ * {@link #maybePrepare(Playlist.Item[], int, long, long)} prepares at most one item, and priming
+ * only takes as long as the output can play without new PCM, so that the sink doesn't run dry.
+ * <p>
+ * The {@link Playlist} may change while items are prepared. Each call first releases the prepared
+ * items that no longer follow the current one, so a successor that was swapped out is replaced by
+ * the new one well before the boundary.
+ * <p>
+ * An {@link ItemFilter} may exclude items that need no preparation, like items replayed from a
+ * {@link PcmCache}. Preparation stops at such an item until it became the current one.
+ * <p>
+ * Not thread-safe, it is meant to be used from the decode thread only.
+ */
+public final class LookaheadPreloader {
+
+    private static final String TAG = LookaheadPreloader.class.getSimpleName();
+
+    /**
+     * The maximum time spent priming a single decoder, in nanoseconds.
+     */
+    private static final long PRIME_TIMEOUT_NS = 200000000;
+    /**
+     * The shortest time worth priming a decoder for, in nanoseconds. With less buffered output,
+     * items are only opened.
+     */
+    private static final long MIN_PRIME_DURATION_NS = 10000000;
+    /**
+     * The dequeue timeout used while priming, in microseconds.
+     */
+    private static final long PRIME_DEQUEUE_TIMEOUT_US = 5000;
+
+    /**
+     * A prepared playlist item.
+     */
+    public static final class PreparedItem {
+        public final Playlist.Item item;
+        public final SampleSource source;
+        public final TrackFormat format;
+
+        /**
+         * The primed decoder, or null if the item hasn't been primed.
+         */
+        public Decoder decoder;
+        /**
+         * The decoder output sample rate, if a format change was reported while priming, 0 otherwise.
+         */
+        public int outputSampleRate;
+        /**
+         * The PCM emitted while priming, to be played before anything else is decoded. A region of the
+         * preloader's primed PCM buffer, valid until the next call to
+         * {@link #maybePrepare(Playlist.Item[], int, long, long)} after the item was taken.
+         */
+        public ByteBuffer primedPcm;
+        /**
+         * The presentation time of the last sample queued while priming.
+         */
+        public long extractorPositionUs;
+        public boolean sawInputEOS;
+        public boolean sawOutputEOS;
+
+        PreparedItem(Playlist.Item item, SampleSource source) {
+            this.item = item;
+            this.source = source;
+            this.format = source.getFormat();
+        }
+
+        public boolean isPrimed() {
+            return decoder != null && primedPcm != null;
+        }
+    }
+
+    /**
+     * Decides which items are prepared.
+     */
+    public interface ItemFilter {
+        boolean shouldPrepare(Playlist.Item item);
+    }
+
+    private final SampleSource.Factory sourceFactory;
+    private final DecoderPool decoderPool;
+
+    private final ArrayDeque<PreparedItem> preparedItems = new ArrayDeque<>();
+
+    private int maxItems = 2;
+    private long lookaheadDurationUs = 10000000;
+    private int maxPrimedBytes = 1024 * 1024;
+    private boolean primingEnabled = true;
+    private ItemFilter itemFilter = null;
+
+    /**
+     * Holds the primed PCM of the prepared items, in playlist order and wrapping around like a ring
+     * buffer, as items are taken from the front and invalidated from the back.
+     */
+    private byte[] primedPcmBuffer;
+
+    private int fullyReadyCount;
+    private int extractorOnlyCount;
+    private int missedCount;
+    private int invalidatedCount;
+
+    /**
+     * @param decoderPool The pool to acquire primed decoders from.
+     */
+    public LookaheadPreloader(SampleSource.Factory sourceFactory, DecoderPool decoderPool) {
+        this.sourceFactory = sourceFactory;
+        this.decoderPool = decoderPool;
+    }
+
+    /**
+     * @param maxItems The maximum number of items to keep prepared. 0 disables preloading.
+     * @param lookaheadDurationUs Items are only prepared if they start within this duration.
+     * @param maxPrimedBytes The maximum amount of primed PCM to keep around.
+     */
+    public void setBudget(int maxItems, long lookaheadDurationUs, int maxPrimedBytes) {
+        this.maxItems = maxItems;
+        this.lookaheadDurationUs = lookaheadDurationUs;
+        this.maxPrimedBytes = maxPrimedBytes;
+    }
+
+    public void setPrimingEnabled(boolean primingEnabled) {
+        this.primingEnabled = primingEnabled;
+    }
+
+    /**
+     * @param itemFilter The filter excluding items from preparation, or null to prepare all.
+     */
+    public void setItemFilter(ItemFilter itemFilter) {
+        this.itemFilter = itemFilter;
+    }
+
+    /**
+     * Prepares the next unprepared item, if it is within the budget.
+     * @param items The current items of the playlist.
+     * @param nextIndex The index of the item following the one currently being decoded.
+     * @param currentRemainingUs The remaining duration of the current item.
+     * @param bufferedOutputUs How long the output can play without new PCM, which bounds the time
+     *        spent priming.
+     */
+    public void maybePrepare(Playlist.Item[] items, int nextIndex, long currentRemainingUs, long bufferedOutputUs)
+            throws IOException {
+        releaseInvalidated(items, nextIndex);
+        if (preparedItems.size() >= maxItems) {
+            return;
+        }
+
+        long startsInUs = Math.max(0, currentRemainingUs);
+        for (PreparedItem item : preparedItems) {
+            startsInUs += item.format.durationUs;
+        }
+        nextIndex += preparedItems.size();
+        if (nextIndex >= items.length || startsInUs > lookaheadDurationUs) {
+            return;
+        }
+
+        Playlist.Item playlistItem = items[nextIndex];
+        if (itemFilter != null && !itemFilter.shouldPrepare(playlistItem)) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        SampleSource source = sourceFactory.open(playlistItem.uri);
+        try {
+            source.prepare();
+        } catch (IOException e) {
+            source.release();
+            throw e;
+        }
+        PreparedItem item = new PreparedItem(playlistItem, source);
+        preparedItems.addLast(item);
+        // Leaves half of the buffered output as a margin for the rest of the loop iteration.
+        long primeDurationNs = Math.min(PRIME_TIMEOUT_NS, bufferedOutputUs * 1000 / 2);
+        if (primingEnabled && maxPrimedBytes > 0 && primeDurationNs >= MIN_PRIME_DURATION_NS) {
+            prime(item, primeDurationNs);
+        }
+        L.d(TAG, "maybePrepare - prepared %s in %d us (starts in: %d us, primed: %s)",
+                playlistItem.uri, (System.nanoTime() - startNs) / 1000, startsInUs, item.isPrimed());
+    }
+
+    /**
+     * Takes the prepared item for {@code playlistItem} and counts whether the boundary found it ready.
+     * Items prepared before it are released.
+     * @return The prepared item, or null if it hasn't been prepared.
+     */
+    public PreparedItem take(Playlist.Item playlistItem) {
+        PreparedItem item = preparedItems.pollFirst();
+        while (item != null && item.item != playlistItem) {
+            releaseItem(item);
+            item = preparedItems.pollFirst();
+        }
+
+        if (item == null) {
+            missedCount++;
+        } else {
+            if (item.isPrimed() || !primingEnabled) {
+                fullyReadyCount++;
+            } else {
+                extractorOnlyCount++;
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Releases all prepared items.
+     */
+    public void release() {
+        for (PreparedItem item : preparedItems) {
+            releaseItem(item);
+        }
+        preparedItems.clear();
+    }
+
+    /**
+     * @return How many boundaries found their successor fully prepared.
+     */
+    public int getFullyReadyCount() {
+        return fullyReadyCount;
+    }
+
+    /**
+     * @return How many boundaries found their successor's source opened, but not a primed decoder.
+     */
+    public int getExtractorOnlyCount() {
+        return extractorOnlyCount;
+    }
+
+    /**
+     * @return How many boundaries found nothing prepared.
+     */
+    public int getMissedCount() {
+        return missedCount;
+    }
+
+    /**
+     * @return How many prepared items were released because the playlist changed.
+     */
+    public int getInvalidatedCount() {
+        return invalidatedCount;
+    }
+
+    /**
+     * Releases the prepared items from the first one that doesn't follow the current item anymore.
+     */
+    private void releaseInvalidated(Playlist.Item[] items, int nextIndex) {
+        boolean valid = true;
+        int index = nextIndex;
+        for (Iterator<PreparedItem> iterator = preparedItems.iterator(); iterator.hasNext(); index++) {
+            PreparedItem item = iterator.next();
+            valid = valid && index < items.length && items[index] == item.item;
+            if (!valid) {
+                L.d(TAG, "releaseInvalidated - %s doesn't follow at %d anymore", item.item, index);
+                iterator.remove();
+                releaseItem(item);
+                invalidatedCount++;
+            }
+        }
+    }
+
+    private void releaseItem(PreparedItem item) {
+        item.source.release();
+        if (item.decoder != null) {
+            decoderPool.discard(item.decoder);
+            item.decoder = null;
+        }
+    }
+
+    /**
+     * Feeds the decoder until it emits its first PCM, or gives up after {@code durationNs}.
+     */
+    private void prime(PreparedItem item, long durationNs) throws IOException {
+        Decoder decoder = decoderPool.acquire(item.format);
+        item.decoder = decoder;
+
+        Decoder.OutputInfo info = new Decoder.OutputInfo();
+        long deadlineNs = System.nanoTime() + durationNs;
+
+        boolean sawPcm = false;
+        while (!sawPcm && !item.sawOutputEOS && System.nanoTime() < deadlineNs) {
+            if (!item.sawInputEOS) {
+                int inputIndex = decoder.dequeueInputBuffer(0);
+                if (inputIndex >= 0) {
+                    int sampleSize = item.source.readSampleData(decoder.getInputBuffer(inputIndex), 0);
+                    long presentationTimeUs = 0;
+                    if (sampleSize < 0) {
+                        item.sawInputEOS = true;
+                        sampleSize = 0;
+                    } else {
+                        presentationTimeUs = item.source.getSampleTime();
+                        item.extractorPositionUs = presentationTimeUs;
+                    }
+                    decoder.queueInputBuffer(inputIndex, sampleSize, presentationTimeUs, item.sawInputEOS);
+                    if (!item.sawInputEOS) {
+                        item.source.advance();
+                    }
+                }
+            }
+
+            long timeoutUs = Math.max(0, Math.min(PRIME_DEQUEUE_TIMEOUT_US, (deadlineNs - System.nanoTime()) / 1000));
+            int outputIndex = decoder.dequeueOutputBuffer(info, timeoutUs);
+            if (outputIndex >= 0) {
+                if (info.size > 0) {
+                    sawPcm = true;
+                    ByteBuffer buffer = decoder.getOutputBuffer(outputIndex);
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    item.primedPcm = copyPrimedPcm(buffer, info.size);
+                }
+                item.sawOutputEOS = info.endOfStream;
+                decoder.releaseOutputBuffer(outputIndex);
+            } else if (outputIndex == Decoder.INFO_OUTPUT_FORMAT_CHANGED) {
+                item.outputSampleRate = decoder.getOutputSampleRate();
+            }
+        }
+
+        if (sawPcm && item.primedPcm == null) {
+            L.d(TAG, "prime - no room for the primed PCM of %s, starting over unprimed", item.item);
+            unprime(item);
+        } else if (!sawPcm) {
+            L.w(TAG, "prime - no PCM within %d us for %s", durationNs / 1000, item.item);
+        }
+    }
+
+    /**
+     * Copies {@code size} bytes of primed PCM behind the primed PCM of the other prepared items.
+     * @return The copy, or null if it doesn't fit.
+     */
+    private ByteBuffer copyPrimedPcm(ByteBuffer pcm, int size) {
+        if (primedPcmBuffer == null || primedPcmBuffer.length != maxPrimedBytes) {
+            primedPcmBuffer = new byte[maxPrimedBytes];
+        }
+        // The primed PCM of the prepared items is one contiguous region, which may wrap around.
+        int start = -1;
+        int end = 0;
+        for (PreparedItem item : preparedItems) {
+            if (item.primedPcm != null) {
+                if (start < 0) {
+                    start = item.primedPcm.arrayOffset();
+                }
+                end = item.primedPcm.arrayOffset() + item.primedPcm.capacity();
+            }
+        }
+        int offset;
+        if (start < 0) {
+            offset = size <= primedPcmBuffer.length ? 0 : -1;
+        } else if (start < end) {
+            offset = end + size <= primedPcmBuffer.length ? end : size <= start ? 0 : -1;
+        } else {
+            offset = end + size <= start ? end : -1;
+        }
+        if (offset < 0) {
+            return null;
+        }
+        pcm.get(primedPcmBuffer, offset, size);
+        return ByteBuffer.wrap(primedPcmBuffer, offset, size).slice();
+    }
+
+    /**
+     * Drops the primed decoder of an item whose PCM didn't fit, so that it is decoded from its start
+     * at the boundary.
+     */
+    private void unprime(PreparedItem item) {
+        decoderPool.discard(item.decoder);
+        item.decoder = null;
+        item.source.seekTo(0);
+        item.outputSampleRate = 0;
+        item.extractorPositionUs = 0;
+        item.sawInputEOS = false;
+        item.sawOutputEOS = false;
+    }
+}
@@ -1,11 +1,11 @@
 package com.wunderweiss.gaplessplayertest;
 
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
 import com.google.android.exoplayer2.*;
+import com.google.android.exoplayer2.audio.AudioProcessor;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.source.DynamicConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
@@ -18,11 +18,41 @@ import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.util.Util;
 
+import java.io.File;
+import java.io.IOException;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
+    /**
+     * Whether both players dump the PCM they send to their sinks into the files dir, for analysis
+     * with GapHarness.
+     */
+    private static final boolean CAPTURE_PCM = false;
+    /**
+     * Whether ExoPlayer uses the {@link GaplessLoadControl} instead of the {@link DefaultLoadControl},
+     * to compare their peak memory and boundary rebuffers.
+     */
+    private static final boolean GAPLESS_LOAD_CONTROL = false;
+    /**
+     * Whether CustomPlayer replays items it decoded before from a {@link PcmCache}, and how large the
+     * cache may grow.
+     */
+    private static final boolean PCM_CACHE = false;
+    private static final long PCM_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+    private static final String PCM_CACHE_DIR = "pcm";
+    /**
+     * Whether CustomPlayer plays in its power saving mode, to compare its wakeups and CPU time per
+     * minute of audio with the default loop.
+     */
+    private static final boolean POWER_SAVING = false;
+
     private ExoPlayer exoPlayer;
+    private PcmCapture exoPlayerCapture;
+    private PipelineMetrics exoPlayerMetrics;
+    private ExoPlayerBoundaryTracker exoPlayerBoundaryTracker;
+    private MeasuringLoadControl exoPlayerLoadControl;
 
     private final String[] assets = new String[]{
             "1.ogg",
@@ -34,6 +64,9 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // The players log per buffer, keep that from changing their timing.
+        L.setHotPathMode(true);
+
         findViewById(R.id.button_start_stop_exoplayer).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -66,14 +99,33 @@ public class MainActivity extends AppCompatActivity {
         super.onDestroy();
 
         maybeStopExoPlayer();
-        maybeStopCustomPlayer();
+        final PcmCache releasedCache = pcmCache;
+        pcmCache = null;
+        if (customPlayer != null) {
+            // The audio thread may still write to the cache until it stopped.
+            customPlayer.release(new CustomPlayer.ReleaseListener() {
+                @Override
+                public void onReleased(CustomPlayer player) {
+                    if (releasedCache != null) {
+                        releasedCache.release();
+                    }
+                }
+            });
+            customPlayer = null;
+        } else if (releasedCache != null) {
+            releasedCache.release();
+        }
     }
 
     private void startExoPlayer() {
         maybeStopExoPlayer();
 
         DefaultTrackSelector trackSelector = new DefaultTrackSelector(new AdaptiveTrackSelection.Factory(new DefaultBandwidthMeter()));
-        exoPlayer = ExoPlayerFactory.newSimpleInstance(new DefaultRenderersFactory(this), trackSelector, new DefaultLoadControl());
+        exoPlayerLoadControl = new MeasuringLoadControl(
+                GAPLESS_LOAD_CONTROL ? new GaplessLoadControl() : new DefaultLoadControl());
+        exoPlayer = ExoPlayerFactory.newSimpleInstance(createRenderersFactory(), trackSelector, exoPlayerLoadControl);
+        exoPlayerMetrics = new PipelineMetrics();
+        exoPlayerBoundaryTracker = new ExoPlayerBoundaryTracker(exoPlayerMetrics, exoPlayer.getCurrentPeriodIndex());
         exoPlayer.addListener(new Player.EventListener() {
             @Override
             public void onTimelineChanged(Timeline timeline, Object manifest) {
@@ -95,6 +147,7 @@ public class MainActivity extends AppCompatActivity {
             public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
                 L.d(TAG, "ExoPlayer - onPlayerStateChanged: playWhenReady=%s, playbackState=%s, getCurrentPosition=%d, getBufferedPosition=%d",
                         playWhenReady, playbackState, exoPlayer.getCurrentPosition(), exoPlayer.getBufferedPosition());
+                exoPlayerBoundaryTracker.onPlayerStateChanged(playbackState);
             }
 
             @Override
@@ -112,6 +165,7 @@ public class MainActivity extends AppCompatActivity {
             public void onPositionDiscontinuity() {
                 L.d(TAG, "ExoPlayer - onPositionDiscontinuity: windowIndex=%d, periodIndex=%d, getCurrentPosition=%d, getBufferedPosition=%d",
                         exoPlayer.getCurrentWindowIndex(), exoPlayer.getCurrentPeriodIndex(), exoPlayer.getCurrentPosition(), exoPlayer.getBufferedPosition());
+                exoPlayerBoundaryTracker.onPositionDiscontinuity(exoPlayer.getCurrentPeriodIndex());
             }
 
             @Override
@@ -135,9 +189,41 @@ public class MainActivity extends AppCompatActivity {
             exoPlayer.stop();
             exoPlayer.release();
             exoPlayer = null;
+            L.i(TAG, "ExoPlayer - metrics: %s", exoPlayerMetrics.snapshot());
+            L.i(TAG, "ExoPlayer - load control: %s, peak allocated: %d KiB, boundaries: %d, min boundary lead: %d ms, "
+                            + "boundary rebuffers: %d",
+                    exoPlayerLoadControl.getLoadControl().getClass().getSimpleName(),
+                    exoPlayerLoadControl.getPeakAllocatedBytes() / 1024, exoPlayerLoadControl.getBoundaryCount(),
+                    exoPlayerLoadControl.getMinBoundaryLeadUs() / 1000,
+                    exoPlayerBoundaryTracker.getBoundaryRebufferCount());
+        }
+        if (exoPlayerCapture != null) {
+            exoPlayerCapture.close();
+            exoPlayerCapture = null;
         }
     }
 
+    private RenderersFactory createRenderersFactory() {
+        if (CAPTURE_PCM) {
+            try {
+                exoPlayerCapture = new PcmCapture(new File(getFilesDir(), "exoplayer.pcm"));
+            } catch (IOException e) {
+                L.e(TAG, "cannot capture ExoPlayer PCM", e);
+            }
+        }
+        if (exoPlayerCapture == null) {
+            return new DefaultRenderersFactory(this);
+        }
+
+        final PcmCapture capture = exoPlayerCapture;
+        return new DefaultRenderersFactory(this) {
+            @Override
+            protected AudioProcessor[] buildAudioProcessors() {
+                return new AudioProcessor[]{new CapturingAudioProcessor(capture)};
+            }
+        };
+    }
+
     private MediaSource createMediaSource(Uri uri) {
         return new ExtractorMediaSource(
                 uri,
@@ -148,17 +234,28 @@ public class MainActivity extends AppCompatActivity {
         );
     }
 
-    private AsyncTask customPlayer;
+    private CustomPlayer customPlayer;
+    /**
+     * Shared by all CustomPlayer instances, so that the items of one are replayed by the next.
+     */
+    private PcmCache pcmCache;
 
     private void startCustomPlayer() {
         maybeStopCustomPlayer();
 
-        customPlayer = new CustomPlayer(this, assets).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        if (PCM_CACHE && pcmCache == null) {
+            pcmCache = new PcmCache(new File(getCacheDir(), PCM_CACHE_DIR), PCM_CACHE_MAX_BYTES);
+        }
+        customPlayer = new CustomPlayer(this, assets)
+                .setPcmCaptureFile(CAPTURE_PCM ? new File(getFilesDir(), "customplayer.pcm") : null)
+                .setPcmCache(pcmCache)
+                .setPowerSaving(POWER_SAVING)
+                .start();
     }
 
     private void maybeStopCustomPlayer() {
         if (customPlayer != null) {
-            customPlayer.cancel(true);
+            customPlayer.release();
             customPlayer = null;
         }
     }
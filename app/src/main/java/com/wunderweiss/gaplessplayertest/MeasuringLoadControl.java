@@ -0,0 +1,111 @@
+package com.wunderweiss.gaplessplayertest;
+
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+/**
+ * Wraps a {@link LoadControl} and records how much memory its allocator held at most and how far
+ * ahead of playback the periods after the first one were prepared, to compare load controls.
+ * <p>
+ * The lead of a period is the buffered duration at the first load decision after it was prepared,
+ * which is roughly the time left until playback reaches it. The getters may be called from any
+ * thread.
+ */
+public final class MeasuringLoadControl implements LoadControl {
+
+    private final LoadControl loadControl;
+
+    private volatile int peakAllocatedBytes;
+    private volatile int boundaryCount;
+    private volatile long minBoundaryLeadUs = -1;
+    private boolean periodSelected;
+    private boolean newPeriodSelected;
+
+    public MeasuringLoadControl(LoadControl loadControl) {
+        this.loadControl = loadControl;
+    }
+
+    public LoadControl getLoadControl() {
+        return loadControl;
+    }
+
+    /**
+     * @return The maximum number of bytes the allocator held at a load decision.
+     */
+    public int getPeakAllocatedBytes() {
+        return peakAllocatedBytes;
+    }
+
+    /**
+     * @return How many periods were prepared after the first one.
+     */
+    public int getBoundaryCount() {
+        return boundaryCount;
+    }
+
+    /**
+     * @return The smallest lead a period was prepared with, in microseconds, or -1.
+     */
+    public long getMinBoundaryLeadUs() {
+        return minBoundaryLeadUs;
+    }
+
+    @Override
+    public void onPrepared() {
+        periodSelected = false;
+        newPeriodSelected = false;
+        loadControl.onPrepared();
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        newPeriodSelected = periodSelected;
+        periodSelected = true;
+        loadControl.onTracksSelected(renderers, trackGroups, trackSelections);
+    }
+
+    @Override
+    public void onStopped() {
+        loadControl.onStopped();
+    }
+
+    @Override
+    public void onReleased() {
+        loadControl.onReleased();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return loadControl.getAllocator();
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        updatePeakAllocatedBytes();
+        return loadControl.shouldStartPlayback(bufferedDurationUs, rebuffering);
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        updatePeakAllocatedBytes();
+        if (newPeriodSelected) {
+            newPeriodSelected = false;
+            boundaryCount++;
+            if (minBoundaryLeadUs < 0 || bufferedDurationUs < minBoundaryLeadUs) {
+                minBoundaryLeadUs = bufferedDurationUs;
+            }
+        }
+        return loadControl.shouldContinueLoading(bufferedDurationUs);
+    }
+
+    private void updatePeakAllocatedBytes() {
+        int allocatedBytes = loadControl.getAllocator().getTotalBytesAllocated();
+        if (allocatedBytes > peakAllocatedBytes) {
+            peakAllocatedBytes = allocatedBytes;
+        }
+    }
+}
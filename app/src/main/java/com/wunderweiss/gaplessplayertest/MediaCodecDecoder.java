@@ -0,0 +1,218 @@
+package com.wunderweiss.gaplessplayertest;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Decoder} backed by a {@link MediaCodec}. Expects the {@link TrackFormat#platformFormat}
+ * to be the {@link MediaFormat} of the track, as provided by {@link MediaExtractorSampleSource}.
+ * <p>
+ * The buffers are taken from the arrays of {@link MediaCodec#getInputBuffers()} and
+ * {@link MediaCodec#getOutputBuffers()} on all API levels. {@code MediaCodec.getOutputBuffer(int)}
+ * of API 21 creates a new {@link ByteBuffer} for every call, which is one allocation per buffer on
+ * the decode path.
+ */
+public final class MediaCodecDecoder implements Decoder {
+
+    private static final String TAG = MediaCodecDecoder.class.getSimpleName();
+
+    private static final String[] CSD_KEYS = new String[]{"csd-0", "csd-1", "csd-2"};
+
+    /**
+     * {@link MediaFormat#KEY_PCM_ENCODING}, API 24.
+     */
+    private static final String KEY_PCM_ENCODING = "pcm-encoding";
+    /**
+     * {@code AudioFormat.ENCODING_PCM_24BIT_PACKED} and {@code ENCODING_PCM_32BIT}, API 31.
+     */
+    private static final int ENCODING_PCM_24BIT_PACKED = 21;
+    private static final int ENCODING_PCM_32BIT = 22;
+
+    /**
+     * Creates decoders by MIME type.
+     */
+    public static final class Factory implements Decoder.Factory {
+
+        private volatile PcmEncoding preferredEncoding = PcmEncoding.PCM_16BIT;
+
+        /**
+         * Sets the encoding to ask decoders for. Only float output can be asked for, on API 24+, and
+         * decoders are free to ignore it, see {@link Decoder#getOutputEncoding()}.
+         */
+        public Factory setPreferredEncoding(PcmEncoding preferredEncoding) {
+            this.preferredEncoding = preferredEncoding;
+            return this;
+        }
+
+        @Override
+        public Decoder create(TrackFormat format) throws IOException {
+            MediaCodec codec = MediaCodec.createDecoderByType(format.mime);
+            try {
+                return new MediaCodecDecoder(codec, (MediaFormat) format.platformFormat, preferredEncoding);
+            } catch (RuntimeException e) {
+                codec.release();
+                throw e;
+            }
+        }
+    }
+
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private final PcmEncoding preferredEncoding;
+
+    private MediaFormat format;
+    private MediaFormat outputFormat;
+    private ByteBuffer[] inputBuffers;
+    private ByteBuffer[] outputBuffers;
+
+    private MediaCodecDecoder(MediaCodec codec, MediaFormat format, PcmEncoding preferredEncoding) {
+        this.codec = codec;
+        this.preferredEncoding = preferredEncoding;
+        start(format);
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        int index = codec.dequeueInputBuffer(timeoutUs);
+        return index >= 0 ? index : INFO_TRY_AGAIN_LATER;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        ByteBuffer buffer = inputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, boolean endOfStream) {
+        codec.queueInputBuffer(index,
+                0, //offset
+                size,
+                presentationTimeUs,
+                endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+        int index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        if (index >= 0) {
+            info.offset = bufferInfo.offset;
+            info.size = bufferInfo.size;
+            info.presentationTimeUs = bufferInfo.presentationTimeUs;
+            info.endOfStream = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            return index;
+        } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            outputBuffers = codec.getOutputBuffers();
+            return INFO_OUTPUT_BUFFERS_CHANGED;
+        } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            // Subsequent data will conform to new format.
+            outputFormat = codec.getOutputFormat();
+            L.d(TAG, "Output format has changed to %s", outputFormat);
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        } else {
+            return INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return outputBuffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        outputBuffers[index].clear(); // ** MUST DO!!! OTHERWISE THE NEXT TIME YOU GET THIS SAME BUFFER BAD THINGS WILL HAPPEN
+        codec.releaseOutputBuffer(index, false /* render */);
+    }
+
+    @Override
+    public int getOutputSampleRate() {
+        return (outputFormat != null ? outputFormat : format).getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    }
+
+    @Override
+    public PcmEncoding getOutputEncoding() {
+        // The input format may ask for an encoding, only the output format tells what the codec does.
+        if (outputFormat == null || !outputFormat.containsKey(KEY_PCM_ENCODING)) {
+            return PcmEncoding.PCM_16BIT;
+        }
+        switch (outputFormat.getInteger(KEY_PCM_ENCODING)) {
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return PcmEncoding.PCM_FLOAT;
+            case ENCODING_PCM_24BIT_PACKED:
+                return PcmEncoding.PCM_24BIT;
+            case ENCODING_PCM_32BIT:
+                return PcmEncoding.PCM_32BIT;
+            case AudioFormat.ENCODING_PCM_16BIT:
+                return PcmEncoding.PCM_16BIT;
+            default:
+                throw new IllegalStateException("Unsupported PCM encoding: " + outputFormat.getInteger(KEY_PCM_ENCODING));
+        }
+    }
+
+    @Override
+    public boolean canFlushFor(TrackFormat format) {
+        return hasSameCodecSpecificData(this.format, (MediaFormat) format.platformFormat);
+    }
+
+    @Override
+    public void flush() {
+        codec.flush();
+    }
+
+    @Override
+    public void reconfigure(TrackFormat format) {
+        codec.stop();
+        start((MediaFormat) format.platformFormat);
+    }
+
+    @Override
+    public void release() {
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            L.w(TAG, "release - stop failed", e);
+        }
+        codec.release();
+    }
+
+    private void start(MediaFormat format) {
+        this.format = format;
+        outputFormat = null;
+        if (Build.VERSION.SDK_INT >= 24 && preferredEncoding == PcmEncoding.PCM_FLOAT) {
+            format.setInteger(KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_FLOAT);
+        }
+        codec.configure(format, null /* surface */, null /* crypto */, 0 /* flags */);
+        codec.start();
+        inputBuffers = codec.getInputBuffers();
+        outputBuffers = codec.getOutputBuffers();
+    }
+
+    private static boolean hasSameCodecSpecificData(MediaFormat a, MediaFormat b) {
+        for (String key : CSD_KEYS) {
+            boolean aHas = a.containsKey(key);
+            if (aHas != b.containsKey(key)) {
+                return false;
+            }
+            if (aHas && !equals(a.getByteBuffer(key), b.getByteBuffer(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(ByteBuffer a, ByteBuffer b) {
+        // ByteBuffer.equals compares the remaining bytes, so compare duplicates from position 0.
+        ByteBuffer aCopy = a.duplicate();
+        ByteBuffer bCopy = b.duplicate();
+        aCopy.rewind();
+        bCopy.rewind();
+        return aCopy.equals(bCopy);
+    }
+}
@@ -0,0 +1,322 @@
+package com.wunderweiss.gaplessplayertest;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link SampleSource} reading the first track of an asset with a {@link MediaExtractor}.
+ * <p>
+ * With a {@link MediaMetadataIndex}, the format of indexed assets is known without parsing the
+ * container, which is deferred until {@link #prepare()} or the first read. Assets not indexed yet
+ * are added, and their seek table once they were read to the end. Saving the index is up to the
+ * caller.
+ * <p>
+ * {@link MediaExtractor} cannot seek to byte offsets, so the seek table holds the times of sync
+ * samples instead. Seeks go through the platform's seek first, and the seek table only moves a
+ * landing that is before the latest recorded sync sample or past the position, see
+ * {@link MediaMetadataIndex.Entry#resolveSeek(long, long)}. That costs a second seek, but never lands
+ * earlier than the platform's seek alone.
+ */
+public final class MediaExtractorSampleSource implements SampleSource {
+
+    private static final String TAG = MediaExtractorSampleSource.class.getSimpleName();
+
+    /**
+     * The minimum distance between two seek points recorded into the index, in microseconds.
+     */
+    public static final long SEEK_POINT_INTERVAL_US = 1000000;
+
+    private static final String[] CSD_KEYS = new String[]{"csd-0", "csd-1", "csd-2"};
+    /**
+     * The integer keys, besides the ones of {@link TrackFormat}, that decoders may need and that are
+     * therefore kept in the index.
+     */
+    private static final String[] INT_KEYS = new String[]{MediaFormat.KEY_MAX_INPUT_SIZE, MediaFormat.KEY_IS_ADTS,
+            MediaFormat.KEY_AAC_PROFILE, GaplessInfo.KEY_ENCODER_DELAY, GaplessInfo.KEY_ENCODER_PADDING};
+
+    /**
+     * Opens assets of the app.
+     */
+    public static final class AssetFactory implements SampleSource.Factory {
+
+        private final Context context;
+        private final MediaMetadataIndex index;
+        private volatile long apkLastModified = -1;
+
+        public AssetFactory(Context context) {
+            this(context, null);
+        }
+
+        /**
+         * @param index The index to take the formats of assets from and to add them to, or null.
+         */
+        public AssetFactory(Context context, MediaMetadataIndex index) {
+            this.context = context;
+            this.index = index;
+        }
+
+        @Override
+        public SampleSource open(String filename) throws IOException {
+            AssetFileDescriptor afd = context.getAssets().openFd(filename);
+            if (index == null) {
+                return new MediaExtractorSampleSource(openExtractor(afd));
+            }
+
+            // Assets only change with the APK they are part of.
+            long lastModified = getApkLastModified();
+            MediaMetadataIndex.Entry entry = index.get(filename, afd.getLength(), lastModified);
+            if (entry != null) {
+                L.d(TAG, "open - %s indexed: %s", filename, entry);
+                return new MediaExtractorSampleSource(afd, entry, index, filename, lastModified);
+            }
+
+            MediaExtractor extractor = openExtractor(afd);
+            MediaExtractorSampleSource source = new MediaExtractorSampleSource(extractor);
+            source.index = index;
+            source.path = filename;
+            source.size = afd.getLength();
+            source.lastModified = lastModified;
+            source.entry = toEntry(extractor.getTrackFormat(0), source.format);
+            index.put(filename, source.size, lastModified, source.entry);
+            source.startRecordingSeekPoints();
+            return source;
+        }
+
+        private long getApkLastModified() {
+            if (apkLastModified < 0) {
+                apkLastModified = new File(context.getApplicationInfo().sourceDir).lastModified();
+            }
+            return apkLastModified;
+        }
+    }
+
+    private MediaExtractor extractor;
+    private final TrackFormat format;
+
+    private AssetFileDescriptor afd;
+    private MediaMetadataIndex index;
+    private String path;
+    private long size;
+    private long lastModified;
+    private MediaMetadataIndex.Entry entry;
+
+    private boolean recordingSeekPoints;
+    private long[] seekTimesUs;
+    private int seekPointCount;
+    private boolean sawEnd;
+
+    /**
+     * @param extractor An extractor with its first track selected.
+     */
+    public MediaExtractorSampleSource(MediaExtractor extractor) {
+        this.extractor = extractor;
+        MediaFormat mediaFormat = extractor.getTrackFormat(0);
+        this.format = new TrackFormat(
+                mediaFormat.getString(MediaFormat.KEY_MIME),
+                mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                mediaFormat.containsKey(MediaFormat.KEY_DURATION) ? mediaFormat.getLong(MediaFormat.KEY_DURATION) : 0,
+                GaplessInfo.fromFormat(mediaFormat),
+                mediaFormat);
+    }
+
+    /**
+     * Creates a source for an indexed asset, which opens the extractor on demand.
+     */
+    private MediaExtractorSampleSource(AssetFileDescriptor afd, MediaMetadataIndex.Entry entry,
+                                       MediaMetadataIndex index, String path, long lastModified) {
+        this.afd = afd;
+        this.entry = entry;
+        this.index = index;
+        this.path = path;
+        this.size = afd.getLength();
+        this.lastModified = lastModified;
+        this.format = new TrackFormat(entry.mime, entry.sampleRate, entry.channelCount, entry.durationUs,
+                entry.gaplessInfo, toMediaFormat(entry));
+        if (entry.seekTimesUs.length == 0) {
+            startRecordingSeekPoints();
+        }
+    }
+
+    @Override
+    public TrackFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        if (extractor != null) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        AssetFileDescriptor descriptor = afd;
+        afd = null;
+        extractor = openExtractor(descriptor);
+        L.d(TAG, "prepare - opening %s took %d us", path, (System.nanoTime() - startNs) / 1000);
+        if (recordingSeekPoints) {
+            maybeAddSeekPoint();
+        }
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        int size = ensurePrepared().readSampleData(buffer, offset);
+        if (size < 0) {
+            sawEnd = true;
+        }
+        return size;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return ensurePrepared().getSampleTime();
+    }
+
+    @Override
+    public boolean advance() {
+        boolean advanced = ensurePrepared().advance();
+        if (!advanced) {
+            sawEnd = true;
+        } else if (recordingSeekPoints) {
+            maybeAddSeekPoint();
+        }
+        return advanced;
+    }
+
+    @Override
+    public long seekTo(long timeUs) {
+        MediaExtractor extractor = ensurePrepared();
+        if (recordingSeekPoints && !sawEnd) {
+            // The seek table is only complete if the item is read from start to end in one go.
+            recordingSeekPoints = false;
+        }
+        extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        long sampleTimeUs = extractor.getSampleTime();
+        long seekPointUs = entry != null ? entry.resolveSeek(timeUs, sampleTimeUs) : sampleTimeUs;
+        if (seekPointUs != sampleTimeUs) {
+            // Landed before a known sync sample, or past the position.
+            extractor.seekTo(seekPointUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            sampleTimeUs = extractor.getSampleTime();
+        }
+        L.d(TAG, "seekTo - %d us landed at %d us (seek point: %d us)", timeUs, sampleTimeUs, seekPointUs);
+        return Math.max(0, sampleTimeUs);
+    }
+
+    @Override
+    public void release() {
+        if (extractor != null) {
+            extractor.release();
+            extractor = null;
+        }
+        if (afd != null) {
+            closeQuietly(afd);
+            afd = null;
+        }
+        if (index != null && recordingSeekPoints && sawEnd) {
+            entry = entry.withSeekTimes(Arrays.copyOf(seekTimesUs, seekPointCount));
+            index.put(path, size, lastModified, entry);
+            L.d(TAG, "release - indexed %d seek points of %s", seekPointCount, path);
+        }
+    }
+
+    private MediaExtractor ensurePrepared() {
+        if (extractor == null) {
+            try {
+                prepare();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open " + path, e);
+            }
+        }
+        return extractor;
+    }
+
+    private void startRecordingSeekPoints() {
+        recordingSeekPoints = true;
+        seekTimesUs = new long[64];
+        if (extractor != null) {
+            maybeAddSeekPoint();
+        }
+    }
+
+    private void maybeAddSeekPoint() {
+        long timeUs = extractor.getSampleTime();
+        if (timeUs < 0 || (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) == 0) {
+            return;
+        }
+        if (seekPointCount > 0 && timeUs < seekTimesUs[seekPointCount - 1] + SEEK_POINT_INTERVAL_US) {
+            return;
+        }
+        if (seekPointCount == seekTimesUs.length) {
+            seekTimesUs = Arrays.copyOf(seekTimesUs, 2 * seekPointCount);
+        }
+        seekTimesUs[seekPointCount++] = timeUs;
+    }
+
+    private static MediaExtractor openExtractor(AssetFileDescriptor afd) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+        } catch (IOException e) {
+            extractor.release();
+            throw e;
+        } finally {
+            afd.close();
+        }
+
+        extractor.selectTrack(0); // <= You must select a track. You will read samples from the media from this track!
+        return extractor;
+    }
+
+    private static MediaMetadataIndex.Entry toEntry(MediaFormat mediaFormat, TrackFormat format) {
+        int csdCount = 0;
+        while (csdCount < CSD_KEYS.length && mediaFormat.containsKey(CSD_KEYS[csdCount])) {
+            csdCount++;
+        }
+        byte[][] codecSpecificData = new byte[csdCount][];
+        for (int i = 0; i < csdCount; i++) {
+            ByteBuffer csd = mediaFormat.getByteBuffer(CSD_KEYS[i]).duplicate();
+            csd.rewind();
+            codecSpecificData[i] = new byte[csd.remaining()];
+            csd.get(codecSpecificData[i]);
+        }
+        Map<String, Integer> intKeys = new LinkedHashMap<>();
+        for (String key : INT_KEYS) {
+            if (mediaFormat.containsKey(key)) {
+                intKeys.put(key, mediaFormat.getInteger(key));
+            }
+        }
+        return new MediaMetadataIndex.Entry(format.mime, format.sampleRate, format.channelCount, format.durationUs,
+                format.gaplessInfo, codecSpecificData, intKeys, new long[0]);
+    }
+
+    private static MediaFormat toMediaFormat(MediaMetadataIndex.Entry entry) {
+        MediaFormat mediaFormat = MediaFormat.createAudioFormat(entry.mime, entry.sampleRate, entry.channelCount);
+        if (entry.durationUs > 0) {
+            mediaFormat.setLong(MediaFormat.KEY_DURATION, entry.durationUs);
+        }
+        for (int i = 0; i < entry.codecSpecificData.length; i++) {
+            mediaFormat.setByteBuffer(CSD_KEYS[i], ByteBuffer.wrap(entry.codecSpecificData[i]));
+        }
+        for (Map.Entry<String, Integer> intKey : entry.intKeys.entrySet()) {
+            mediaFormat.setInteger(intKey.getKey(), intKey.getValue());
+        }
+        return mediaFormat;
+    }
+
+    private static void closeQuietly(AssetFileDescriptor afd) {
+        try {
+            afd.close();
+        } catch (IOException e) {
+            L.w(TAG, "closeQuietly - cannot close asset", e);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A persistent index of the track metadata of playlist items, so that repeated playback doesn't need
+ * to parse the containers to know their formats.
+ * <p>
+ * Entries are keyed by a path and validated against the size and modification time of the media, an
+ * entry for changed media is dropped on lookup. The index is loaded from its file on first use and
+ * only written back by {@link #save()}, atomically, if it changed. A missing, outdated or corrupt file
+ * yields an empty index, a corrupt file is deleted. Thread-safe.
+ */
+public final class MediaMetadataIndex {
+
+    private static final String TAG = MediaMetadataIndex.class.getSimpleName();
+
+    private static final int MAGIC = 0x47504d49; // "GPMI"
+    private static final int VERSION = 1;
+
+    /**
+     * The track metadata of a single item.
+     */
+    public static final class Entry {
+
+        public final String mime;
+        public final int sampleRate;
+        public final int channelCount;
+        /**
+         * The duration in microseconds, or 0 if unknown.
+         */
+        public final long durationUs;
+        public final GaplessInfo gaplessInfo;
+        /**
+         * The codec specific data, csd-0 onwards.
+         */
+        public final byte[][] codecSpecificData;
+        /**
+         * Further integer keys the decoder is configured with, like the maximum input size.
+         */
+        public final Map<String, Integer> intKeys;
+        /**
+         * The presentation times of sync samples, in ascending order and microseconds, at least
+         * {@link MediaExtractorSampleSource#SEEK_POINT_INTERVAL_US} apart. Empty until the item was
+         * read to its end once.
+         */
+        public final long[] seekTimesUs;
+
+        public Entry(String mime, int sampleRate, int channelCount, long durationUs, GaplessInfo gaplessInfo,
+                     byte[][] codecSpecificData, Map<String, Integer> intKeys, long[] seekTimesUs) {
+            this.mime = mime;
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.durationUs = durationUs;
+            this.gaplessInfo = gaplessInfo;
+            this.codecSpecificData = codecSpecificData;
+            this.intKeys = intKeys;
+            this.seekTimesUs = seekTimesUs;
+        }
+
+        /**
+         * Decides where a seek to {@code timeUs} ends up, given where the platform's
+         * {@code SEEK_TO_PREVIOUS_SYNC} seek landed. That is the latest sync sample before the position
+         * in containers with a seek table of their own, which the index cannot beat, but only an
+         * approximation in others, e.g. Ogg or VBR MP3 files without a table of contents. So the
+         * landing is kept unless it is before the latest indexed sync sample at or before
+         * {@code timeUs}, or past {@code timeUs}.
+         * @param landedUs Where the platform's seek landed, or -1 if it found no sample.
+         * @return The indexed sync time to seek to instead, or {@code landedUs} to keep it.
+         */
+        public long resolveSeek(long timeUs, long landedUs) {
+            long indexedUs = findSeekPoint(timeUs);
+            if (indexedUs < 0 || (landedUs >= indexedUs && landedUs <= timeUs)) {
+                return landedUs;
+            }
+            return indexedUs;
+        }
+
+        /**
+         * @return The latest indexed seek point at or before {@code timeUs}, or -1 if there is none.
+         */
+        private long findSeekPoint(long timeUs) {
+            int index = Arrays.binarySearch(seekTimesUs, timeUs);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index >= 0 ? seekTimesUs[index] : -1;
+        }
+
+        /**
+         * @return A copy with {@code seekTimesUs} as seek table.
+         */
+        public Entry withSeekTimes(long[] seekTimesUs) {
+            return new Entry(mime, sampleRate, channelCount, durationUs, gaplessInfo, codecSpecificData, intKeys,
+                    seekTimesUs);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{mime=" + mime + ", sampleRate=" + sampleRate + ", channelCount=" + channelCount
+                    + ", durationUs=" + durationUs + ", gaplessInfo=" + gaplessInfo
+                    + ", csd=" + codecSpecificData.length + ", intKeys=" + intKeys
+                    + ", seekPoints=" + seekTimesUs.length + '}';
+        }
+    }
+
+    private static final class Record {
+        final long size;
+        final long lastModified;
+        final Entry entry;
+
+        Record(long size, long lastModified, Entry entry) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.entry = entry;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Record> records = new HashMap<>();
+    private boolean loaded;
+    private boolean dirty;
+
+    private int hitCount;
+    private int missCount;
+    private int invalidatedCount;
+
+    public MediaMetadataIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The entry for {@code path}, or null if there is none or the media changed since it was
+     *         added.
+     */
+    public synchronized Entry get(String path, long size, long lastModified) {
+        ensureLoaded();
+        Record record = records.get(path);
+        if (record != null && (record.size != size || record.lastModified != lastModified)) {
+            L.d(TAG, "get - %s changed, invalidating", path);
+            records.remove(path);
+            dirty = true;
+            invalidatedCount++;
+            record = null;
+        }
+        if (record == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return record.entry;
+    }
+
+    public synchronized void put(String path, long size, long lastModified, Entry entry) {
+        ensureLoaded();
+        records.put(path, new Record(size, lastModified, entry));
+        dirty = true;
+    }
+
+    /**
+     * Writes the index to its file, if it changed. Errors are logged, the index stays usable.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                write(output);
+            } finally {
+                output.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tempFile + " to " + file);
+            }
+            dirty = false;
+            L.d(TAG, "save - %d entries", records.size());
+        } catch (IOException e) {
+            L.w(TAG, "save - cannot write " + file, e);
+            tempFile.delete();
+        }
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return records.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The number of entries dropped because their media changed.
+     */
+    public synchronized int getInvalidatedCount() {
+        return invalidatedCount;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                read(input, file.length());
+            } finally {
+                input.close();
+            }
+            L.d(TAG, "load - %d entries", records.size());
+        } catch (IOException | RuntimeException e) {
+            // The index is only a cache, whatever is wrong with it must not stop playback.
+            L.w(TAG, "load - cannot read " + file + ", starting empty", e);
+            records.clear();
+            file.delete();
+        }
+    }
+
+    /**
+     * @param fileLength Bounds every length and count read, so that a corrupt file cannot make it
+     *        allocate more than the file could hold.
+     */
+    private void read(DataInputStream input, long fileLength) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Unknown format");
+        }
+        int count = checkLength(input.readInt(), 1, fileLength);
+        for (int i = 0; i < count; i++) {
+            String path = input.readUTF();
+            long size = input.readLong();
+            long lastModified = input.readLong();
+            String mime = input.readUTF();
+            int sampleRate = input.readInt();
+            int channelCount = input.readInt();
+            long durationUs = input.readLong();
+            GaplessInfo gaplessInfo = new GaplessInfo(input.readInt(), input.readInt(), input.readLong());
+            if (sampleRate <= 0 || channelCount <= 0 || durationUs < 0
+                    || gaplessInfo.delayFrames < 0 || gaplessInfo.paddingFrames < 0) {
+                throw new IOException("Invalid format of " + path);
+            }
+
+            byte[][] codecSpecificData = new byte[input.readUnsignedByte()][];
+            for (int j = 0; j < codecSpecificData.length; j++) {
+                codecSpecificData[j] = new byte[checkLength(input.readInt(), 1, fileLength)];
+                input.readFully(codecSpecificData[j]);
+            }
+            int intKeyCount = input.readUnsignedByte();
+            Map<String, Integer> intKeys = new LinkedHashMap<>();
+            for (int j = 0; j < intKeyCount; j++) {
+                intKeys.put(input.readUTF(), input.readInt());
+            }
+            // Seek times are stored as deltas, which are small and positive.
+            long[] seekTimesUs = new long[checkLength(input.readInt(), 4, fileLength)];
+            long timeUs = 0;
+            for (int j = 0; j < seekTimesUs.length; j++) {
+                int deltaUs = input.readInt();
+                if (deltaUs < 0) {
+                    throw new IOException("Invalid seek table of " + path);
+                }
+                timeUs += deltaUs;
+                seekTimesUs[j] = timeUs;
+            }
+
+            records.put(path, new Record(size, lastModified, new Entry(mime, sampleRate, channelCount, durationUs,
+                    gaplessInfo, codecSpecificData, intKeys, seekTimesUs)));
+        }
+    }
+
+    /**
+     * @param unitSize The minimum number of bytes each of the {@code length} elements takes in the
+     *        file.
+     * @return {@code length}, if the file can hold that many elements.
+     */
+    private static int checkLength(int length, int unitSize, long fileLength) throws IOException {
+        if (length < 0 || (long) length * unitSize > fileLength) {
+            throw new IOException("Invalid length: " + length);
+        }
+        return length;
+    }
+
+    private void write(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(records.size());
+        for (Map.Entry<String, Record> mapEntry : records.entrySet()) {
+            Record record = mapEntry.getValue();
+            Entry entry = record.entry;
+            output.writeUTF(mapEntry.getKey());
+            output.writeLong(record.size);
+            output.writeLong(record.lastModified);
+            output.writeUTF(entry.mime);
+            output.writeInt(entry.sampleRate);
+            output.writeInt(entry.channelCount);
+            output.writeLong(entry.durationUs);
+            output.writeInt(entry.gaplessInfo.delayFrames);
+            output.writeInt(entry.gaplessInfo.paddingFrames);
+            output.writeLong(entry.gaplessInfo.totalFrames);
+
+            output.writeByte(entry.codecSpecificData.length);
+            for (byte[] data : entry.codecSpecificData) {
+                output.writeInt(data.length);
+                output.write(data);
+            }
+            output.writeByte(entry.intKeys.size());
+            for (Map.Entry<String, Integer> intKey : entry.intKeys.entrySet()) {
+                output.writeUTF(intKey.getKey());
+                output.writeInt(intKey.getValue());
+            }
+            output.writeInt(entry.seekTimesUs.length);
+            long previousUs = 0;
+            for (long timeUs : entry.seekTimesUs) {
+                output.writeInt((int) (timeUs - previousUs));
+                previousUs = timeUs;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MediaMetadataIndex{file=" + file + ", entries=" + records.size() + ", hits=" + hitCount
+                + ", misses=" + missCount + ", invalidated=" + invalidatedCount + '}';
+    }
+}
@@ -0,0 +1,604 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A disk cache of decoded and trimmed PCM, so that items played again are replayed from memory-mapped
+ * files instead of being extracted and decoded once more.
+ * <p>
+ * Each entry is a file in the cache directory holding a small header with the PCM format and the raw
+ * PCM of a whole item. Entries are keyed by a string like the uri of the item, and the media behind a
+ * key is assumed not to change, like app assets. Call {@link #clear()} otherwise.
+ * <p>
+ * PCM is handed to a {@link Writer} on the decode thread, which only copies it into pooled chunks.
+ * The chunks are written to a temporary file on a single background thread, which renames it to the
+ * entry once the item was decoded completely. If the writer thread falls behind by more than
+ * {@link #MAX_PENDING_CHUNKS} chunks, the entry is dropped instead of blocking the decode thread.
+ * <p>
+ * The total size of all entries is capped, the least recently played ones are evicted first. Their
+ * order is kept in the modification times of the files, so it survives restarts. Thread-safe, but
+ * only one instance may use a directory at a time.
+ */
+public final class PcmCache {
+
+    private static final String TAG = PcmCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x4750434d; // "GPCM"
+    private static final int VERSION = 1;
+    /**
+     * The size of the header in front of the PCM: magic, version, sample rate, channel count,
+     * encoding and frame count.
+     */
+    private static final int HEADER_SIZE = 28;
+
+    private static final String ENTRY_SUFFIX = ".pcm";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The size of the chunks PCM is copied into on the decode thread, and written with.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * The maximum number of chunks waiting for the writer thread per entry.
+     */
+    private static final int MAX_PENDING_CHUNKS = 32;
+
+    /**
+     * A cached item, mapped into memory.
+     */
+    public static final class Entry {
+
+        public final int sampleRate;
+        public final int channelCount;
+        public final PcmEncoding encoding;
+        public final long frameCount;
+        private final ByteBuffer pcm;
+
+        Entry(int sampleRate, int channelCount, PcmEncoding encoding, long frameCount, ByteBuffer pcm) {
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.encoding = encoding;
+            this.frameCount = frameCount;
+            this.pcm = pcm;
+        }
+
+        public long getDurationUs() {
+            return frameCount * 1000000L / sampleRate;
+        }
+
+        /**
+         * @return A read-only view of the PCM, from position 0 to the end of the item. Reading it
+         *         pages the file in.
+         */
+        public ByteBuffer getPcm() {
+            return pcm.duplicate();
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{sampleRate=" + sampleRate + ", channelCount=" + channelCount + ", encoding=" + encoding
+                    + ", frameCount=" + frameCount + '}';
+        }
+    }
+
+    /**
+     * Collects the PCM of a single item for a new entry. Must be used from one thread only.
+     */
+    public final class Writer {
+
+        private final String name;
+        private final File tempFile;
+        private final AtomicInteger pendingChunks = new AtomicInteger();
+        /**
+         * The file being written, only accessed on the writer thread.
+         */
+        private RandomAccessFile file;
+        /**
+         * Whether writing the file failed, only accessed on the writer thread.
+         */
+        private boolean failed;
+
+        private int sampleRate;
+        private int channelCount;
+        private PcmEncoding encoding;
+        private byte[] chunk;
+        private int chunkSize;
+        private long size;
+        private boolean closed;
+
+        Writer(String name) {
+            this.name = name;
+            this.tempFile = new File(directory, name + TEMP_SUFFIX);
+        }
+
+        /**
+         * Sets the format of the following PCM. The entry is dropped if it changes after the first
+         * PCM, since an entry only holds a single format.
+         */
+        public void setFormat(int sampleRate, int channelCount, PcmEncoding encoding) {
+            if (size > 0 && (sampleRate != this.sampleRate || channelCount != this.channelCount
+                    || encoding != this.encoding)) {
+                abort("format changed");
+                return;
+            }
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.encoding = encoding;
+        }
+
+        /**
+         * Appends {@code size} bytes from the position of {@code buffer}, without changing its
+         * position.
+         */
+        public void write(ByteBuffer buffer, int size) {
+            if (closed) {
+                return;
+            }
+            if (this.size + size > maxBytes) {
+                abort("larger than the cache");
+                return;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.limit(view.position() + size);
+            while (view.hasRemaining()) {
+                if (chunk == null) {
+                    chunk = obtainChunk();
+                }
+                int length = Math.min(view.remaining(), CHUNK_SIZE - chunkSize);
+                view.get(chunk, chunkSize, length);
+                chunkSize += length;
+                if (chunkSize == CHUNK_SIZE && !submitChunk()) {
+                    return;
+                }
+            }
+            this.size += size;
+        }
+
+        /**
+         * Writes the rest of the PCM and publishes the entry on the writer thread. The writer must not
+         * be used afterwards.
+         */
+        public void commit() {
+            if (closed) {
+                return;
+            }
+            if (size == 0 || encoding == null) {
+                abort("no PCM");
+                return;
+            }
+            if (chunkSize > 0 && !submitChunk()) {
+                return;
+            }
+            closed = true;
+            final long frameCount = size / encoding.getFrameSize(channelCount);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(channelCount)
+                    .putInt(encoding.ordinal()).putLong(frameCount);
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!openFile()) {
+                        return;
+                    }
+                    try {
+                        file.seek(0);
+                        file.write(header.array());
+                        file.close();
+                        file = null;
+                        File entryFile = new File(directory, name + ENTRY_SUFFIX);
+                        if (!tempFile.renameTo(entryFile)) {
+                            throw new IOException("Cannot rename " + tempFile + " to " + entryFile);
+                        }
+                        onCommitted(name, entryFile.length());
+                        L.d(TAG, "commit - %s, %d frames", name, frameCount);
+                    } catch (IOException e) {
+                        L.w(TAG, "commit - cannot write " + tempFile, e);
+                        deleteFile();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Drops the entry. The writer must not be used afterwards.
+         */
+        public void abort() {
+            abort(null);
+        }
+
+        private void abort(String reason) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (reason != null) {
+                L.d(TAG, "abort - %s: %s", name, reason);
+            }
+            if (chunk != null) {
+                recycleChunk(chunk);
+                chunk = null;
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    deleteFile();
+                }
+            });
+        }
+
+        private boolean submitChunk() {
+            if (pendingChunks.incrementAndGet() > MAX_PENDING_CHUNKS) {
+                abort("writer thread behind");
+                return false;
+            }
+            final byte[] data = chunk;
+            final int length = chunkSize;
+            chunk = null;
+            chunkSize = 0;
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    pendingChunks.decrementAndGet();
+                    try {
+                        if (openFile()) {
+                            file.write(data, 0, length);
+                        }
+                    } catch (IOException e) {
+                        L.w(TAG, "write - cannot write " + tempFile, e);
+                        deleteFile();
+                    } finally {
+                        recycleChunk(data);
+                    }
+                }
+            });
+            return true;
+        }
+
+        /**
+         * @return Whether the file is open, false if writing it failed before.
+         */
+        private boolean openFile() {
+            if (file != null || failed) {
+                return !failed;
+            }
+            try {
+                file = new RandomAccessFile(tempFile, "rw");
+                file.setLength(0);
+                file.seek(HEADER_SIZE);
+                return true;
+            } catch (IOException e) {
+                L.w(TAG, "open - cannot create " + tempFile, e);
+                deleteFile();
+                return false;
+            }
+        }
+
+        private void deleteFile() {
+            failed = true;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    L.w(TAG, "close - failed", e);
+                }
+                file = null;
+            }
+            tempFile.delete();
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final ConcurrentLinkedQueue<byte[]> freeChunks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * The sizes of the entries by name, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    private int hitCount;
+    private int missCount;
+    private int evictedCount;
+
+    /**
+     * @param maxBytes The maximum total size of all entries.
+     */
+    public PcmCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return Whether there is an entry for {@code key}, without touching the disk after the first
+     *         call.
+     */
+    public synchronized boolean contains(String key) {
+        ensureLoaded();
+        return entries.containsKey(getName(key));
+    }
+
+    /**
+     * Maps the entry for {@code key} into memory and marks it as the most recently used one.
+     * @return The entry, or null if there is none or it cannot be read.
+     */
+    public Entry get(String key) {
+        final String name = getName(key);
+        synchronized (this) {
+            ensureLoaded();
+            if (entries.get(name) == null) {
+                missCount++;
+                return null;
+            }
+        }
+        final File entryFile = new File(directory, name + ENTRY_SUFFIX);
+        Entry entry;
+        try {
+            entry = map(entryFile);
+        } catch (IOException e) {
+            L.w(TAG, "get - cannot read " + entryFile + ", dropping it", e);
+            synchronized (this) {
+                remove(name);
+                missCount++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hitCount++;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                entryFile.setLastModified(System.currentTimeMillis());
+            }
+        });
+        return entry;
+    }
+
+    /**
+     * Starts a new entry for {@code key}.
+     * @return The writer, or null if there already is an entry.
+     */
+    public Writer startWriting(String key) {
+        String name = getName(key);
+        synchronized (this) {
+            ensureLoaded();
+            if (entries.containsKey(name)) {
+                return null;
+            }
+        }
+        return new Writer(name);
+    }
+
+    /**
+     * Deletes all entries. Entries being written are still added once they are complete.
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        for (Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext(); ) {
+            new File(directory, iterator.next() + ENTRY_SUFFIX).delete();
+            iterator.remove();
+        }
+        totalBytes = 0;
+    }
+
+    /**
+     * Lets pending writes finish in the background and stops the writer thread afterwards. Writers
+     * must not be used anymore.
+     */
+    public void release() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until the writes issued so far are done, e.g. before the cache is read by a test.
+     * @return False on timeout.
+     */
+    boolean awaitWrites(long timeoutMs) throws InterruptedException {
+        Future<?> future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        try {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * @return The total size of all entries, in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getEvictedCount() {
+        return evictedCount;
+    }
+
+    private synchronized void onCommitted(String name, long size) {
+        ensureLoaded();
+        Long oldSize = entries.put(name, size);
+        totalBytes += size - (oldSize != null ? oldSize : 0);
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(name)) {
+                continue;
+            }
+            // Entries being replayed stay mapped until they are dropped.
+            new File(directory, eldest.getKey() + ENTRY_SUFFIX).delete();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+            evictedCount++;
+            L.d(TAG, "evict - %s, %d bytes", eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+            new File(directory, name + ENTRY_SUFFIX).delete();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            L.w(TAG, "load - cannot create %s", directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lastModifiedA = a.lastModified();
+                long lastModifiedB = b.lastModified();
+                return lastModifiedA < lastModifiedB ? -1 : (lastModifiedA == lastModifiedB ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(ENTRY_SUFFIX)) {
+                entries.put(fileName.substring(0, fileName.length() - ENTRY_SUFFIX.length()), file.length());
+                totalBytes += file.length();
+            } else if (fileName.endsWith(TEMP_SUFFIX)) {
+                // Left over by a process that died while writing.
+                file.delete();
+            }
+        }
+        L.d(TAG, "load - %d entries, %d bytes", entries.size(), totalBytes);
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            L.w(TAG, "execute - released, dropping write");
+        }
+    }
+
+    private byte[] obtainChunk() {
+        byte[] chunk = freeChunks.poll();
+        return chunk != null ? chunk : new byte[CHUNK_SIZE];
+    }
+
+    private void recycleChunk(byte[] chunk) {
+        if (freeChunks.size() < MAX_PENDING_CHUNKS) {
+            freeChunks.offer(chunk);
+        }
+    }
+
+    private static Entry map(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated header");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unknown format");
+            }
+            int sampleRate = header.getInt();
+            int channelCount = header.getInt();
+            int encodingIndex = header.getInt();
+            long frameCount = header.getLong();
+            PcmEncoding[] encodings = PcmEncoding.values();
+            if (sampleRate <= 0 || channelCount <= 0 || encodingIndex < 0 || encodingIndex >= encodings.length) {
+                throw new IOException("Invalid format");
+            }
+            PcmEncoding encoding = encodings[encodingIndex];
+            long pcmSize = frameCount * encoding.getFrameSize(channelCount);
+            if (pcmSize != channel.size() - HEADER_SIZE) {
+                throw new IOException("Truncated PCM");
+            }
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer pcm = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, pcmSize);
+            return new Entry(sampleRate, channelCount, encoding, frameCount, pcm);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String getName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Both are guaranteed to be available.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PcmCache{directory=" + directory + ", entries=" + entries.size() + ", bytes=" + totalBytes
+                + ", hits=" + hitCount + ", misses=" + missCount + ", evicted=" + evictedCount + '}';
+    }
+}
@@ -0,0 +1,69 @@
+package com.wunderweiss.gaplessplayertest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Dumps the PCM a player hands to its sink into a raw file, so that it can be analyzed off-device
+ * (see GapHarness in the unit tests).
+ * <p>
+ * Errors are logged and end the capture, they never affect playback.
+ */
+public final class PcmCapture {
+
+    private static final String TAG = PcmCapture.class.getSimpleName();
+
+    private final File file;
+    private FileOutputStream outputStream;
+    private FileChannel channel;
+    private long bytesWritten;
+
+    public PcmCapture(File file) throws IOException {
+        this.file = file;
+        outputStream = new FileOutputStream(file);
+        channel = outputStream.getChannel();
+    }
+
+    /**
+     * Appends {@code size} bytes from the position of {@code buffer}, without changing its position.
+     */
+    public synchronized void write(ByteBuffer buffer, int size) {
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position() + size);
+        try {
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            bytesWritten += size;
+        } catch (IOException e) {
+            Log.e(TAG, "write - capture to " + file + " failed", e);
+            close();
+        }
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public synchronized void close() {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "close - failed", e);
+        }
+        outputStream = null;
+        channel = null;
+        L.d(TAG, "close - captured %d bytes to %s", bytesWritten, file);
+    }
+}
@@ -0,0 +1,285 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts PCM from the format of the current playlist item to the format of the sink, so that a
+ * single sink can play a playlist mixing sample rates, channel counts and encodings without being
+ * recreated.
+ * <p>
+ * Samples are decoded to floats between -1 and 1, channels are remixed, the sample rate is converted
+ * with a {@link Resampler} and the result is encoded again. Each step is a tight loop over primitive
+ * arrays that only grow on demand, and steps that aren't needed are skipped. If the formats match,
+ * PCM is passed through untouched. The input is read, and the output written, as little endian. Not
+ * thread-safe.
+ */
+public final class PcmConverter {
+
+    private static final String TAG = PcmConverter.class.getSimpleName();
+
+    /**
+     * The gain of the center and surround channels when downmixing to stereo, -3 dB.
+     */
+    private static final float DOWNMIX_GAIN = 0.7071f;
+
+    private static final float SCALE_16BIT = 1f / 0x8000;
+    private static final float SCALE_24BIT = 1f / 0x800000;
+    private static final float SCALE_32BIT = 1f / 0x80000000L;
+
+    private final int outputSampleRate;
+    private final int outputChannelCount;
+    private final PcmEncoding outputEncoding;
+    private final Resampler resampler;
+
+    private int inputSampleRate;
+    private int inputChannelCount;
+    private PcmEncoding inputEncoding;
+    private boolean passthrough = true;
+    private boolean remixing;
+    private boolean resampling;
+    private float[] mixMatrix;
+
+    private byte[] inputData = new byte[0];
+    private float[] decoded = new float[0];
+    private float[] mixed = new float[0];
+    private float[] resampled = new float[0];
+    private byte[] outputData = new byte[0];
+    private ByteBuffer outputBuffer = ByteBuffer.wrap(outputData);
+
+    public PcmConverter(Resampler.Quality quality, int outputSampleRate, int outputChannelCount,
+                        PcmEncoding outputEncoding) {
+        this.outputSampleRate = outputSampleRate;
+        this.outputChannelCount = outputChannelCount;
+        this.outputEncoding = outputEncoding;
+        this.resampler = new Resampler(quality, outputChannelCount);
+    }
+
+    /**
+     * Sets the format of the following input. If the sample rate changes, the input so far is drained
+     * to {@code output} first.
+     */
+    public void setInputFormat(int sampleRate, int channelCount, PcmEncoding encoding, PcmTrimmer.Output output) {
+        if (sampleRate == inputSampleRate && channelCount == inputChannelCount && encoding == inputEncoding) {
+            return;
+        }
+        if (resampling && sampleRate != inputSampleRate) {
+            flush(output);
+        }
+
+        boolean wasResampling = resampling;
+        inputSampleRate = sampleRate;
+        inputChannelCount = channelCount;
+        inputEncoding = encoding;
+        remixing = channelCount != outputChannelCount;
+        mixMatrix = remixing ? createMixMatrix(channelCount, outputChannelCount) : null;
+        resampling = sampleRate != outputSampleRate;
+        if (resampling && (!wasResampling || resampler.getInputRate() != sampleRate)) {
+            resampler.setRates(sampleRate, outputSampleRate);
+        }
+        passthrough = !remixing && !resampling && encoding == outputEncoding;
+        L.d(TAG, "setInputFormat - %s to %s (passthrough: %s)",
+                describe(sampleRate, channelCount, encoding),
+                describe(outputSampleRate, outputChannelCount, outputEncoding), passthrough);
+    }
+
+    public boolean isPassthrough() {
+        return passthrough;
+    }
+
+    /**
+     * Converts {@code size} bytes from the position of {@code buffer} and hands the result to
+     * {@code output}. Advances the position of {@code buffer} by {@code size}.
+     */
+    public void process(ByteBuffer buffer, int size, PcmTrimmer.Output output) {
+        if (passthrough) {
+            output.output(buffer, size);
+            return;
+        }
+
+        int frames = size / inputEncoding.getFrameSize(inputChannelCount);
+        if (inputData.length < size) {
+            inputData = new byte[size * 3 / 2];
+        }
+        buffer.get(inputData, 0, size);
+
+        int samples = frames * inputChannelCount;
+        decoded = ensureCapacity(decoded, samples);
+        decode(inputData, decoded, samples, inputEncoding);
+
+        float[] frameData = decoded;
+        if (remixing) {
+            mixed = ensureCapacity(mixed, frames * outputChannelCount);
+            remix(decoded, mixed, frames);
+            frameData = mixed;
+        }
+        if (resampling) {
+            resampled = ensureCapacity(resampled, resampler.getMaxOutputFrames(frames) * outputChannelCount);
+            frames = resampler.process(frameData, frames, resampled);
+            frameData = resampled;
+        }
+        writeOutput(frameData, frames, output);
+    }
+
+    /**
+     * Hands the frames still held back by the resampler to {@code output}, e.g. at the end of the
+     * playlist.
+     */
+    public void flush(PcmTrimmer.Output output) {
+        if (!resampling) {
+            return;
+        }
+        resampled = ensureCapacity(resampled, resampler.getMaxOutputFrames(0) * outputChannelCount);
+        writeOutput(resampled, resampler.drain(resampled), output);
+    }
+
+    /**
+     * Drops the frames held back by the resampler, e.g. on a seek.
+     */
+    public void reset() {
+        if (resampling) {
+            resampler.reset();
+        }
+    }
+
+    private void remix(float[] input, float[] output, int frames) {
+        int in = inputChannelCount;
+        int out = outputChannelCount;
+        for (int frame = 0; frame < frames; frame++) {
+            int inputOffset = frame * in;
+            int outputOffset = frame * out;
+            for (int o = 0; o < out; o++) {
+                int row = o * in;
+                float sum = 0;
+                for (int i = 0; i < in; i++) {
+                    sum += mixMatrix[row + i] * input[inputOffset + i];
+                }
+                output[outputOffset + o] = sum;
+            }
+        }
+    }
+
+    private void writeOutput(float[] samples, int frames, PcmTrimmer.Output output) {
+        if (frames == 0) {
+            return;
+        }
+        int count = frames * outputChannelCount;
+        int size = count * outputEncoding.bytesPerSample;
+        if (outputData.length < size) {
+            outputData = new byte[size * 3 / 2];
+            outputBuffer = ByteBuffer.wrap(outputData);
+        }
+        encode(samples, outputData, count, outputEncoding);
+        outputBuffer.clear();
+        outputBuffer.limit(size);
+        output.output(outputBuffer, size);
+    }
+
+    /**
+     * Decodes little endian samples to floats between -1 and 1.
+     */
+    static void decode(byte[] input, float[] output, int count, PcmEncoding encoding) {
+        switch (encoding) {
+            case PCM_16BIT:
+                for (int i = 0, j = 0; i < count; i++, j += 2) {
+                    output[i] = ((input[j] & 0xFF) | (input[j + 1] << 8)) * SCALE_16BIT;
+                }
+                break;
+            case PCM_24BIT:
+                for (int i = 0, j = 0; i < count; i++, j += 3) {
+                    output[i] = ((input[j] & 0xFF) | ((input[j + 1] & 0xFF) << 8) | (input[j + 2] << 16)) * SCALE_24BIT;
+                }
+                break;
+            case PCM_32BIT:
+                for (int i = 0, j = 0; i < count; i++, j += 4) {
+                    output[i] = readInt(input, j) * SCALE_32BIT;
+                }
+                break;
+            default:
+                for (int i = 0, j = 0; i < count; i++, j += 4) {
+                    output[i] = Float.intBitsToFloat(readInt(input, j));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Encodes floats between -1 and 1 as little endian samples, clipping 16-bit output.
+     */
+    static void encode(float[] input, byte[] output, int count, PcmEncoding encoding) {
+        switch (encoding) {
+            case PCM_16BIT:
+                for (int i = 0, j = 0; i < count; i++, j += 2) {
+                    float sample = input[i] * 0x8000;
+                    int value = sample >= Short.MAX_VALUE ? Short.MAX_VALUE
+                            : sample <= Short.MIN_VALUE ? Short.MIN_VALUE
+                            : Math.round(sample);
+                    output[j] = (byte) value;
+                    output[j + 1] = (byte) (value >> 8);
+                }
+                break;
+            case PCM_FLOAT:
+                for (int i = 0, j = 0; i < count; i++, j += 4) {
+                    writeInt(output, j, Float.floatToRawIntBits(input[i]));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported output encoding: " + encoding);
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16)
+                | (data[offset + 3] << 24);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static float[] ensureCapacity(float[] array, int length) {
+        return array.length >= length ? array : new float[length * 3 / 2];
+    }
+
+    private static String describe(int sampleRate, int channelCount, PcmEncoding encoding) {
+        return sampleRate + " Hz, " + channelCount + " channels, " + encoding;
+    }
+
+    /**
+     * Creates a row-major {@code out x in} gain matrix. Mono is spread to all channels and everything
+     * is averaged into mono. 5.1 and 7.1 are downmixed to stereo with the center and surround
+     * channels at -3 dB. Otherwise, channels are mapped one to one and missing ones stay silent.
+     */
+    static float[] createMixMatrix(int in, int out) {
+        float[] matrix = new float[out * in];
+        if (in == 1) {
+            for (int o = 0; o < out; o++) {
+                matrix[o] = 1;
+            }
+        } else if (out == 1) {
+            for (int i = 0; i < in; i++) {
+                matrix[i] = 1f / in;
+            }
+        } else if (out == 2 && (in == 6 || in == 8)) {
+            // FL, FR, FC, LFE, BL, BR[, SL, SR]. The LFE channel is dropped.
+            float norm = 1f / (1 + DOWNMIX_GAIN * (in == 6 ? 2 : 3));
+            matrix[0] = norm;
+            matrix[2] = DOWNMIX_GAIN * norm;
+            matrix[4] = DOWNMIX_GAIN * norm;
+            matrix[in + 1] = norm;
+            matrix[in + 2] = DOWNMIX_GAIN * norm;
+            matrix[in + 5] = DOWNMIX_GAIN * norm;
+            if (in == 8) {
+                matrix[6] = DOWNMIX_GAIN * norm;
+                matrix[in + 7] = DOWNMIX_GAIN * norm;
+            }
+        } else {
+            for (int c = 0; c < Math.min(in, out); c++) {
+                matrix[c * in + c] = 1;
+            }
+        }
+        return matrix;
+    }
+}
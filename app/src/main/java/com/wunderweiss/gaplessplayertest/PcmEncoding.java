@@ -0,0 +1,27 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * The sample formats of PCM flowing from decoders to sinks. All of them are little endian.
+ */
+public enum PcmEncoding {
+    PCM_16BIT(2),
+    /**
+     * Packed 24-bit integers, as decoded by some FLAC and WAV decoders.
+     */
+    PCM_24BIT(3),
+    PCM_32BIT(4),
+    /**
+     * 32-bit floats, nominally between -1 and 1, which leaves headroom for gain and mixing stages.
+     */
+    PCM_FLOAT(4);
+
+    public final int bytesPerSample;
+
+    PcmEncoding(int bytesPerSample) {
+        this.bytesPerSample = bytesPerSample;
+    }
+
+    public int getFrameSize(int channelCount) {
+        return bytesPerSample * channelCount;
+    }
+}
@@ -0,0 +1,299 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated single-producer/single-consumer ring buffer for PCM bytes.
+ * <p>
+ * Exactly one thread may write and exactly one other thread may read. Neither side takes a lock:
+ * the read and write positions are published through {@link AtomicLong}s, and a side that has to
+ * wait parks for a bounded time and is unparked by the other side as soon as there is progress.
+ * <p>
+ * The capacity should be a multiple of the frame size, so that the contiguous regions handed to a
+ * {@link Reader} never split a frame.
+ */
+public final class PcmRingBuffer {
+
+    /**
+     * Consumes contiguous regions of the buffer without copying them first.
+     */
+    public interface Reader {
+        /**
+         * @return The number of bytes consumed, between 0 and {@code length}.
+         */
+        int read(byte[] data, int offset, int length);
+    }
+
+    /**
+     * The maximum time a waiting thread parks before checking the state again, in nanoseconds.
+     */
+    private static final long MAX_PARK_NS = 5000000;
+
+    private final byte[] data;
+    private final int capacity;
+
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    private volatile boolean endOfStream;
+    private volatile boolean closed;
+
+    private volatile Thread waitingWriter;
+    private volatile Thread waitingReader;
+    /**
+     * The free space the waiting writer needs before it is worth unparking it.
+     */
+    private volatile int awaitedSpace = 1;
+
+    private volatile long writerParkCount;
+    private volatile long readerParkCount;
+
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.data = new byte[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of bytes that can be read right now.
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * @return The number of bytes that can be written right now.
+     */
+    public int free() {
+        return capacity - available();
+    }
+
+    // Producer side.
+
+    /**
+     * Writes as many of the {@code length} bytes at the position of {@code src} as fit, without
+     * blocking.
+     * @return The number of bytes written.
+     */
+    public int write(ByteBuffer src, int length) {
+        long write = writePosition.get();
+        int count = Math.min(length, capacity - (int) (write - readPosition.get()));
+        if (count <= 0) {
+            return 0;
+        }
+        int offset = (int) (write % capacity);
+        int first = Math.min(count, capacity - offset);
+        src.get(data, offset, first);
+        if (count > first) {
+            src.get(data, 0, count - first);
+        }
+        publishWrite(write + count);
+        return count;
+    }
+
+    /**
+     * Writes as many of the {@code length} bytes at {@code src[srcOffset]} as fit, without blocking.
+     * @return The number of bytes written.
+     */
+    public int write(byte[] src, int srcOffset, int length) {
+        long write = writePosition.get();
+        int count = Math.min(length, capacity - (int) (write - readPosition.get()));
+        if (count <= 0) {
+            return 0;
+        }
+        int offset = (int) (write % capacity);
+        int first = Math.min(count, capacity - offset);
+        System.arraycopy(src, srcOffset, data, offset, first);
+        if (count > first) {
+            System.arraycopy(src, srcOffset + first, data, 0, count - first);
+        }
+        publishWrite(write + count);
+        return count;
+    }
+
+    /**
+     * Writes all {@code length} bytes at the position of {@code src}, waiting for the reader to make
+     * room if necessary.
+     * @return Whether all bytes were written. False if the buffer was closed or the calling thread
+     *         was interrupted first.
+     */
+    public boolean writeFully(ByteBuffer src, int length) {
+        while (length > 0) {
+            if (closed || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            int written = write(src, length);
+            if (written == 0) {
+                awaitSpace();
+            }
+            length -= written;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until at least {@code minLength} bytes can be written, the buffer is closed, the calling
+     * thread is unparked otherwise or {@code timeoutNs} has passed, whichever comes first. Unlike
+     * {@link #writeFully(ByteBuffer, int)}, parks for the whole timeout, the reader only unparks it
+     * once it made enough room. Lets the writer fill the buffer in bursts.
+     * @return Whether at least {@code minLength} bytes can be written.
+     */
+    public boolean awaitSpace(int minLength, long timeoutNs) {
+        awaitedSpace = minLength;
+        waitingWriter = Thread.currentThread();
+        if (free() < minLength && !closed) {
+            LockSupport.parkNanos(this, timeoutNs);
+            writerParkCount++;
+        }
+        waitingWriter = null;
+        awaitedSpace = 1;
+        return free() >= minLength;
+    }
+
+    /**
+     * Marks the end of the stream. The reader drains the remaining bytes and then sees
+     * {@link #isEndOfStream()}.
+     */
+    public void setEndOfStream() {
+        endOfStream = true;
+        unpark(waitingReader);
+    }
+
+    private void publishWrite(long position) {
+        writePosition.lazySet(position);
+        unpark(waitingReader);
+    }
+
+    private void awaitSpace() {
+        waitingWriter = Thread.currentThread();
+        // Re-check after publishing ourselves, the reader might have made room in between.
+        if (free() == 0 && !closed) {
+            LockSupport.parkNanos(this, MAX_PARK_NS);
+            writerParkCount++;
+        }
+        waitingWriter = null;
+    }
+
+    // Consumer side.
+
+    /**
+     * Hands the next contiguous readable region, at most {@code maxLength} bytes, to {@code reader}
+     * and advances by the number of bytes it consumed. Does not block.
+     * @return The number of bytes consumed.
+     */
+    public int read(Reader reader, int maxLength) {
+        long read = readPosition.get();
+        int count = Math.min(maxLength, (int) (writePosition.get() - read));
+        if (count <= 0) {
+            return 0;
+        }
+        int offset = (int) (read % capacity);
+        int consumed = reader.read(data, offset, Math.min(count, capacity - offset));
+        if (consumed > 0) {
+            publishRead(read + consumed);
+        }
+        return consumed;
+    }
+
+    /**
+     * Copies up to {@code length} readable bytes into {@code dst}. Does not block.
+     * @return The number of bytes copied.
+     */
+    public int read(byte[] dst, int dstOffset, int length) {
+        long read = readPosition.get();
+        int count = Math.min(length, (int) (writePosition.get() - read));
+        if (count <= 0) {
+            return 0;
+        }
+        int offset = (int) (read % capacity);
+        int first = Math.min(count, capacity - offset);
+        System.arraycopy(data, offset, dst, dstOffset, first);
+        if (count > first) {
+            System.arraycopy(data, 0, dst, dstOffset + first, count - first);
+        }
+        publishRead(read + count);
+        return count;
+    }
+
+    /**
+     * Waits until there is something to read, the end of stream is reached, the buffer is closed or
+     * {@code timeoutNs} has passed, whichever comes first.
+     */
+    public void awaitData(long timeoutNs) {
+        awaitData(1, timeoutNs);
+    }
+
+    /**
+     * Waits until at least {@code minLength} bytes can be read, like {@link #awaitData(long)}.
+     * @return Whether at least {@code minLength} bytes can be read or the end of stream was
+     *         signalled, so that the rest has to be read anyway.
+     */
+    public boolean awaitData(int minLength, long timeoutNs) {
+        waitingReader = Thread.currentThread();
+        if (available() < minLength && !endOfStream && !closed) {
+            LockSupport.parkNanos(this, Math.min(timeoutNs, MAX_PARK_NS));
+            readerParkCount++;
+        }
+        waitingReader = null;
+        return available() >= minLength || endOfStream;
+    }
+
+    /**
+     * @return Whether the writer has signalled the end of the stream and everything has been read.
+     */
+    public boolean isEndOfStream() {
+        return endOfStream && available() == 0;
+    }
+
+    private void publishRead(long position) {
+        readPosition.lazySet(position);
+        if (free() >= awaitedSpace) {
+            unpark(waitingWriter);
+        }
+    }
+
+    /**
+     * Drops everything that can be read, e.g. on a seek. Must only be called by the producer while
+     * the consumer is idle, see {@link AudioSinkWriter#flush()}.
+     */
+    public void clear() {
+        readPosition.set(writePosition.get());
+    }
+
+    // Both sides.
+
+    /**
+     * Wakes up both sides and makes {@link #writeFully(ByteBuffer, int)} give up.
+     */
+    public void close() {
+        closed = true;
+        unpark(waitingWriter);
+        unpark(waitingReader);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return How often the writer and the reader parked, i.e. how often the buffer put their threads
+     *         to sleep and woke them up again.
+     */
+    public long getParkCount() {
+        return writerParkCount + readerParkCount;
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
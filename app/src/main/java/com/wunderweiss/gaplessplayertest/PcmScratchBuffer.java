@@ -0,0 +1,66 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable byte array for handing PCM from a {@link android.media.MediaCodec} output buffer to
+ * an {@link android.media.AudioTrack}, which can only consume {@link ByteBuffer}s from API 21 on.
+ * <p>
+ * The array only ever grows, so once it has seen the largest output buffer of a playlist it does
+ * not allocate anymore.
+ */
+public final class PcmScratchBuffer {
+
+    private byte[] data;
+    private int allocationCount;
+
+    public PcmScratchBuffer() {
+        this(0);
+    }
+
+    /**
+     * @param initialCapacity The initial capacity in bytes. Pass 0 to allocate lazily.
+     */
+    public PcmScratchBuffer(int initialCapacity) {
+        data = new byte[initialCapacity];
+        if (initialCapacity > 0) {
+            allocationCount++;
+        }
+    }
+
+    /**
+     * Copies {@code size} bytes from the current position of {@code buffer} into the scratch array.
+     * @param buffer The buffer to read from. Its position is advanced by {@code size}.
+     * @param size The number of bytes to copy.
+     * @return The scratch array, holding the copied bytes at offset 0.
+     */
+    public byte[] copyFrom(ByteBuffer buffer, int size) {
+        ensureCapacity(size);
+        buffer.get(data, 0, size);
+        return data;
+    }
+
+    /**
+     * Makes sure the scratch array can hold at least {@code capacity} bytes.
+     * @return The scratch array. Its contents are undefined if it had to grow.
+     */
+    public byte[] ensureCapacity(int capacity) {
+        if (data.length < capacity) {
+            // Leave some headroom, decoders don't always emit equally sized buffers.
+            data = new byte[Math.max(capacity, data.length + (data.length >> 1))];
+            allocationCount++;
+        }
+        return data;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * @return How often the scratch array has been (re)allocated.
+     */
+    public int getAllocationCount() {
+        return allocationCount;
+    }
+}
@@ -0,0 +1,140 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Drops the frames described by a {@link GaplessInfo} from the decoded PCM of an item.
+ * <p>
+ * Leading frames and frames beyond {@link GaplessInfo#totalFrames} are cut by narrowing the
+ * position and limit of the codec output buffers, without copying anything. Only if the padding is
+ * known but the total number of frames isn't, the last {@link GaplessInfo#paddingFrames} frames
+ * have to be held back in a small end buffer, because the end of the item isn't known until the
+ * decoder reports end of stream.
+ */
+public final class PcmTrimmer {
+
+    /**
+     * Receives the PCM that is left after trimming.
+     */
+    public interface Output {
+        /**
+         * @param buffer The PCM, starting at the position of the buffer. Implementations may advance
+         *        the position.
+         * @param size The number of bytes to consume.
+         */
+        void output(ByteBuffer buffer, int size);
+    }
+
+    private byte[] endBufferData;
+    private ByteBuffer endBuffer;
+    private int endBufferCapacity;
+    private int endBufferSize;
+
+    private long startBytesToSkip;
+    private long bytesToKeep;
+    private int frameSize;
+
+    private long trimmedStartFrames;
+    private long trimmedEndFrames;
+
+    public PcmTrimmer() {
+        endBufferData = new byte[0];
+        endBuffer = ByteBuffer.wrap(endBufferData);
+    }
+
+    /**
+     * Starts a new item, dropping whatever is still held back from the previous one.
+     */
+    public void reset(int frameSize, GaplessInfo gaplessInfo) {
+        if (this.frameSize > 0) {
+            trimmedEndFrames += endBufferSize / this.frameSize;
+        }
+        this.frameSize = frameSize;
+        startBytesToSkip = (long) gaplessInfo.delayFrames * frameSize;
+        if (gaplessInfo.totalFrames >= 0) {
+            bytesToKeep = gaplessInfo.totalFrames * frameSize;
+            endBufferCapacity = 0;
+        } else {
+            bytesToKeep = Long.MAX_VALUE;
+            endBufferCapacity = gaplessInfo.paddingFrames * frameSize;
+        }
+        endBufferSize = 0;
+        if (endBufferData.length < endBufferCapacity) {
+            endBufferData = new byte[endBufferCapacity];
+            endBuffer = ByteBuffer.wrap(endBufferData);
+        }
+    }
+
+    /**
+     * Hands the part of {@code buffer} between its position and limit that survives trimming to
+     * {@code output}. Consumes the buffer completely.
+     */
+    public void process(ByteBuffer buffer, Output output) {
+        int size = buffer.remaining();
+
+        int skip = (int) Math.min(size, startBytesToSkip);
+        if (skip > 0) {
+            startBytesToSkip -= skip;
+            trimmedStartFrames += skip / frameSize;
+            buffer.position(buffer.position() + skip);
+            size -= skip;
+        }
+
+        if (size > bytesToKeep) {
+            trimmedEndFrames += (size - bytesToKeep) / frameSize;
+            size = (int) bytesToKeep;
+            buffer.limit(buffer.position() + size);
+        }
+        if (bytesToKeep != Long.MAX_VALUE) {
+            bytesToKeep -= size;
+        }
+
+        if (endBufferCapacity == 0) {
+            if (size > 0) {
+                output.output(buffer, size);
+            }
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        // Output everything but the last endBufferCapacity bytes seen so far.
+        int toOutput = endBufferSize + size - endBufferCapacity;
+        if (toOutput > 0) {
+            int fromEndBuffer = Math.min(toOutput, endBufferSize);
+            if (fromEndBuffer > 0) {
+                endBuffer.clear();
+                endBuffer.limit(fromEndBuffer);
+                output.output(endBuffer, fromEndBuffer);
+                endBufferSize -= fromEndBuffer;
+                System.arraycopy(endBufferData, fromEndBuffer, endBufferData, 0, endBufferSize);
+            }
+            int fromInput = toOutput - fromEndBuffer;
+            if (fromInput > 0) {
+                int limit = buffer.limit();
+                int position = buffer.position();
+                buffer.limit(position + fromInput);
+                output.output(buffer, fromInput);
+                buffer.limit(limit);
+                buffer.position(position + fromInput);
+            }
+        }
+        int remaining = buffer.remaining();
+        buffer.get(endBufferData, endBufferSize, remaining);
+        endBufferSize += remaining;
+    }
+
+    /**
+     * @return The number of frames dropped at the start of items so far.
+     */
+    public long getTrimmedStartFrames() {
+        return trimmedStartFrames;
+    }
+
+    /**
+     * @return The number of frames dropped at the end of items so far. Held back frames are only
+     *         counted once the next item starts.
+     */
+    public long getTrimmedEndFrames() {
+        return trimmedEndFrames;
+    }
+}
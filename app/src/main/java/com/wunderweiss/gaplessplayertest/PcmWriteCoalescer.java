@@ -0,0 +1,88 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Merges small chunks of PCM into writes of a minimum size, so that a sink sees fewer and larger
+ * writes than there are decoder output buffers. Each write to an {@link android.media.AudioTrack}
+ * is a JNI call with a fixed cost, no matter how much it writes.
+ * <p>
+ * Chunks are copied into a reusable array until it holds the minimum size, then it is handed on as a
+ * whole. A chunk at least as large as the minimum size is handed on without copying if nothing is
+ * pending. Not thread-safe.
+ */
+public final class PcmWriteCoalescer {
+
+    private final int minWriteSize;
+    private final PcmScratchBuffer pending = new PcmScratchBuffer();
+    private ByteBuffer pendingBuffer = ByteBuffer.wrap(pending.ensureCapacity(0));
+    private int pendingSize;
+
+    private long mergedWriteCount;
+
+    /**
+     * @param minWriteSize The minimum number of bytes handed on at once, a multiple of the frame
+     *        size.
+     */
+    public PcmWriteCoalescer(int minWriteSize) {
+        this.minWriteSize = minWriteSize;
+    }
+
+    /**
+     * Takes {@code size} bytes from the position of {@code buffer} and hands them to {@code output}
+     * once at least the minimum size is pending. Advances the position of {@code buffer} by
+     * {@code size}.
+     */
+    public void process(ByteBuffer buffer, int size, PcmTrimmer.Output output) {
+        if (pendingSize == 0 && size >= minWriteSize) {
+            int position = buffer.position();
+            output.output(buffer, size);
+            buffer.position(position + size);
+            return;
+        }
+
+        byte[] data = pending.ensureCapacity(pendingSize + size);
+        if (pendingBuffer.array() != data) {
+            byte[] oldData = pendingBuffer.array();
+            System.arraycopy(oldData, 0, data, 0, pendingSize);
+            pendingBuffer = ByteBuffer.wrap(data);
+        }
+        buffer.get(data, pendingSize, size);
+        pendingSize += size;
+        if (pendingSize >= minWriteSize) {
+            mergedWriteCount++;
+            flush(output);
+        }
+    }
+
+    /**
+     * Hands what is pending to {@code output}, e.g. at the end of playback.
+     */
+    public void flush(PcmTrimmer.Output output) {
+        if (pendingSize == 0) {
+            return;
+        }
+        pendingBuffer.clear();
+        pendingBuffer.limit(pendingSize);
+        output.output(pendingBuffer, pendingSize);
+        pendingSize = 0;
+    }
+
+    /**
+     * Drops what is pending, e.g. on a seek.
+     */
+    public void reset() {
+        pendingSize = 0;
+    }
+
+    public int getPendingSize() {
+        return pendingSize;
+    }
+
+    /**
+     * @return How many writes were merged from several chunks.
+     */
+    public long getMergedWriteCount() {
+        return mergedWriteCount;
+    }
+}
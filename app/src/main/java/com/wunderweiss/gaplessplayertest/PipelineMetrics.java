@@ -0,0 +1,154 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage timings and counters of a playback pipeline. All methods are lock-free and may be
+ * called from any thread.
+ * <p>
+ * Boundary transition times are comparable between both players, but measured differently:
+ * CustomPlayer reports the time from the output end of stream of an item to the first PCM of the
+ * next one, ExoPlayer the time from a period transition until it plays again (0 if it didn't stop).
+ */
+public final class PipelineMetrics {
+
+    private final LatencyHistogram extractorRead = new LatencyHistogram();
+    private final LatencyHistogram codecLatency = new LatencyHistogram();
+    private final LatencyHistogram sinkWrite = new LatencyHistogram();
+    private final LatencyHistogram boundaryTransition = new LatencyHistogram();
+    private final LatencyHistogram seek = new LatencyHistogram();
+    private final LatencyHistogram command = new LatencyHistogram();
+
+    private final AtomicLong underrunCount = new AtomicLong();
+    private final AtomicLong tryAgainLaterCount = new AtomicLong();
+    private final AtomicLong codecCallCount = new AtomicLong();
+    private final AtomicLong wakeupCount = new AtomicLong();
+    private final AtomicLong startupNs = new AtomicLong(-1);
+
+    /**
+     * Records the time it took to read one sample from the extractor.
+     */
+    public void recordExtractorRead(long durationNs) {
+        extractorRead.record(durationNs);
+    }
+
+    /**
+     * Records the time between queueing an input buffer and dequeueing its output.
+     */
+    public void recordCodecLatency(long durationNs) {
+        codecLatency.record(durationNs);
+    }
+
+    /**
+     * Records the time a single write to the sink blocked.
+     */
+    public void recordSinkWrite(long durationNs) {
+        sinkWrite.record(durationNs);
+    }
+
+    public void recordBoundaryTransition(long durationNs) {
+        boundaryTransition.record(durationNs);
+    }
+
+    /**
+     * Records the time from a seek request until the first PCM at the new position was written.
+     */
+    public void recordSeek(long durationNs) {
+        seek.record(durationNs);
+    }
+
+    /**
+     * Records the time from issuing a player command until it took effect.
+     */
+    public void recordCommand(long durationNs) {
+        command.record(durationNs);
+    }
+
+    /**
+     * Sets the underrun count, for sinks that report a running total.
+     */
+    public void setUnderrunCount(long count) {
+        underrunCount.set(count);
+    }
+
+    public void incrementUnderrunCount() {
+        underrunCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a {@link android.media.MediaCodec#INFO_TRY_AGAIN_LATER} result.
+     */
+    public void incrementTryAgainLaterCount() {
+        tryAgainLaterCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a call to dequeue or queue a decoder buffer, or to release one.
+     */
+    public void incrementCodecCallCount() {
+        codecCallCount.incrementAndGet();
+    }
+
+    /**
+     * Adds the number of times a pipeline thread went to sleep and woke up again.
+     */
+    public void addWakeups(long count) {
+        wakeupCount.addAndGet(count);
+    }
+
+    /**
+     * Records the time from starting playback until the sink's playback head first advanced. Only
+     * the first call has an effect.
+     */
+    public void recordStartup(long durationNs) {
+        startupNs.compareAndSet(-1, durationNs);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * An immutable copy of the metrics.
+     */
+    public static final class Snapshot {
+
+        public final LatencyHistogram.Snapshot extractorRead;
+        public final LatencyHistogram.Snapshot codecLatency;
+        public final LatencyHistogram.Snapshot sinkWrite;
+        public final LatencyHistogram.Snapshot boundaryTransition;
+        public final LatencyHistogram.Snapshot seek;
+        public final LatencyHistogram.Snapshot command;
+        public final long underrunCount;
+        public final long tryAgainLaterCount;
+        public final long codecCallCount;
+        public final long wakeupCount;
+        /**
+         * The startup time in nanoseconds, or -1 if playback hasn't started yet.
+         */
+        public final long startupNs;
+
+        private Snapshot(PipelineMetrics metrics) {
+            extractorRead = metrics.extractorRead.snapshot();
+            codecLatency = metrics.codecLatency.snapshot();
+            sinkWrite = metrics.sinkWrite.snapshot();
+            boundaryTransition = metrics.boundaryTransition.snapshot();
+            seek = metrics.seek.snapshot();
+            command = metrics.command.snapshot();
+            underrunCount = metrics.underrunCount.get();
+            tryAgainLaterCount = metrics.tryAgainLaterCount.get();
+            codecCallCount = metrics.codecCallCount.get();
+            wakeupCount = metrics.wakeupCount.get();
+            startupNs = metrics.startupNs.get();
+        }
+
+        @Override
+        public String toString() {
+            return "extractor read: [" + extractorRead + "], codec latency: [" + codecLatency
+                    + "], sink write: [" + sinkWrite + "], boundary transition: [" + boundaryTransition
+                    + "], seek: [" + seek + "], command: [" + command + "], underruns: " + underrunCount
+                    + ", try again later: " + tryAgainLaterCount + ", codec calls: " + codecCallCount
+                    + ", wakeups: " + wakeupCount + ", startup: " + (startupNs < 0 ? -1 : startupNs / 1000) + " us";
+        }
+    }
+}
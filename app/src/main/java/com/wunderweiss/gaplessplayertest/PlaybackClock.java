@@ -0,0 +1,252 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * Tracks the playback position of an {@link AudioSink} cheaply enough to be polled for every decoded
+ * buffer.
+ * <p>
+ * The playback head of the sink is only sampled every {@link #HEAD_POLL_INTERVAL_NS}, and its
+ * presentation timestamp every {@link #TIMESTAMP_POLL_INTERVAL_NS}. In between, the position is
+ * interpolated from the latest sample and the system time, so most polls neither allocate nor call
+ * into the platform. Head positions and timestamp frame positions are extended from 32 to 64 bits,
+ * and the reported position never goes backwards.
+ * <p>
+ * Playlist items are registered with the sink frame they start at, see
+ * {@link #onItemStarted(int, long)}, so that a position can be mapped back to an item and a media time
+ * within it. Not thread-safe, it is meant to be used from the decode thread only.
+ */
+public final class PlaybackClock {
+
+    private static final String TAG = PlaybackClock.class.getSimpleName();
+
+    /**
+     * A position mapped back to the playlist.
+     */
+    public static final class Position {
+        /**
+         * The frames played by the sink.
+         */
+        public long framePosition;
+        /**
+         * The playlist item playing at {@link #framePosition}, or -1 if unknown.
+         */
+        public int itemIndex;
+        /**
+         * The media time within the item, in microseconds.
+         */
+        public long mediaTimeUs;
+    }
+
+    /**
+     * How often the playback head is sampled, in nanoseconds.
+     */
+    private static final long HEAD_POLL_INTERVAL_NS = 10000000;
+    /**
+     * How often the presentation timestamp is sampled, in nanoseconds.
+     */
+    private static final long TIMESTAMP_POLL_INTERVAL_NS = 500000000;
+    /**
+     * Timestamps further away than this from the playback head are ignored, in microseconds.
+     */
+    private static final long MAX_TIMESTAMP_OFFSET_US = 5000000;
+    /**
+     * The number of item starts remembered for mapping positions back to items.
+     */
+    private static final int MAX_ITEMS = 16;
+
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+
+    private final AudioSink sink;
+    private final AudioSink.Timestamp timestamp = new AudioSink.Timestamp();
+
+    private final int[] itemIndices = new int[MAX_ITEMS];
+    private final long[] itemStartFrames = new long[MAX_ITEMS];
+    private final long[] itemStartTimesUs = new long[MAX_ITEMS];
+    private int itemCount;
+
+    private int sampleRate;
+
+    private long lastRawHeadPosition;
+    private long headWrapCount;
+    private long headFrames;
+    private long headSampleNs;
+    private boolean headSampled;
+    private boolean headAdvancing;
+
+    private long lastRawTimestampPosition;
+    private long timestampWrapCount;
+    private long timestampFrames;
+    private long timestampNs;
+    private boolean timestampValid;
+    private long timestampSampleNs;
+    private boolean timestampSampled;
+
+    private long lastPositionFrames;
+
+    private int headPollCount;
+    private int timestampPollCount;
+
+    public PlaybackClock(AudioSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Starts over for a newly configured sink.
+     */
+    public void reset(int sampleRate) {
+        this.sampleRate = sampleRate;
+        itemCount = 0;
+        lastRawHeadPosition = 0;
+        headWrapCount = 0;
+        headSampled = false;
+        headAdvancing = false;
+        lastRawTimestampPosition = 0;
+        timestampWrapCount = 0;
+        timestampValid = false;
+        timestampSampled = false;
+        lastPositionFrames = 0;
+    }
+
+    /**
+     * Registers that the first frame of playlist item {@code itemIndex} is the sink's frame
+     * {@code startFrame}.
+     */
+    public void onItemStarted(int itemIndex, long startFrame) {
+        onItemStarted(itemIndex, startFrame, 0);
+    }
+
+    /**
+     * Like {@link #onItemStarted(int, long)}, for an item that starts at media time
+     * {@code startTimeUs}, e.g. after a seek.
+     */
+    public void onItemStarted(int itemIndex, long startFrame, long startTimeUs) {
+        int slot = itemCount % MAX_ITEMS;
+        itemIndices[slot] = itemIndex;
+        itemStartFrames[slot] = startFrame;
+        itemStartTimesUs[slot] = startTimeUs;
+        itemCount++;
+    }
+
+    /**
+     * @param nowNs The current {@link System#nanoTime()}.
+     * @return The number of frames played by the sink.
+     */
+    public long getPositionFrames(long nowNs) {
+        if (sampleRate == 0) {
+            return 0;
+        }
+
+        if (!headSampled || nowNs - headSampleNs >= HEAD_POLL_INTERVAL_NS) {
+            long previousHeadFrames = headFrames;
+            headFrames = extendHeadPosition(sink.getPlaybackHeadPosition());
+            headAdvancing = headSampled && headFrames > previousHeadFrames;
+            headSampleNs = nowNs;
+            headSampled = true;
+            headPollCount++;
+        }
+        if (!timestampSampled || nowNs - timestampSampleNs >= TIMESTAMP_POLL_INTERVAL_NS) {
+            timestampSampleNs = nowNs;
+            timestampSampled = true;
+            timestampPollCount++;
+            maybeUpdateTimestamp(nowNs);
+        }
+
+        long position;
+        if (!headAdvancing) {
+            // Paused or stalled, don't extrapolate.
+            position = headFrames;
+        } else if (timestampValid) {
+            position = timestampFrames + durationNsToFrames(nowNs - timestampNs);
+        } else {
+            // Never extrapolate further than the next head sample would.
+            position = headFrames + durationNsToFrames(Math.min(nowNs - headSampleNs, HEAD_POLL_INTERVAL_NS));
+        }
+
+        if (position < lastPositionFrames) {
+            position = lastPositionFrames;
+        }
+        lastPositionFrames = position;
+        return position;
+    }
+
+    /**
+     * @param nowNs The current {@link System#nanoTime()}.
+     * @return The duration played by the sink, in microseconds.
+     */
+    public long getPositionUs(long nowNs) {
+        return sampleRate == 0 ? 0 : getPositionFrames(nowNs) * 1000000L / sampleRate;
+    }
+
+    /**
+     * Maps the current position back to the playlist.
+     * @param nowNs The current {@link System#nanoTime()}.
+     * @return Whether the playing item is known.
+     */
+    public boolean getPosition(long nowNs, Position position) {
+        long frames = getPositionFrames(nowNs);
+        position.framePosition = frames;
+        position.itemIndex = -1;
+        position.mediaTimeUs = 0;
+
+        int oldest = Math.max(0, itemCount - MAX_ITEMS);
+        for (int i = itemCount - 1; i >= oldest; i--) {
+            int slot = i % MAX_ITEMS;
+            if (itemStartFrames[slot] <= frames) {
+                position.itemIndex = itemIndices[slot];
+                position.mediaTimeUs = itemStartTimesUs[slot]
+                        + (frames - itemStartFrames[slot]) * 1000000L / sampleRate;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return How often the sink's playback head was sampled.
+     */
+    public int getHeadPollCount() {
+        return headPollCount;
+    }
+
+    /**
+     * @return How often the sink's presentation timestamp was sampled.
+     */
+    public int getTimestampPollCount() {
+        return timestampPollCount;
+    }
+
+    private long extendHeadPosition(long rawPosition) {
+        rawPosition &= UINT32_MASK;
+        if (rawPosition < lastRawHeadPosition) {
+            headWrapCount++;
+        }
+        lastRawHeadPosition = rawPosition;
+        return rawPosition + (headWrapCount << 32);
+    }
+
+    private void maybeUpdateTimestamp(long nowNs) {
+        if (!sink.getTimestamp(timestamp)) {
+            timestampValid = false;
+            return;
+        }
+
+        long rawPosition = timestamp.framePosition & UINT32_MASK;
+        long wrapCount = timestampWrapCount + (rawPosition < lastRawTimestampPosition ? 1 : 0);
+        long frames = rawPosition + (wrapCount << 32);
+        long offsetFrames = frames + durationNsToFrames(nowNs - timestamp.nanoTime) - headFrames;
+        if (Math.abs(offsetFrames) > MAX_TIMESTAMP_OFFSET_US * sampleRate / 1000000L) {
+            L.w(TAG, "maybeUpdateTimestamp - ignoring timestamp %d frames off the playback head", offsetFrames);
+            timestampValid = false;
+            return;
+        }
+
+        timestampWrapCount = wrapCount;
+        lastRawTimestampPosition = rawPosition;
+        timestampFrames = frames;
+        timestampNs = timestamp.nanoTime;
+        timestampValid = true;
+    }
+
+    private long durationNsToFrames(long durationNs) {
+        return durationNs * sampleRate / 1000000000L;
+    }
+}
@@ -0,0 +1,1535 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a playlist gaplessly: reads each item from a {@link SampleSource}, decodes it with a
+ * {@link Decoder} and writes the trimmed PCM to a single {@link AudioSink}.
+ * <p>
+ * The loop only depends on those interfaces, so it runs the same on a device, with
+ * {@link MediaExtractorSampleSource}, {@link MediaCodecDecoder} and {@link AudioTrackSink}, and on a
+ * plain JVM with stand-ins. The setters must be called before {@link #run()}.
+ * <p>
+ * Playback is controlled with commands, like {@link #pause()} or {@link #seekTo(int, long)}, that may
+ * be issued from any thread. They are put on a lock-free queue that the loop polls once per decoder
+ * iteration, so they take effect within one {@link #CODEC_TIMEOUT_US} or one blocking sink write.
+ * For a seek, the loop moves the source to the preceding sync sample, drops all PCM buffered so far
+ * and discards decoded PCM up to the exact target frame.
+ * <p>
+ * The {@link Playlist} may be changed from any thread during playback. The loop picks up the newest
+ * snapshot once per decoder iteration and follows the item it plays, wherever it was moved. The
+ * next item is always the one following it in the newest snapshot, and the {@link LookaheadPreloader}
+ * replaces prepared items that don't follow it anymore. Removing the current item skips to the item
+ * that followed it.
+ * <p>
+ * With a {@link PcmCache}, the trimmed PCM of every item decoded completely is stored, and items
+ * found in the cache are replayed from it without a source or decoder.
+ */
+public final class PlaybackLoop {
+
+    private static final String TAG = PlaybackLoop.class.getSimpleName();
+
+    /**
+     * How the loop waits for the {@link Decoder}.
+     */
+    public enum SchedulingMode {
+        /**
+         * Polls the decoder with zero timeouts and gives up on an item after
+         * {@link #NO_OUTPUT_COUNTER_LIMIT} iterations without output.
+         */
+        POLLING,
+        /**
+         * Waits up to {@link #CODEC_TIMEOUT_US} for decoder output whenever there is no input to
+         * queue, and only ends an item on the output end of stream flag.
+         */
+        BLOCKING,
+        /**
+         * Like {@link #BLOCKING}, but queues input until the decoder has no free input buffer left and
+         * then drains all output buffers that are ready, per iteration. Fewer iterations and wasted
+         * dequeue calls per second of audio, combine it with
+         * {@link #setMinWriteDurationMs(int)} to batch the sink writes as well.
+         */
+        BATCHED
+    }
+
+    /**
+     * The maximum time to wait for decoder output in {@link SchedulingMode#BLOCKING}, in microseconds.
+     */
+    private static final long CODEC_TIMEOUT_US = 10000;
+    /**
+     * The number of iterations without output after which {@link SchedulingMode#POLLING} ends an item.
+     */
+    private static final int NO_OUTPUT_COUNTER_LIMIT = 50;
+
+    /**
+     * The default depth of the {@link PcmRingBuffer} between decoder and {@link AudioSinkWriter}, in
+     * milliseconds.
+     */
+    public static final int DEFAULT_RING_BUFFER_DURATION_MS = 500;
+    /**
+     * The maximum duration the {@link AudioSinkWriter} passes to a single write, in microseconds.
+     */
+    private static final long MAX_WRITE_DURATION_US = 20000;
+
+    /**
+     * The duration of PCM in the sink at which the {@link AudioSinkWriter} wakes up again in the power
+     * saving mode, in milliseconds.
+     */
+    public static final int DEFAULT_LOW_WATERMARK_MS = 50;
+
+    /**
+     * The duration of PCM replayed from the {@link PcmCache} per iteration, in microseconds.
+     */
+    private static final long CACHED_READ_DURATION_US = 20000;
+
+    /**
+     * How often the sink's underrun count is copied into the metrics, in nanoseconds.
+     */
+    private static final long UNDERRUN_POLL_INTERVAL_NS = 100000000;
+
+    /**
+     * The maximum time a paused loop parks before checking for commands again, in nanoseconds.
+     */
+    private static final long PAUSED_PARK_NS = 100000000;
+
+    /**
+     * A command issued by one of the control methods, applied on the thread running the loop.
+     */
+    private static final class Command {
+
+        enum Type {
+            PLAY, PAUSE, STOP, SKIP_NEXT, SKIP_PREVIOUS, SEEK
+        }
+
+        final Type type;
+        final Playlist.Item item;
+        final long positionUs;
+        final long requestNs;
+
+        Command(Type type, Playlist.Item item, long positionUs, long requestNs) {
+            this.type = type;
+            this.item = item;
+            this.positionUs = positionUs;
+            this.requestNs = requestNs;
+        }
+    }
+
+    private final Playlist playlist;
+    private final SampleSource.Factory sourceFactory;
+    private final Decoder.Factory decoderFactory;
+    private final AudioSink sink;
+    private final PlaybackClock clock;
+    private final PlaybackClock.Position clockPosition = new PlaybackClock.Position();
+
+    private SampleSource source = null;
+    private Decoder decoder = null;
+    private boolean sinkConfigured = false;
+    private int sinkFrameSize = 0;
+    private long writtenFrames = 0;
+    private PcmRingBuffer ringBuffer = null;
+    private AudioSinkWriter sinkWriter = null;
+
+    private long currentExtractorPositionUs = 0;
+    private long absoluteExtractedPositionUs = 0;
+    /**
+     * The position within the current item up to which PCM left the {@link PcmTrimmer}, so that it
+     * counts trimmed frames like seek positions and the {@link PlaylistTimeline} do.
+     */
+    private long currentCodecPositionUs = 0;
+    private long absoluteDecodedPositionUs = 0;
+    /**
+     * The frames that left the trimmer since {@link #currentCodecPositionUs} was at
+     * {@link #decodedStartUs}, in the decoded format.
+     */
+    private long decodedFrames = 0;
+    private long decodedStartUs = 0;
+    private int decodedSampleRate = 0;
+    private int decodedFrameSize = 0;
+
+    /**
+     * The newest snapshot of the playlist seen by the loop.
+     */
+    private Playlist.Item[] items;
+    private Playlist.Item currentItem = null;
+    /**
+     * The index of the current item when it started, as reported to the {@link PlaybackClock}.
+     */
+    private int currentAsset = -1;
+    /**
+     * The index of the item to play after the current one, within {@link #items}.
+     */
+    private int nextAsset = 0;
+    private int startedItemCount = 0;
+
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<>();
+    private volatile Thread loopThread;
+    private boolean paused = false;
+    /**
+     * The seek to apply once the current item was left, skips are seeks to the start of an item.
+     */
+    private Command pendingSeek = null;
+    private boolean skipToNextRequested = false;
+    /**
+     * The request time of the seek or skip whose first PCM wasn't written yet, or -1.
+     */
+    private long interruptRequestNs = -1;
+    private boolean interruptIsSeek = false;
+    private long stopRequestNs = -1;
+
+    /**
+     * The offsets of the items started so far from the start of the playlist.
+     */
+    private final ConcurrentHashMap<Playlist.Item, Long> itemStartOffsetsUs = new ConcurrentHashMap<>();
+    private PlaylistTimeline timeline = null;
+
+    private boolean decoderReuseEnabled = true;
+    private SchedulingMode schedulingMode = SchedulingMode.BLOCKING;
+    private int ringBufferDurationMs = DEFAULT_RING_BUFFER_DURATION_MS;
+    private int minWriteDurationMs = 0;
+    private boolean powerSaving = false;
+    private int lowWatermarkMs = DEFAULT_LOW_WATERMARK_MS;
+    private PcmWriteCoalescer writeCoalescer = null;
+    private final PcmTrimmer.Output sinkOutput = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            long writeStartNs = System.nanoTime();
+            int written = sink.write(buffer, size);
+            metrics.recordSinkWrite(System.nanoTime() - writeStartNs);
+            if (written < size) {
+                L.w(TAG, "writePcm - AudioSink.write returned %d", written);
+            }
+        }
+    };
+
+    private final PcmTrimmer trimmer = new PcmTrimmer();
+    private final PcmTrimmer.Output trimmerOutput = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            decodedFrames += size / decodedFrameSize;
+            currentCodecPositionUs = decodedStartUs + decodedFrames * 1000000L / decodedSampleRate;
+            if (cacheWriter != null) {
+                cacheWriter.write(buffer, size);
+            }
+            converter.process(buffer, size, converterOutput);
+        }
+    };
+    private final PcmTrimmer.Output converterOutput = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            if (crossfader != null) {
+                crossfader.process(buffer, size, crossfaderOutput);
+            } else {
+                writePcm(buffer, size);
+            }
+        }
+    };
+    private final PcmTrimmer.Output crossfaderOutput = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            writePcm(buffer, size);
+        }
+    };
+    private boolean gaplessTrimmingEnabled = true;
+
+    private PcmConverter converter = null;
+    private Resampler.Quality resamplerQuality = Resampler.Quality.SINC_MEDIUM;
+    private int outputSampleRate = 0;
+    private int outputChannelCount = 0;
+    private PcmEncoding outputEncoding = PcmEncoding.PCM_16BIT;
+
+    private Crossfader crossfader = null;
+    private int crossfadeDurationMs = 0;
+    private Crossfader.FadeCurve fadeCurve = Crossfader.FadeCurve.EQUAL_POWER;
+
+    private File pcmCaptureFile = null;
+    private PcmCapture pcmCapture = null;
+
+    private PcmCache pcmCache = null;
+    /**
+     * The cached PCM of the current item, or null if it is decoded.
+     */
+    private PcmCache.Entry cachedPcm = null;
+    private PcmCache.Writer cacheWriter = null;
+
+    private DecoderPool decoderPool = null;
+    private LookaheadPreloader preloader = null;
+    private LookaheadPreloader.PreparedItem preparedItem = null;
+    private int lookaheadMaxItems = 2;
+    private long lookaheadDurationMs = 10000;
+    private int lookaheadMaxPrimedBytes = 1024 * 1024;
+    private boolean decoderPrimingEnabled = true;
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final CodecLatencyTracker codecLatencyTracker = new CodecLatencyTracker();
+    private long boundaryStartNs = -1;
+    private long lastUnderrunPollNs = 0;
+    private long runStartNs = 0;
+    private boolean startupRecorded = false;
+
+    private volatile boolean cancelled;
+
+    public PlaybackLoop(String[] assets, SampleSource.Factory sourceFactory, Decoder.Factory decoderFactory,
+                        AudioSink sink) {
+        this(new Playlist(assets), sourceFactory, decoderFactory, sink);
+    }
+
+    public PlaybackLoop(Playlist playlist, SampleSource.Factory sourceFactory, Decoder.Factory decoderFactory,
+                        AudioSink sink) {
+        this.playlist = playlist;
+        this.sourceFactory = sourceFactory;
+        this.decoderFactory = decoderFactory;
+        this.sink = sink;
+        this.clock = new PlaybackClock(sink);
+        this.items = playlist.getItems();
+    }
+
+    /**
+     * Sets whether decoders are kept in a {@link DecoderPool} and reused for compatible playlist
+     * items, instead of being created for every item.
+     */
+    public PlaybackLoop setDecoderReuseEnabled(boolean decoderReuseEnabled) {
+        this.decoderReuseEnabled = decoderReuseEnabled;
+        return this;
+    }
+
+    /**
+     * Sets how the loop waits for the decoder.
+     */
+    public PlaybackLoop setSchedulingMode(SchedulingMode schedulingMode) {
+        this.schedulingMode = schedulingMode;
+        return this;
+    }
+
+    public SchedulingMode getSchedulingMode() {
+        return schedulingMode;
+    }
+
+    /**
+     * Sets the depth of the {@link PcmRingBuffer} that decouples decoding from writing to the
+     * {@link AudioSink}. With a depth of 0, decoded PCM is written to the sink on the decode thread.
+     */
+    public PlaybackLoop setRingBufferDurationMs(int ringBufferDurationMs) {
+        this.ringBufferDurationMs = ringBufferDurationMs;
+        return this;
+    }
+
+    /**
+     * Sets whether playback keeps its threads asleep as long as possible, for background playback.
+     * The loop decodes in bursts that refill the ring buffer once half of it was played, and the
+     * {@link AudioSinkWriter} tops up the sink without blocking and sleeps until only
+     * {@code lowWatermarkMs} of PCM are left in it, see {@link AudioSinkWriter#setLowWatermark(int, int)}.
+     * Needs the ring buffer, see {@link #setRingBufferDurationMs(int)}, which should hold seconds
+     * rather than milliseconds, and a sink buffer well above the low watermark. Commands issued while
+     * the ring buffer is full may take up to the sink's buffer duration to take effect.
+     */
+    public PlaybackLoop setPowerSaving(boolean powerSaving, int lowWatermarkMs) {
+        this.powerSaving = powerSaving;
+        this.lowWatermarkMs = lowWatermarkMs;
+        return this;
+    }
+
+    public boolean isPowerSaving() {
+        return powerSaving;
+    }
+
+    /**
+     * Sets the minimum duration of PCM written to the {@link AudioSink} at once. Smaller chunks, like
+     * single decoder output buffers, are merged until they reach it, which saves calls into the sink.
+     * With 0, every chunk is written as it comes. Must stay well below the duration of the sink's
+     * buffer, which keeps draining while PCM is held back.
+     */
+    public PlaybackLoop setMinWriteDurationMs(int minWriteDurationMs) {
+        this.minWriteDurationMs = minWriteDurationMs;
+        return this;
+    }
+
+    /**
+     * Sets whether encoder delay and padding are trimmed from the decoded PCM, see
+     * {@link TrackFormat#gaplessInfo}.
+     */
+    public PlaybackLoop setGaplessTrimmingEnabled(boolean gaplessTrimmingEnabled) {
+        this.gaplessTrimmingEnabled = gaplessTrimmingEnabled;
+        if (timeline != null) {
+            timeline.setGaplessTrimmingEnabled(gaplessTrimmingEnabled);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the format the sink is configured with. Items in other formats are converted, see
+     * {@link PcmConverter}. With 0, the format of the first item is used.
+     */
+    public PlaybackLoop setOutputFormat(int sampleRate, int channelCount) {
+        this.outputSampleRate = sampleRate;
+        this.outputChannelCount = channelCount;
+        return this;
+    }
+
+    /**
+     * Sets the encoding the sink is configured with, if it supports it, see
+     * {@link AudioSink#isEncodingSupported(PcmEncoding)}. Decoder output in other encodings is
+     * converted, see {@link PcmConverter}.
+     */
+    public PlaybackLoop setOutputEncoding(PcmEncoding outputEncoding) {
+        this.outputEncoding = outputEncoding;
+        return this;
+    }
+
+    /**
+     * Sets the quality of the sample rate conversion for items that don't match the output sample
+     * rate.
+     */
+    public PlaybackLoop setResamplerQuality(Resampler.Quality resamplerQuality) {
+        this.resamplerQuality = resamplerQuality;
+        return this;
+    }
+
+    /**
+     * Sets the duration of the crossfade between consecutive items, see {@link Crossfader}. With 0,
+     * items are played gaplessly without overlap.
+     */
+    public PlaybackLoop setCrossfade(int durationMs, Crossfader.FadeCurve fadeCurve) {
+        this.crossfadeDurationMs = durationMs;
+        this.fadeCurve = fadeCurve;
+        return this;
+    }
+
+    /**
+     * Sets a file to dump all PCM written to the {@link AudioSink} into, or null to disable the
+     * capture.
+     */
+    public PlaybackLoop setPcmCaptureFile(File pcmCaptureFile) {
+        this.pcmCaptureFile = pcmCaptureFile;
+        return this;
+    }
+
+    /**
+     * Sets the cache to store decoded PCM in and replay items from, or null to decode every item. The
+     * cache must be released by the caller.
+     */
+    public PlaybackLoop setPcmCache(PcmCache pcmCache) {
+        this.pcmCache = pcmCache;
+        return this;
+    }
+
+    /**
+     * Configures the {@link LookaheadPreloader}.
+     * @param maxItems The maximum number of upcoming items to keep prepared, 0 disables preloading.
+     * @param durationMs Upcoming items are only prepared if they start within this duration.
+     * @param maxPrimedBytes The maximum amount of PCM decoded ahead by primed decoders.
+     * @param primeDecoders Whether to start the decoders of prepared items and decode their first PCM.
+     */
+    public PlaybackLoop setLookahead(int maxItems, long durationMs, int maxPrimedBytes, boolean primeDecoders) {
+        this.lookaheadMaxItems = maxItems;
+        this.lookaheadDurationMs = durationMs;
+        this.lookaheadMaxPrimedBytes = maxPrimedBytes;
+        this.decoderPrimingEnabled = primeDecoders;
+        return this;
+    }
+
+    /**
+     * Sets the timeline that resolves seeks to items that weren't played yet, see
+     * {@link PlaylistProber}. Without it, only items that already started can be seeked to.
+     */
+    public PlaybackLoop setTimeline(PlaylistTimeline timeline) {
+        if (timeline != null) {
+            timeline.setGaplessTrimmingEnabled(gaplessTrimmingEnabled);
+        }
+        this.timeline = timeline;
+        return this;
+    }
+
+    public Playlist getPlaylist() {
+        return playlist;
+    }
+
+    /**
+     * Requests a seek to {@code positionUs} within item {@code itemIndex} of the current playlist. May
+     * be called from any thread, also before {@link #run()} to start at that position. A newer request
+     * replaces one that wasn't applied yet. If the item gets removed before the seek is applied, the
+     * loop continues with the next item instead.
+     * @return False if the offset of the item within the playlist isn't known yet, so that the
+     *         absolute positions couldn't be kept consistent.
+     */
+    public boolean seekTo(int itemIndex, long positionUs) {
+        Playlist.Item[] items = playlist.getItems();
+        if (itemIndex < 0 || itemIndex >= items.length || positionUs < 0
+                || getItemStartOffsetUs(items, itemIndex) < 0) {
+            return false;
+        }
+        enqueue(Command.Type.SEEK, items[itemIndex], positionUs);
+        return true;
+    }
+
+    /**
+     * Requests a seek to {@code positionUs} from the start of the playlist, see
+     * {@link #seekTo(int, long)}.
+     * @return False if the item at that position isn't known yet.
+     */
+    public boolean seekTo(long positionUs) {
+        Playlist.Item[] items = playlist.getItems();
+        for (int i = 0; i < items.length; i++) {
+            long startUs = getItemStartOffsetUs(items, i);
+            long endUs = i + 1 < items.length ? getItemStartOffsetUs(items, i + 1) : Long.MAX_VALUE;
+            if (startUs < 0 || endUs < 0) {
+                return false;
+            }
+            if (positionUs < endUs) {
+                enqueue(Command.Type.SEEK, items[i], Math.max(0, positionUs - startUs));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resumes playback after {@link #pause()}. May be called from any thread.
+     */
+    public void play() {
+        enqueue(Command.Type.PLAY, null, 0);
+    }
+
+    /**
+     * Pauses the sink and stops decoding, without dropping anything. May be called from any thread,
+     * also before {@link #run()} to start paused.
+     */
+    public void pause() {
+        enqueue(Command.Type.PAUSE, null, 0);
+    }
+
+    /**
+     * Makes {@link #run()} stop and release all resources, like {@link #cancel()}, but in order with
+     * the other commands. May be called from any thread.
+     */
+    public void stop() {
+        enqueue(Command.Type.STOP, null, 0);
+    }
+
+    /**
+     * Ends the current item right away, dropping what is buffered of it. May be called from any
+     * thread.
+     */
+    public void skipToNext() {
+        enqueue(Command.Type.SKIP_NEXT, null, 0);
+    }
+
+    /**
+     * Seeks to the start of the previous item, or of the first one. May be called from any thread.
+     */
+    public void skipToPrevious() {
+        enqueue(Command.Type.SKIP_PREVIOUS, null, 0);
+    }
+
+    /**
+     * @return The offset of the item from the start of the playlist in microseconds, or -1 if it
+     *         isn't known yet. May be called from any thread.
+     */
+    public long getItemStartOffsetUs(int itemIndex) {
+        Playlist.Item[] items = playlist.getItems();
+        return itemIndex >= 0 && itemIndex < items.length ? getItemStartOffsetUs(items, itemIndex) : -1;
+    }
+
+    /**
+     * @return The metrics of the pipeline stages. May be read from any thread at any time.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The clock tracking the sink's position. Must only be used on the thread running the loop.
+     */
+    public PlaybackClock getPlaybackClock() {
+        return clock;
+    }
+
+    /**
+     * @return The pool the decoders were acquired from, or null before {@link #run()}.
+     */
+    DecoderPool getDecoderPool() {
+        return decoderPool;
+    }
+
+    /**
+     * @return The total duration decoded so far, in microseconds.
+     */
+    public long getDecodedDurationUs() {
+        return getAbsoluteDecodedPositionUs();
+    }
+
+    /**
+     * Makes {@link #run()} stop as soon as possible. May be called from any thread. Interrupting the
+     * thread executing the loop has the same effect.
+     */
+    public void cancel() {
+        cancelled = true;
+        unparkLoopThread();
+    }
+
+    public boolean isCancelled() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Plays the whole playlist, or until cancelled, and releases all resources including the sink.
+     */
+    public void run() {
+        L.v(TAG, "run");
+        runStartNs = System.nanoTime();
+        loopThread = Thread.currentThread();
+
+        if (pcmCaptureFile != null) {
+            try {
+                pcmCapture = new PcmCapture(pcmCaptureFile);
+            } catch (IOException e) {
+                L.e(TAG, "run - cannot capture PCM to " + pcmCaptureFile, e);
+            }
+        }
+
+        decoderPool = new DecoderPool(decoderFactory, decoderReuseEnabled);
+        preloader = new LookaheadPreloader(sourceFactory, decoderPool);
+        preloader.setBudget(lookaheadMaxItems, lookaheadDurationMs * 1000, lookaheadMaxPrimedBytes);
+        preloader.setPrimingEnabled(decoderPrimingEnabled);
+        if (pcmCache != null) {
+            preloader.setItemFilter(new LookaheadPreloader.ItemFilter() {
+                @Override
+                public boolean shouldPrepare(Playlist.Item item) {
+                    return !pcmCache.contains(getCacheKey(item));
+                }
+            });
+        }
+
+        try {
+            // Commands issued before, e.g. to start at a position.
+            refreshItems();
+            processCommands();
+            Command seek = pendingSeek;
+            pendingSeek = null;
+            while (!isCancelled() && (seek != null ? initSeekSource(seek) : initNextSource())) {
+                L.d(TAG, "inited next source");
+                if (cachedPcm != null) {
+                    playCachedPcm(seek);
+                    seek = endItem();
+                    continue;
+                }
+
+                Decoder.OutputInfo outputInfo = new Decoder.OutputInfo();
+
+                TrackFormat format = source.getFormat();
+                L.d(TAG, "format: %s", format);
+                int sampleRate = format.sampleRate;
+                int channelCount = format.channelCount;
+                long durationUs = format.durationUs;
+
+                long codecSetupStartNs = System.nanoTime();
+                boolean primed = preparedItem != null && preparedItem.decoder != null;
+                decoder = primed ? preparedItem.decoder : decoderPool.acquire(format);
+                L.d(TAG, "codec setup took %d us (reuse enabled: %s, primed: %s)",
+                        (System.nanoTime() - codecSetupStartNs) / 1000, decoderReuseEnabled, primed);
+
+                // Fresh decoders only report their final encoding with the first output format change.
+                PcmEncoding encoding = decoder.getOutputEncoding();
+                maybeConfigureSink(sampleRate, channelCount);
+                converter.setInputFormat(sampleRate, channelCount, encoding, converterOutput);
+                if (crossfader != null && startedItemCount > 1 && seek == null) {
+                    crossfader.startNextItem(crossfaderOutput);
+                }
+
+                codecLatencyTracker.reset();
+
+                GaplessInfo gaplessInfo = gaplessTrimmingEnabled ? format.gaplessInfo : GaplessInfo.NONE;
+                long itemStartTimeUs = 0;
+                if (seek != null) {
+                    gaplessInfo = applySeek(seek, gaplessInfo, sampleRate);
+                    itemStartTimeUs = seek.positionUs;
+                    seek = null;
+                } else {
+                    if (!itemStartOffsetsUs.containsKey(currentItem)) {
+                        itemStartOffsetsUs.put(currentItem, absoluteDecodedPositionUs);
+                    }
+                }
+                L.d(TAG, "gapless info: %s", gaplessInfo);
+                startDecodedPosition(itemStartTimeUs, sampleRate, encoding.getFrameSize(channelCount));
+                trimmer.reset(encoding.getFrameSize(channelCount), gaplessInfo);
+                // Only items decoded from their start are cached.
+                if (pcmCache != null && itemStartTimeUs == 0) {
+                    cacheWriter = pcmCache.startWriting(getCacheKey(currentItem));
+                    if (cacheWriter != null) {
+                        cacheWriter.setFormat(sampleRate, channelCount, encoding);
+                    }
+                }
+                boolean sawPcm = false;
+                clock.onItemStarted(currentAsset, writtenFrames, itemStartTimeUs);
+
+                int noOutputCounter = 0;
+                boolean sawInputEOS = false;
+                boolean sawOutputEOS = false;
+
+                if (primed) {
+                    // Continue where priming left off, starting with the PCM it decoded.
+                    sawInputEOS = preparedItem.sawInputEOS;
+                    sawOutputEOS = preparedItem.sawOutputEOS;
+                    currentExtractorPositionUs = preparedItem.extractorPositionUs;
+                    if (preparedItem.outputSampleRate > 0) {
+                        L.d(TAG, "Output sample rate has changed while priming to %d", preparedItem.outputSampleRate);
+                        setDecodedFormat(preparedItem.outputSampleRate, channelCount, encoding);
+                    }
+                    if (preparedItem.primedPcm != null) {
+                        sawPcm = true;
+                        trimmer.process(preparedItem.primedPcm, trimmerOutput);
+                        maybeEndBoundary();
+                    }
+                    if (sawOutputEOS) {
+                        boundaryStartNs = System.nanoTime();
+                    }
+                }
+                preparedItem = null;
+                source.prepare();
+
+                while (!sawOutputEOS && !isCancelled()
+                        && (schedulingMode != SchedulingMode.POLLING || noOutputCounter < NO_OUTPUT_COUNTER_LIMIT)) {
+                    if (refreshItems()) {
+                        L.d(TAG, "run - %s was removed, skipping to the next item", currentItem);
+                        skipToNextRequested = true;
+                    }
+                    processCommands();
+                    if (pendingSeek != null || skipToNextRequested || isCancelled()) {
+                        break;
+                    }
+                    if (paused) {
+                        awaitCommand();
+                        continue;
+                    }
+                    noOutputCounter++;
+                    // Batching fills all free input buffers and drains all ready output buffers.
+                    boolean batched = schedulingMode == SchedulingMode.BATCHED;
+                    boolean queuedInput = false;
+                    boolean moreInput = !sawInputEOS;
+                    while (moreInput) {
+                        moreInput = false;
+                        int inputBufferIndex = decoder.dequeueInputBuffer(0);
+                        metrics.incrementCodecCallCount();
+                        if (inputBufferIndex >= 0) {
+                            ByteBuffer dstBuf = decoder.getInputBuffer(inputBufferIndex);
+
+                            long readStartNs = System.nanoTime();
+                            int sampleSize = source.readSampleData(dstBuf, 0);
+                            metrics.recordExtractorRead(System.nanoTime() - readStartNs);
+                            long presentationTimeUs = 0;
+                            if (sampleSize < 0) {
+                                sawInputEOS = true;
+                                sampleSize = 0;
+                            } else {
+                                presentationTimeUs = source.getSampleTime();
+                                currentExtractorPositionUs = presentationTimeUs;
+                            }
+
+                            decoder.queueInputBuffer(inputBufferIndex, sampleSize, presentationTimeUs, sawInputEOS);
+                            metrics.incrementCodecCallCount();
+                            queuedInput = true;
+                            moreInput = batched && !sawInputEOS;
+                            codecLatencyTracker.onInputQueued(presentationTimeUs, System.nanoTime());
+                            if (!sawInputEOS) {
+                                source.advance();
+                                if (L.isLoggable(L.DEBUG)) {
+                                    L.d(TAG, "queued input buffer, size %d/%d (absoluteExtractedPositionUs: %d, track pos: %d)",
+                                            sampleSize, presentationTimeUs, getAbsoluteExtractedPositionUs(), getPlaybackPositionUs());
+                                }
+                            } else {
+                                if (L.isLoggable(L.DEBUG)) {
+                                    L.d(TAG, "saw input EOS, size %d/%d (absoluteExtractedPositionUs: %d, track pos: %d)",
+                                            sampleSize, presentationTimeUs, getAbsoluteExtractedPositionUs(), getPlaybackPositionUs());
+                                }
+                            }
+                        } else {
+                            if (L.isLoggable(L.DEBUG)) {
+                                L.d(TAG, "no input buffer dequeued (absoluteExtractedPositionUs: %d, track pos: %d)",
+                                        getAbsoluteExtractedPositionUs(), getPlaybackPositionUs());
+                            }
+                        }
+                    }
+
+                    // Only sleep in the decoder if there was nothing to feed it, the next input buffer
+                    // may already be waiting otherwise.
+                    long outputTimeoutUs = schedulingMode != SchedulingMode.POLLING && !queuedInput
+                            ? CODEC_TIMEOUT_US : 0;
+                    boolean moreOutput = true;
+                    while (moreOutput) {
+                        moreOutput = false;
+                        int outputBufferIndex = decoder.dequeueOutputBuffer(outputInfo, outputTimeoutUs);
+                        metrics.incrementCodecCallCount();
+                        // Only the first dequeue may wait, the following ones collect what is ready.
+                        outputTimeoutUs = 0;
+                        if (outputBufferIndex >= 0) {
+
+                            long codecLatencyNs = codecLatencyTracker.onOutput(outputInfo.presentationTimeUs, System.nanoTime());
+                            if (codecLatencyNs >= 0) {
+                                metrics.recordCodecLatency(codecLatencyNs);
+                            }
+                            if (L.isLoggable(L.DEBUG)) {
+                                L.d(TAG, "got frame, size %d/%d (absoluteDecodedPositionUs: %d, track pos: %d)",
+                                        outputInfo.size, outputInfo.presentationTimeUs, getAbsoluteDecodedPositionUs(), getPlaybackPositionUs());
+                            }
+                            if (outputInfo.size > 0) {
+                                noOutputCounter = 0;
+                                maybeEndBoundary();
+                            }
+
+                            if (outputInfo.size > 0) {
+                                ByteBuffer buf = decoder.getOutputBuffer(outputBufferIndex);
+                                buf.position(outputInfo.offset);
+                                buf.limit(outputInfo.offset + outputInfo.size);
+                                sawPcm = true;
+                                trimmer.process(buf, trimmerOutput);
+                            }
+                            decoder.releaseOutputBuffer(outputBufferIndex);
+                            metrics.incrementCodecCallCount();
+
+                            if (outputInfo.endOfStream) {
+                                L.d(TAG, "saw output EOS.");
+                                sawOutputEOS = true;
+                                boundaryStartNs = System.nanoTime();
+                            } else {
+                                L.d(TAG, "released output buffer, next round...");
+                                moreOutput = batched;
+                            }
+                        } else if (outputBufferIndex == Decoder.INFO_OUTPUT_BUFFERS_CHANGED) {
+                            L.d(TAG, "output buffers have changed.");
+                            moreOutput = batched;
+                        } else if (outputBufferIndex == Decoder.INFO_OUTPUT_FORMAT_CHANGED) {
+                            // Subsequent data will conform to new format.
+                            int decoderSampleRate = decoder.getOutputSampleRate();
+                            PcmEncoding decoderEncoding = decoder.getOutputEncoding();
+                            L.d(TAG, "Output format has changed to %d Hz, %s", decoderSampleRate, decoderEncoding);
+                            if (decoderEncoding != encoding) {
+                                if (sawPcm) {
+                                    // Not expected from real decoders, the rest of the item is played untrimmed.
+                                    L.w(TAG, "run - encoding changed to %s mid-stream", decoderEncoding);
+                                }
+                                encoding = decoderEncoding;
+                                trimmer.reset(encoding.getFrameSize(channelCount), sawPcm ? GaplessInfo.NONE : gaplessInfo);
+                            }
+                            setDecodedFormat(decoderSampleRate, channelCount, encoding);
+                            moreOutput = batched;
+                        } else if (outputBufferIndex == Decoder.INFO_TRY_AGAIN_LATER) {
+                            metrics.incrementTryAgainLaterCount();
+                            L.d(TAG, "output buffer: try again later");
+                        } else {
+                            L.d(TAG, "unknown output info %d", outputBufferIndex);
+                        }
+                    }
+
+                    preloader.maybePrepare(items, nextAsset, durationUs - currentExtractorPositionUs,
+                            getBufferedOutputUs());
+                    maybePollUnderruns();
+                    maybeRecordStartup();
+                }
+
+                if (cacheWriter != null) {
+                    if (sawOutputEOS && pendingSeek == null && !skipToNextRequested && !isCancelled()) {
+                        cacheWriter.commit();
+                    } else {
+                        cacheWriter.abort();
+                    }
+                    cacheWriter = null;
+                }
+                decoderPool.release(decoder);
+                decoder = null;
+
+                seek = endItem();
+            }
+
+            if (converter != null && !isCancelled()) {
+                converter.flush(converterOutput);
+                if (crossfader != null) {
+                    crossfader.flush(crossfaderOutput);
+                }
+                if (writeCoalescer != null) {
+                    writeCoalescer.flush(sinkOutput);
+                }
+            }
+        } catch (IOException e) {
+            L.e(TAG, "run - exception", e);
+        } finally {
+            maybePollUnderruns();
+            releaseResources();
+            if (stopRequestNs >= 0) {
+                metrics.recordCommand(System.nanoTime() - stopRequestNs);
+            }
+            logBoundaryStats();
+            loopThread = null;
+        }
+    }
+
+    /**
+     * Plays the current item from {@link #cachedPcm}, handling commands and playlist changes like the
+     * decode loop. Seeks are exact without decoding anything.
+     */
+    private void playCachedPcm(Command seek) throws IOException {
+        PcmCache.Entry entry = cachedPcm;
+        L.d(TAG, "playCachedPcm - %s", entry);
+        int frameSize = entry.encoding.getFrameSize(entry.channelCount);
+        maybeConfigureSink(entry.sampleRate, entry.channelCount);
+        converter.setInputFormat(entry.sampleRate, entry.channelCount, entry.encoding, converterOutput);
+        if (crossfader != null && startedItemCount > 1 && seek == null) {
+            crossfader.startNextItem(crossfaderOutput);
+        }
+
+        long startFrame = 0;
+        long itemStartTimeUs = 0;
+        if (seek != null) {
+            startFrame = Math.min(durationUsToNearestFrame(seek.positionUs, entry.sampleRate), entry.frameCount);
+            itemStartTimeUs = seek.positionUs;
+            long itemStartOffsetUs = Math.max(0, getItemStartOffsetUs(items, currentAsset));
+            absoluteExtractedPositionUs = itemStartOffsetUs;
+            absoluteDecodedPositionUs = itemStartOffsetUs;
+        } else if (!itemStartOffsetsUs.containsKey(currentItem)) {
+            itemStartOffsetsUs.put(currentItem, absoluteDecodedPositionUs);
+        }
+        clock.onItemStarted(currentAsset, writtenFrames, itemStartTimeUs);
+
+        ByteBuffer pcm = entry.getPcm();
+        pcm.position((int) (startFrame * frameSize));
+        int readSize = (int) Math.max(1, durationUsToFrames(CACHED_READ_DURATION_US, entry.sampleRate)) * frameSize;
+        long durationUs = entry.getDurationUs();
+        while (pcm.hasRemaining() && !isCancelled()) {
+            if (refreshItems()) {
+                L.d(TAG, "playCachedPcm - %s was removed, skipping to the next item", currentItem);
+                skipToNextRequested = true;
+            }
+            processCommands();
+            if (pendingSeek != null || skipToNextRequested || isCancelled()) {
+                break;
+            }
+            if (paused) {
+                awaitCommand();
+                continue;
+            }
+
+            maybeEndBoundary();
+            int position = pcm.position();
+            int size = Math.min(pcm.remaining(), readSize);
+            pcm.limit(position + size);
+            converter.process(pcm, size, converterOutput);
+            pcm.limit(pcm.capacity());
+            pcm.position(position + size);
+
+            currentCodecPositionUs = (position + size) / frameSize * 1000000L / entry.sampleRate;
+            currentExtractorPositionUs = currentCodecPositionUs;
+            preloader.maybePrepare(items, nextAsset, durationUs - currentCodecPositionUs, getBufferedOutputUs());
+            maybePollUnderruns();
+            maybeRecordStartup();
+        }
+        if (!pcm.hasRemaining()) {
+            boundaryStartNs = System.nanoTime();
+        }
+    }
+
+    /**
+     * Adds the positions of the item that ended to the absolute ones and drops the buffered PCM if
+     * it was left for a seek or skip.
+     * @return The seek to apply next, or null.
+     */
+    private Command endItem() {
+        absoluteExtractedPositionUs += currentExtractorPositionUs;
+        currentExtractorPositionUs = 0;
+        absoluteDecodedPositionUs += currentCodecPositionUs;
+        currentCodecPositionUs = 0;
+
+        Command seek = pendingSeek;
+        pendingSeek = null;
+        if (seek != null || skipToNextRequested) {
+            skipToNextRequested = false;
+            discardBufferedOutput();
+        }
+        return seek;
+    }
+
+    /**
+     * Sets the format of the decoded PCM, for the converter and the cache entry being written.
+     */
+    private void setDecodedFormat(int sampleRate, int channelCount, PcmEncoding encoding) {
+        startDecodedPosition(currentCodecPositionUs, sampleRate, encoding.getFrameSize(channelCount));
+        converter.setInputFormat(sampleRate, channelCount, encoding, converterOutput);
+        if (cacheWriter != null) {
+            cacheWriter.setFormat(sampleRate, channelCount, encoding);
+        }
+    }
+
+    /**
+     * Counts the frames leaving the trimmer from {@code positionUs} on, in a new decoded format.
+     */
+    private void startDecodedPosition(long positionUs, int sampleRate, int frameSize) {
+        currentCodecPositionUs = positionUs;
+        decodedStartUs = positionUs;
+        decodedFrames = 0;
+        decodedSampleRate = sampleRate;
+        decodedFrameSize = frameSize;
+    }
+
+    private String getCacheKey(Playlist.Item item) {
+        // Untrimmed PCM differs from trimmed PCM of the same item.
+        return gaplessTrimmingEnabled ? item.uri : item.uri + "#untrimmed";
+    }
+
+    private void enqueue(Command.Type type, Playlist.Item item, long positionUs) {
+        commands.offer(new Command(type, item, positionUs, System.nanoTime()));
+        unparkLoopThread();
+    }
+
+    private void unparkLoopThread() {
+        Thread thread = loopThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Applies the queued commands. Seeks and skips only take effect once the loop left the current
+     * item, they end it early.
+     */
+    private void processCommands() {
+        Command command;
+        while ((command = commands.poll()) != null) {
+            L.d(TAG, "processCommands - %s", command.type);
+            switch (command.type) {
+                case PLAY:
+                    setPaused(false);
+                    metrics.recordCommand(System.nanoTime() - command.requestNs);
+                    break;
+                case PAUSE:
+                    setPaused(true);
+                    metrics.recordCommand(System.nanoTime() - command.requestNs);
+                    break;
+                case STOP:
+                    // Takes effect once all resources are released.
+                    cancelled = true;
+                    stopRequestNs = command.requestNs;
+                    break;
+                case SKIP_NEXT:
+                    pendingSeek = null;
+                    skipToNextRequested = true;
+                    startInterrupt(command, false);
+                    break;
+                case SKIP_PREVIOUS:
+                    if (items.length == 0) {
+                        break;
+                    }
+                    int currentIndex = Playlist.indexOf(items, currentItem);
+                    int previousIndex = Math.max(0, (currentIndex >= 0 ? currentIndex : nextAsset) - 1);
+                    pendingSeek = new Command(Command.Type.SEEK, items[Math.min(previousIndex, items.length - 1)], 0,
+                            command.requestNs);
+                    skipToNextRequested = false;
+                    startInterrupt(command, false);
+                    break;
+                case SEEK:
+                    pendingSeek = command;
+                    skipToNextRequested = false;
+                    startInterrupt(command, true);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Measures the latency of a seek or skip until its first PCM is written, unless it is applied
+     * before playback started.
+     */
+    private void startInterrupt(Command command, boolean seek) {
+        if (sinkConfigured) {
+            interruptRequestNs = command.requestNs;
+            interruptIsSeek = seek;
+        }
+    }
+
+    private void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        if (!sinkConfigured) {
+            return;
+        }
+        if (paused) {
+            if (sinkWriter != null) {
+                sinkWriter.setPaused(true);
+            }
+            sink.pause();
+        } else {
+            sink.play();
+            if (sinkWriter != null) {
+                sinkWriter.setPaused(false);
+            }
+        }
+    }
+
+    /**
+     * Waits while paused until the next command is issued or the loop gets cancelled.
+     */
+    private void awaitCommand() {
+        if (commands.isEmpty() && !isCancelled()) {
+            LockSupport.parkNanos(this, PAUSED_PARK_NS);
+        }
+    }
+
+    /**
+     * Picks up the newest snapshot of the playlist and finds the item to play next in it.
+     * @return Whether the current item was removed from the playlist.
+     */
+    private boolean refreshItems() {
+        Playlist.Item[] oldItems = items;
+        Playlist.Item[] newItems = playlist.getItems();
+        if (newItems == oldItems) {
+            return false;
+        }
+        items = newItems;
+        if (currentItem == null) {
+            return false;
+        }
+
+        int currentIndex = Playlist.indexOf(newItems, currentItem);
+        if (currentIndex >= 0) {
+            nextAsset = currentIndex + 1;
+            return false;
+        }
+        int oldIndex = Playlist.indexOf(oldItems, currentItem);
+        if (oldIndex < 0) {
+            // Removed before already, only the successor found back then may have moved.
+            nextAsset = Math.min(nextAsset, newItems.length);
+            return false;
+        }
+        // Continue with the first item following the current one that is still part of the playlist.
+        nextAsset = newItems.length;
+        for (int i = oldIndex + 1; i < oldItems.length; i++) {
+            int newIndex = Playlist.indexOf(newItems, oldItems[i]);
+            if (newIndex >= 0) {
+                nextAsset = newIndex;
+                break;
+            }
+        }
+        return true;
+    }
+
+    private boolean initNextSource() throws IOException {
+        if (source != null) {
+            source.release();
+            source = null;
+        }
+        cachedPcm = null;
+
+        refreshItems();
+        if (nextAsset < items.length) {
+            currentItem = items[nextAsset];
+            currentAsset = nextAsset++;
+
+            cachedPcm = pcmCache != null ? pcmCache.get(getCacheKey(currentItem)) : null;
+            if (cachedPcm == null) {
+                // The first item is no boundary, it would only count as a miss.
+                preparedItem = startedItemCount > 0 ? preloader.take(currentItem) : null;
+                source = preparedItem != null ? preparedItem.source : sourceFactory.open(currentItem.uri);
+            }
+            startedItemCount++;
+
+            L.d(TAG, "Source - asset: %s (prepared: %s, cached: %s)", currentItem.uri, preparedItem != null,
+                    cachedPcm != null);
+
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the item a seek goes to, or keeps the current source if the seek stays within its item.
+     */
+    private boolean initSeekSource(Command seek) throws IOException {
+        refreshItems();
+        int seekIndex = Playlist.indexOf(items, seek.item);
+        if (seekIndex < 0) {
+            L.d(TAG, "initSeekSource - %s was removed, continuing with the next item", seek.item);
+            return initNextSource();
+        }
+        if (seek.item != currentItem || (source == null && cachedPcm == null)) {
+            if (source != null) {
+                source.release();
+                source = null;
+            }
+            // Items prepared for the old position may not follow the new one.
+            preloader.release();
+            currentItem = seek.item;
+            cachedPcm = pcmCache != null ? pcmCache.get(getCacheKey(currentItem)) : null;
+            if (cachedPcm == null) {
+                source = sourceFactory.open(currentItem.uri);
+            }
+            startedItemCount++;
+        }
+        currentAsset = seekIndex;
+        nextAsset = seekIndex + 1;
+        preparedItem = null;
+        L.d(TAG, "Source - asset: %s (seeking to %d us)", currentItem.uri, seek.positionUs);
+        return true;
+    }
+
+    /**
+     * Moves the source of the current item to the sync sample before the seek position, and updates
+     * the positions as if the item had been played up to there.
+     * <p>
+     * Seek positions count trimmed frames, while sample and output timestamps are container times,
+     * which still include the encoder delay, also after a seek to a later sync sample. So the source
+     * is seeked to the position plus the delay, and the decoded PCM up to there is discarded.
+     * @return The gapless info to reset the trimmer with, which discards the PCM decoded before the
+     *         seek position.
+     */
+    private GaplessInfo applySeek(Command seek, GaplessInfo gaplessInfo, int sampleRate) {
+        long targetFrame = durationUsToNearestFrame(seek.positionUs, sampleRate);
+        long targetTimeUs = (targetFrame + gaplessInfo.delayFrames) * 1000000L / sampleRate;
+        long seekTimeUs = targetTimeUs;
+        long syncTimeUs = source.seekTo(seekTimeUs);
+        // Approximate seeks, e.g. in VBR MP3 files without a table of contents, may land past the
+        // target. Seek earlier by twice as much each time until they don't.
+        long backoffUs = syncTimeUs - targetTimeUs;
+        while (syncTimeUs > targetTimeUs && seekTimeUs > 0) {
+            seekTimeUs = Math.max(0, targetTimeUs - backoffUs);
+            syncTimeUs = source.seekTo(seekTimeUs);
+            backoffUs *= 2;
+        }
+        if (syncTimeUs > targetTimeUs) {
+            L.w(TAG, "applySeek - landed at %d us, past %d us", syncTimeUs, targetTimeUs);
+        }
+        long syncFrame = durationUsToNearestFrame(syncTimeUs, sampleRate);
+        long discardFrames = Math.max(0, targetFrame + gaplessInfo.delayFrames - syncFrame);
+        long totalFrames = gaplessInfo.totalFrames >= 0 ? Math.max(0, gaplessInfo.totalFrames - targetFrame) : -1;
+
+        long itemStartOffsetUs = Math.max(0, getItemStartOffsetUs(items, currentAsset));
+        absoluteExtractedPositionUs = itemStartOffsetUs;
+        currentExtractorPositionUs = syncTimeUs;
+        absoluteDecodedPositionUs = itemStartOffsetUs;
+        L.d(TAG, "applySeek - item %d at %d us, sync sample at %d us, discarding %d frames",
+                currentAsset, seek.positionUs, syncTimeUs, discardFrames);
+        return new GaplessInfo((int) discardFrames, gaplessInfo.paddingFrames, totalFrames);
+    }
+
+    /**
+     * Configures the sink and the output chain with the format of the first item.
+     */
+    private void maybeConfigureSink(int sampleRate, int channelCount) {
+        if (sinkConfigured) {
+            return;
+        }
+        int sinkSampleRate = outputSampleRate > 0 ? outputSampleRate : sampleRate;
+        int sinkChannelCount = outputChannelCount > 0 ? outputChannelCount : channelCount;
+        PcmEncoding sinkEncoding = outputEncoding;
+        if (!sink.isEncodingSupported(sinkEncoding)) {
+            L.w(TAG, "maybeConfigureSink - %s not supported by the sink, falling back to 16-bit", sinkEncoding);
+            sinkEncoding = PcmEncoding.PCM_16BIT;
+        }
+        sink.configure(sinkSampleRate, sinkChannelCount, sinkEncoding);
+        sinkConfigured = true;
+        sinkFrameSize = sinkEncoding.getFrameSize(sinkChannelCount);
+        clock.reset(sinkSampleRate);
+        converter = new PcmConverter(resamplerQuality, sinkSampleRate, sinkChannelCount, sinkEncoding);
+        if (crossfadeDurationMs > 0) {
+            int fadeFrames = (int) durationUsToFrames(crossfadeDurationMs * 1000L, sinkSampleRate);
+            crossfader = new Crossfader(sinkChannelCount, sinkEncoding, fadeFrames, fadeCurve);
+        }
+        if (!paused) {
+            sink.play();
+        }
+
+        int minWriteSize = (int) durationUsToFrames(minWriteDurationMs * 1000L, sinkSampleRate) * sinkFrameSize;
+        if (ringBufferDurationMs > 0) {
+            int ringBufferSize = (int) durationUsToFrames(ringBufferDurationMs * 1000L, sinkSampleRate) * sinkFrameSize;
+            int maxWriteSize = (int) durationUsToFrames(MAX_WRITE_DURATION_US, sinkSampleRate) * sinkFrameSize;
+            ringBuffer = new PcmRingBuffer(ringBufferSize);
+            sinkWriter = new AudioSinkWriter(sink, ringBuffer, minWriteSize, Math.max(maxWriteSize, minWriteSize),
+                    metrics);
+            if (powerSaving) {
+                sinkWriter.setLowWatermark((int) durationUsToFrames(lowWatermarkMs * 1000L, sinkSampleRate),
+                        sinkFrameSize);
+            }
+            sinkWriter.setPaused(paused);
+            sinkWriter.start();
+        } else if (minWriteSize > 0) {
+            writeCoalescer = new PcmWriteCoalescer(minWriteSize);
+        }
+    }
+
+    /**
+     * Drops all PCM that was decoded but not played yet, so that the sink continues with the seek
+     * position or the next item.
+     */
+    private void discardBufferedOutput() {
+        if (!sinkConfigured) {
+            return;
+        }
+        if (sinkWriter != null) {
+            // Pauses the sink, the writer thread and its ring buffer are kept.
+            sinkWriter.flush();
+        } else {
+            sink.pause();
+        }
+        if (writeCoalescer != null) {
+            writeCoalescer.reset();
+        }
+        sink.flush();
+        converter.reset();
+        if (crossfader != null) {
+            crossfader.reset();
+        }
+        boundaryStartNs = -1;
+        writtenFrames = 0;
+        clock.reset(sink.getSampleRate());
+        if (!paused) {
+            sink.play();
+        }
+        if (sinkWriter != null) {
+            sinkWriter.setPaused(paused);
+        }
+    }
+
+    /**
+     * @return The offset of {@code items[index]} from the start of {@code items}, or -1 if it isn't
+     *         known yet.
+     */
+    private long getItemStartOffsetUs(Playlist.Item[] items, int index) {
+        if (index == 0) {
+            return 0;
+        }
+        long startUs = timeline != null ? timeline.getStartOffsetUs(items, index) : -1;
+        if (startUs >= 0) {
+            return startUs;
+        }
+        Long recordedUs = itemStartOffsetsUs.get(items[index]);
+        return recordedUs != null ? recordedUs : -1;
+    }
+
+    private long getPlaybackPositionUs() {
+        return sinkConfigured ? clock.getPositionUs(System.nanoTime()) : -1;
+    }
+
+    /**
+     * @return How long the sink, and the ring buffer if there is one, can play without new PCM, in
+     *         microseconds.
+     */
+    private long getBufferedOutputUs() {
+        if (!sinkConfigured) {
+            return 0;
+        }
+        long bufferedFrames = writtenFrames - clock.getPositionFrames(System.nanoTime());
+        return Math.max(0, bufferedFrames) * 1000000L / sink.getSampleRate();
+    }
+
+    private long getAbsoluteExtractedPositionUs() {
+        return absoluteExtractedPositionUs + currentExtractorPositionUs;
+    }
+
+    private long getAbsoluteDecodedPositionUs() {
+        return absoluteDecodedPositionUs + currentCodecPositionUs;
+    }
+
+    /**
+     * Records the time between the output EOS of the previous item and the first decoded PCM of the
+     * current one.
+     */
+    private void maybeEndBoundary() {
+        if (boundaryStartNs < 0) {
+            return;
+        }
+        long boundaryNs = System.nanoTime() - boundaryStartNs;
+        boundaryStartNs = -1;
+        metrics.recordBoundaryTransition(boundaryNs);
+        L.d(TAG, "boundary latency: %d us (reuse enabled: %s)", boundaryNs / 1000, decoderReuseEnabled);
+        if (L.isLoggable(L.DEBUG) && clock.getPosition(System.nanoTime(), clockPosition)) {
+            L.d(TAG, "boundary - decoding item %d, playing item %d at %d us",
+                    currentAsset, clockPosition.itemIndex, clockPosition.mediaTimeUs);
+        }
+    }
+
+    /**
+     * Records the startup time once the sink's playback head first advanced.
+     */
+    private void maybeRecordStartup() {
+        if (startupRecorded || !sinkConfigured) {
+            return;
+        }
+        long nowNs = System.nanoTime();
+        if (clock.getPositionFrames(nowNs) > 0) {
+            startupRecorded = true;
+            metrics.recordStartup(nowNs - runStartNs);
+        }
+    }
+
+    private void logBoundaryStats() {
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        L.i(TAG, "metrics - %s", snapshot);
+
+        long decodedUs = getAbsoluteDecodedPositionUs();
+        if (decodedUs > 0) {
+            L.i(TAG, "buffer - startup: %d ms, underruns: %d, underruns per minute of audio: %d",
+                    snapshot.startupNs < 0 ? -1 : snapshot.startupNs / 1000000, snapshot.underrunCount,
+                    snapshot.underrunCount * 60000000L / decodedUs);
+            // Both are calls into native code on a device.
+            L.i(TAG, "calls - scheduling mode: %s, min write: %d ms, merged writes: %d, "
+                            + "per minute of audio: %d codec calls, %d sink writes",
+                    schedulingMode, minWriteDurationMs,
+                    writeCoalescer != null ? writeCoalescer.getMergedWriteCount() : 0,
+                    snapshot.codecCallCount * 60000000L / decodedUs,
+                    snapshot.sinkWrite.count * 60000000L / decodedUs);
+            L.i(TAG, "wakeups - power saving: %s, low watermark: %d ms, wakeups: %d, "
+                            + "wakeups per minute of audio: %d",
+                    powerSaving, lowWatermarkMs, snapshot.wakeupCount,
+                    snapshot.wakeupCount * 60000000L / decodedUs);
+        }
+
+        if (crossfader != null) {
+            L.i(TAG, "crossfade - duration: %d ms, curve: %s, mixed frames: %d",
+                    crossfadeDurationMs, fadeCurve, crossfader.getMixedFrames());
+        }
+
+        LatencyHistogram.Snapshot commandLatency = snapshot.command;
+        if (commandLatency.count > 0) {
+            L.i(TAG, "command latency - commands: %d, p50: %d us, p90: %d us, p99: %d us, max: %d us",
+                    commandLatency.count, commandLatency.getPercentileNs(50) / 1000,
+                    commandLatency.getPercentileNs(90) / 1000, commandLatency.getPercentileNs(99) / 1000,
+                    commandLatency.maxNs / 1000);
+        }
+
+        LatencyHistogram.Snapshot seeks = snapshot.seek;
+        if (seeks.count > 0) {
+            L.i(TAG, "seek latency - seeks: %d, p50: %d us, p90: %d us, p99: %d us, max: %d us",
+                    seeks.count, seeks.getPercentileNs(50) / 1000, seeks.getPercentileNs(90) / 1000,
+                    seeks.getPercentileNs(99) / 1000, seeks.maxNs / 1000);
+        }
+
+        LatencyHistogram.Snapshot boundaries = snapshot.boundaryTransition;
+        if (boundaries.count == 0) {
+            return;
+        }
+        L.i(TAG, "boundary latency - reuse enabled: %s, boundaries: %d, avg: %d us, max: %d us, "
+                        + "decoders created: %d, flushed: %d, reconfigured: %d, "
+                        + "successors fully ready: %d, extractor only: %d, missed: %d, invalidated: %d, "
+                        + "trimmed start frames: %d, trimmed end frames: %d",
+                decoderReuseEnabled, boundaries.count, boundaries.getMeanNs() / 1000,
+                boundaries.maxNs / 1000, decoderPool.getCreatedCount(), decoderPool.getFlushedCount(),
+                decoderPool.getReconfiguredCount(), preloader.getFullyReadyCount(),
+                preloader.getExtractorOnlyCount(), preloader.getMissedCount(), preloader.getInvalidatedCount(),
+                trimmer.getTrimmedStartFrames(), trimmer.getTrimmedEndFrames());
+    }
+
+    /**
+     * Copies the sink's underrun count into the metrics, at most every
+     * {@link #UNDERRUN_POLL_INTERVAL_NS}.
+     */
+    private void maybePollUnderruns() {
+        if (!sinkConfigured) {
+            return;
+        }
+        long nowNs = System.nanoTime();
+        if (nowNs - lastUnderrunPollNs >= UNDERRUN_POLL_INTERVAL_NS) {
+            lastUnderrunPollNs = nowNs;
+            int underrunCount = sink.getUnderrunCount();
+            if (underrunCount >= 0) {
+                metrics.setUnderrunCount(underrunCount);
+            }
+        }
+    }
+
+    private void writePcm(ByteBuffer buffer, int size) {
+        if (interruptRequestNs >= 0) {
+            long latencyNs = System.nanoTime() - interruptRequestNs;
+            metrics.recordCommand(latencyNs);
+            if (interruptIsSeek) {
+                metrics.recordSeek(latencyNs);
+            }
+            interruptRequestNs = -1;
+        }
+        if (pcmCapture != null) {
+            pcmCapture.write(buffer, size);
+        }
+        writtenFrames += size / sinkFrameSize;
+
+        if (ringBuffer != null) {
+            if (powerSaving) {
+                awaitBurstSpace(size);
+            }
+            // Returns early if the loop gets cancelled, the remaining PCM is dropped anyway.
+            ringBuffer.writeFully(buffer, size);
+            return;
+        }
+
+        if (writeCoalescer != null) {
+            writeCoalescer.process(buffer, size, sinkOutput);
+        } else {
+            sinkOutput.output(buffer, size);
+        }
+    }
+
+    /**
+     * Once the ring buffer is full, sleeps until half of it was played, so that the loop decodes in
+     * bursts instead of waking up for every write the {@link AudioSinkWriter} makes room for. Returns
+     * early for commands, which unpark the loop thread.
+     */
+    private void awaitBurstSpace(int size) {
+        if (ringBuffer.free() >= size) {
+            return;
+        }
+        int burstSize = Math.min(ringBuffer.capacity(), Math.max(size, ringBuffer.capacity() / 2));
+        // Bounds the wait in case an unpark is missed, a quarter of the ring buffer is still left then.
+        long timeoutNs = ringBufferDurationMs * 1000000L / 4;
+        while (!ringBuffer.awaitSpace(burstSize, timeoutNs)
+                && commands.isEmpty() && !isCancelled() && !ringBuffer.isClosed()) {
+            // Until the writer made room for a burst.
+        }
+    }
+
+    private void releaseResources() {
+        if (sinkWriter != null) {
+            if (isCancelled()) {
+                sinkWriter.release();
+            } else {
+                sinkWriter.finish();
+            }
+            sinkWriter = null;
+            ringBuffer = null;
+        }
+
+        if (source != null) {
+            source.release();
+            source = null;
+        }
+        cachedPcm = null;
+        if (cacheWriter != null) {
+            cacheWriter.abort();
+            cacheWriter = null;
+        }
+        if (preloader != null) {
+            preloader.release();
+        }
+        if (decoder != null) {
+            decoderPool.discard(decoder);
+            decoder = null;
+        }
+        decoderPool.releaseAll();
+
+        sink.release();
+        sinkConfigured = false;
+        if (pcmCapture != null) {
+            pcmCapture.close();
+            pcmCapture = null;
+        }
+    }
+
+    static long durationUsToFrames(long durationUs, int sampleRate) {
+      return (durationUs * sampleRate) / 1000000L;
+    }
+
+    static long durationUsToNearestFrame(long durationUs, int sampleRate) {
+      return (durationUs * sampleRate + 500000L) / 1000000L;
+    }
+}
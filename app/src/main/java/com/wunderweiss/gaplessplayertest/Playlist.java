@@ -0,0 +1,176 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The items of a playlist, which may be changed from any thread while they are played.
+ * <p>
+ * Copy-on-write: every change publishes a new array of items through a volatile field, so readers
+ * like the decode thread never lock and always see a consistent snapshot. Changes are serialized and
+ * copy the whole array, which is cheap for playlists of typical size. Items keep their identity when
+ * they are moved, so readers can find the item they are playing in a newer snapshot. A uri added
+ * twice makes two items.
+ */
+public final class Playlist {
+
+    /**
+     * Notified on the thread that changed the playlist, after the change was published.
+     */
+    public interface Listener {
+        void onPlaylistChanged(Playlist playlist);
+    }
+
+    /**
+     * A playlist item. Compared by identity.
+     */
+    public static final class Item {
+
+        public final long id;
+        public final String uri;
+
+        private Item(long id, String uri) {
+            this.id = id;
+            this.uri = uri;
+        }
+
+        @Override
+        public String toString() {
+            return "Item{id=" + id + ", uri=" + uri + '}';
+        }
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Item[] items;
+    private long nextId;
+
+    public Playlist(String[] uris) {
+        Item[] initialItems = new Item[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            initialItems[i] = new Item(nextId++, uris[i]);
+        }
+        items = initialItems;
+    }
+
+    /**
+     * @return The current items, which must not be modified. Later changes don't affect them.
+     */
+    public Item[] getItems() {
+        return items;
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public Item get(int index) {
+        return items[index];
+    }
+
+    /**
+     * @return The index of {@code item} in {@code items}, or -1 if it isn't part of them.
+     */
+    public static int indexOf(Item[] items, Item item) {
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a new item.
+     */
+    public Item add(String uri) {
+        return insert(-1, uri);
+    }
+
+    /**
+     * Inserts a new item at {@code index}.
+     */
+    public Item add(int index, String uri) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return insert(index, uri);
+    }
+
+    /**
+     * @return The removed item.
+     */
+    public Item remove(int index) {
+        Item item;
+        synchronized (this) {
+            Item[] oldItems = items;
+            checkIndex(index, oldItems.length);
+            item = oldItems[index];
+            Item[] newItems = new Item[oldItems.length - 1];
+            System.arraycopy(oldItems, 0, newItems, 0, index);
+            System.arraycopy(oldItems, index + 1, newItems, index, oldItems.length - index - 1);
+            items = newItems;
+        }
+        notifyListeners();
+        return item;
+    }
+
+    /**
+     * Moves the item at {@code fromIndex} to {@code toIndex}, shifting the items in between.
+     */
+    public void move(int fromIndex, int toIndex) {
+        synchronized (this) {
+            Item[] newItems = Arrays.copyOf(items, items.length);
+            checkIndex(fromIndex, newItems.length);
+            checkIndex(toIndex, newItems.length);
+            Item item = newItems[fromIndex];
+            if (fromIndex < toIndex) {
+                System.arraycopy(newItems, fromIndex + 1, newItems, fromIndex, toIndex - fromIndex);
+            } else {
+                System.arraycopy(newItems, toIndex, newItems, toIndex + 1, fromIndex - toIndex);
+            }
+            newItems[toIndex] = item;
+            items = newItems;
+        }
+        notifyListeners();
+    }
+
+    private Item insert(int index, String uri) {
+        Item item;
+        synchronized (this) {
+            Item[] oldItems = items;
+            if (index < 0) {
+                index = oldItems.length;
+            } else {
+                checkIndex(index, oldItems.length + 1);
+            }
+            Item[] newItems = new Item[oldItems.length + 1];
+            System.arraycopy(oldItems, 0, newItems, 0, index);
+            item = new Item(nextId++, uri);
+            newItems[index] = item;
+            System.arraycopy(oldItems, index, newItems, index + 1, oldItems.length - index);
+            items = newItems;
+        }
+        notifyListeners();
+        return item;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : listeners) {
+            listener.onPlaylistChanged(this);
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
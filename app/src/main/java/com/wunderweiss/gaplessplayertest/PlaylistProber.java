@@ -0,0 +1,222 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Probes the formats of all playlist items in parallel, to know the whole {@link PlaylistTimeline}
+ * long before playback reaches the last item.
+ * <p>
+ * A fixed number of workers take the items in playlist order, so the first items are resolved first
+ * and playback doesn't have to wait for the rest. Items added to the {@link Playlist} later are
+ * probed as well, each uri once. Each item is opened with the {@link SampleSource.Factory}, which
+ * must be thread-safe, and released again without reading any samples. With a
+ * {@link MediaMetadataIndex}, indexed items are resolved without parsing their containers.
+ */
+public final class PlaylistProber {
+
+    private static final String TAG = PlaylistProber.class.getSimpleName();
+
+    /**
+     * Notified on the worker threads.
+     */
+    public interface Listener {
+        /**
+         * Called once the item was probed, successfully or not.
+         */
+        void onItemResolved(PlaylistTimeline timeline, String uri);
+
+        /**
+         * Called once all current items are resolved, unless cancelled. Called again if the playlist
+         * became complete again after items were added.
+         */
+        void onComplete(PlaylistTimeline timeline);
+    }
+
+    private final Playlist playlist;
+    private final SampleSource.Factory sourceFactory;
+    private final int parallelism;
+    private final PlaylistTimeline timeline;
+    private final Set<String> submittedUris = new HashSet<>();
+    private final Object completionLock = new Object();
+
+    private final Playlist.Listener playlistListener = new Playlist.Listener() {
+        @Override
+        public void onPlaylistChanged(Playlist playlist) {
+            // Workers may resolve added items as soon as they are submitted, so the playlist must be
+            // seen incomplete before, or the next completion isn't notified.
+            maybeNotifyComplete();
+            submitUnresolved();
+        }
+    };
+
+    private ExecutorService executor;
+    private Listener listener;
+    private volatile boolean cancelled;
+    /**
+     * Whether the timeline was last seen complete, guarded by {@link #completionLock}.
+     */
+    private boolean notifiedComplete;
+    /**
+     * Whether the timeline is complete and the listener was notified, guarded by
+     * {@link #completionLock}.
+     */
+    private boolean complete;
+    private long startNs;
+
+    /**
+     * @param parallelism The maximum number of items probed at the same time.
+     */
+    public PlaylistProber(String[] uris, SampleSource.Factory sourceFactory, int parallelism) {
+        this(new Playlist(uris), sourceFactory, parallelism);
+    }
+
+    /**
+     * @param parallelism The maximum number of items probed at the same time.
+     */
+    public PlaylistProber(Playlist playlist, SampleSource.Factory sourceFactory, int parallelism) {
+        this.playlist = playlist;
+        this.sourceFactory = sourceFactory;
+        this.parallelism = Math.max(1, parallelism);
+        this.timeline = new PlaylistTimeline(playlist);
+    }
+
+    /**
+     * @return A parallelism of one worker per core.
+     */
+    public static int getDefaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Starts probing. Must be called once.
+     * @param listener The listener to notify, or null.
+     */
+    public void start(Listener listener) {
+        if (executor != null) {
+            throw new IllegalStateException("Already started");
+        }
+        this.listener = listener;
+        startNs = System.nanoTime();
+        executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        playlist.addListener(playlistListener);
+        submitUnresolved();
+        // An empty playlist is complete right away.
+        maybeNotifyComplete();
+    }
+
+    public PlaylistTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Stops probing. Items being probed are finished, the others stay unresolved.
+     */
+    public void cancel() {
+        playlist.removeListener(playlistListener);
+        synchronized (submittedUris) {
+            cancelled = true;
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        synchronized (completionLock) {
+            completionLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return Whether all current items were resolved and the listener was notified within the
+     *         timeout.
+     */
+    public boolean awaitCompletion(long timeoutMs) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + timeoutMs * 1000000;
+        synchronized (completionLock) {
+            while (!complete && !cancelled) {
+                long remainingMs = (deadlineNs - System.nanoTime()) / 1000000;
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                completionLock.wait(remainingMs);
+            }
+            return complete;
+        }
+    }
+
+    private void submitUnresolved() {
+        for (Playlist.Item item : playlist.getItems()) {
+            final String uri = item.uri;
+            synchronized (submittedUris) {
+                if (cancelled || !submittedUris.add(uri)) {
+                    continue;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled) {
+                            probe(uri);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void probe(String uri) {
+        SampleSource source = null;
+        try {
+            source = sourceFactory.open(uri);
+            timeline.setFormat(uri, source.getFormat());
+        } catch (IOException | RuntimeException e) {
+            L.w(TAG, "probe - cannot probe " + uri, e);
+            timeline.setError(uri, e);
+        } finally {
+            if (source != null) {
+                source.release();
+            }
+        }
+        if (listener != null) {
+            listener.onItemResolved(timeline, uri);
+        }
+        maybeNotifyComplete();
+    }
+
+    private void maybeNotifyComplete() {
+        synchronized (completionLock) {
+            boolean timelineComplete = timeline.isComplete();
+            if (timelineComplete == notifiedComplete) {
+                return;
+            }
+            notifiedComplete = timelineComplete;
+            if (!timelineComplete) {
+                complete = false;
+                return;
+            }
+        }
+        L.i(TAG, "probed %d items in %d ms with %d workers, total duration: %d ms",
+                playlist.size(), (System.nanoTime() - startNs) / 1000000, parallelism,
+                timeline.getTotalDurationUs() / 1000);
+        if (listener != null) {
+            listener.onComplete(timeline);
+        }
+        synchronized (completionLock) {
+            // Items may have been added meanwhile.
+            complete = notifiedComplete;
+            completionLock.notifyAll();
+        }
+    }
+}
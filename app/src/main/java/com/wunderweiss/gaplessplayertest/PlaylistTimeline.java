@@ -0,0 +1,142 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The formats and durations of the items of a {@link Playlist}, filled in incrementally as they are
+ * probed, see {@link PlaylistProber}. Thread-safe.
+ * <p>
+ * Formats are kept per uri, so they survive changes of the playlist. Index-based methods refer to the
+ * current items of the playlist.
+ */
+public final class PlaylistTimeline {
+
+    private final Playlist playlist;
+    private final Map<String, TrackFormat> formats = new HashMap<>();
+    private final Map<String, Exception> errors = new HashMap<>();
+    private volatile boolean gaplessTrimmingEnabled = true;
+
+    public PlaylistTimeline(Playlist playlist) {
+        this.playlist = playlist;
+    }
+
+    public Playlist getPlaylist() {
+        return playlist;
+    }
+
+    /**
+     * Sets whether durations exclude encoder delay and padding, see {@link TrackFormat#getTrimmedDurationUs()}.
+     * Must match the {@link PlaybackLoop} the timeline is used with, so offsets and playback positions
+     * count the same frames.
+     */
+    public PlaylistTimeline setGaplessTrimmingEnabled(boolean gaplessTrimmingEnabled) {
+        this.gaplessTrimmingEnabled = gaplessTrimmingEnabled;
+        return this;
+    }
+
+    public int getItemCount() {
+        return playlist.size();
+    }
+
+    synchronized void setFormat(String uri, TrackFormat format) {
+        formats.put(uri, format);
+        errors.remove(uri);
+    }
+
+    synchronized void setError(String uri, Exception error) {
+        errors.put(uri, error);
+    }
+
+    /**
+     * @return The format of the item, or null if it wasn't probed yet or probing failed.
+     */
+    public TrackFormat getFormat(int index) {
+        return getFormat(playlist.get(index).uri);
+    }
+
+    public synchronized TrackFormat getFormat(String uri) {
+        return formats.get(uri);
+    }
+
+    /**
+     * @return Why probing the item failed, or null.
+     */
+    public Exception getError(int index) {
+        return getError(playlist.get(index).uri);
+    }
+
+    public synchronized Exception getError(String uri) {
+        return formats.containsKey(uri) ? null : errors.get(uri);
+    }
+
+    /**
+     * @return Whether the item was probed, successfully or not.
+     */
+    public boolean isResolved(int index) {
+        return isResolved(playlist.get(index).uri);
+    }
+
+    public synchronized boolean isResolved(String uri) {
+        return formats.containsKey(uri) || errors.containsKey(uri);
+    }
+
+    /**
+     * @return The number of current items that are resolved.
+     */
+    public int getResolvedCount() {
+        Playlist.Item[] items = playlist.getItems();
+        int resolvedCount = 0;
+        synchronized (this) {
+            for (Playlist.Item item : items) {
+                if (isResolved(item.uri)) {
+                    resolvedCount++;
+                }
+            }
+        }
+        return resolvedCount;
+    }
+
+    public boolean isComplete() {
+        return getResolvedCount() == playlist.size();
+    }
+
+    /**
+     * @return The offset of the item from the start of the playlist, in microseconds, or -1 while the
+     *         duration of a preceding item is unknown. Items that failed to probe count as empty. An
+     *         index of the size of the playlist returns its total duration.
+     */
+    public long getStartOffsetUs(int index) {
+        return getStartOffsetUs(playlist.getItems(), index);
+    }
+
+    /**
+     * @return The offset of {@code items[index]} from the start of {@code items}, like
+     *         {@link #getStartOffsetUs(int)}, for a snapshot of the playlist.
+     */
+    public long getStartOffsetUs(Playlist.Item[] items, int index) {
+        return index <= items.length ? sumDurationsUs(items, index) : -1;
+    }
+
+    /**
+     * @return The duration of the whole playlist in microseconds, or -1 until all items are resolved.
+     */
+    public long getTotalDurationUs() {
+        Playlist.Item[] items = playlist.getItems();
+        return sumDurationsUs(items, items.length);
+    }
+
+    private synchronized long sumDurationsUs(Playlist.Item[] items, int count) {
+        long durationUs = 0;
+        for (int i = 0; i < count; i++) {
+            if (!isResolved(items[i].uri)) {
+                return -1;
+            }
+            TrackFormat format = formats.get(items[i].uri);
+            if (format != null) {
+                durationUs += gaplessTrimmingEnabled ? format.getTrimmedDurationUs() : format.durationUs;
+            }
+        }
+        return durationUs;
+    }
+}
@@ -0,0 +1,257 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.Arrays;
+
+/**
+ * A streaming sample rate converter for interleaved float PCM.
+ * <p>
+ * Input is appended to an internal history, and every output frame whose filter taps are available
+ * is produced right away. The read position is kept as an exact fraction of the input rate, so the
+ * conversion doesn't drift however long the stream is. All buffers grow on demand only, so a stream
+ * with a bounded chunk size stops allocating after the first chunks. Not thread-safe.
+ */
+public final class Resampler {
+
+    /**
+     * The quality and CPU trade-off of the conversion.
+     */
+    public enum Quality {
+        /**
+         * Interpolates linearly between two input frames. Cheapest, but attenuates high frequencies
+         * and aliases.
+         */
+        LINEAR(0),
+        /**
+         * A windowed sinc filter with 8 zero crossings on each side.
+         */
+        SINC_MEDIUM(8),
+        /**
+         * A windowed sinc filter with 32 zero crossings on each side.
+         */
+        SINC_HIGH(32);
+
+        final int zeroCrossings;
+
+        Quality(int zeroCrossings) {
+            this.zeroCrossings = zeroCrossings;
+        }
+    }
+
+    /**
+     * The number of filter table entries per zero crossing.
+     */
+    private static final int SINC_TABLE_RESOLUTION = 256;
+    /**
+     * Moves the cutoff a little below the Nyquist frequency of the lower rate, to leave room for the
+     * transition band of the filter.
+     */
+    private static final double CUTOFF_FACTOR = 0.95;
+
+    private final Quality quality;
+    private final int channelCount;
+    private final float[] sincTable;
+
+    private int inputRate;
+    private int outputRate;
+    /**
+     * The input frames advanced per output frame, as {@code step / denominator}.
+     */
+    private long step;
+    private long denominator;
+    private double cutoff;
+    /**
+     * The number of input frames on each side of the read position that affect an output frame.
+     */
+    private int halfWidth;
+    private float[] weights = new float[0];
+
+    private float[] history = new float[0];
+    private int historyFrames;
+    /**
+     * The read position, as {@code position + phase / denominator} frames into the history.
+     */
+    private int position;
+    private long phase;
+
+    public Resampler(Quality quality, int channelCount) {
+        this.quality = quality;
+        this.channelCount = channelCount;
+        this.sincTable = quality == Quality.LINEAR ? null : createSincTable(quality.zeroCrossings);
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Sets the rates and drops all pending input.
+     */
+    public void setRates(int inputRate, int outputRate) {
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        long gcd = gcd(inputRate, outputRate);
+        step = inputRate / gcd;
+        denominator = outputRate / gcd;
+        cutoff = Math.min(1.0, (double) outputRate / inputRate) * CUTOFF_FACTOR;
+        halfWidth = quality == Quality.LINEAR ? 1 : (int) Math.ceil(quality.zeroCrossings / cutoff);
+        if (weights.length < 2 * halfWidth) {
+            weights = new float[2 * halfWidth];
+        }
+        reset();
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    /**
+     * Drops all pending input.
+     */
+    public void reset() {
+        // Start with silence before the first frame, so that its output has its left taps.
+        historyFrames = halfWidth - 1;
+        ensureHistoryCapacity(historyFrames);
+        Arrays.fill(history, 0, historyFrames * channelCount, 0f);
+        position = halfWidth - 1;
+        phase = 0;
+    }
+
+    /**
+     * @return The maximum number of frames {@link #process} produces for {@code inputFrames}, or
+     *         {@link #drain} produces if {@code inputFrames} is 0.
+     */
+    public int getMaxOutputFrames(int inputFrames) {
+        long pendingFrames = historyFrames - position + inputFrames + halfWidth;
+        return (int) ((pendingFrames * denominator) / step) + 2;
+    }
+
+    /**
+     * Appends {@code inputFrames} frames and converts as much as possible.
+     * @param output Receives the converted frames, must hold {@link #getMaxOutputFrames(int)} frames.
+     * @return The number of frames written to {@code output}.
+     */
+    public int process(float[] input, int inputFrames, float[] output) {
+        ensureHistoryCapacity(historyFrames + inputFrames);
+        System.arraycopy(input, 0, history, historyFrames * channelCount, inputFrames * channelCount);
+        historyFrames += inputFrames;
+        return convert(output);
+    }
+
+    /**
+     * Converts the remaining input, as if it was followed by silence, and starts over.
+     * @param output Receives the converted frames, must hold {@code getMaxOutputFrames(0)} frames.
+     * @return The number of frames written to {@code output}.
+     */
+    public int drain(float[] output) {
+        // Only drain up to the last input frame, the silence itself isn't part of the stream.
+        int lastFrame = historyFrames - 1;
+        ensureHistoryCapacity(historyFrames + halfWidth);
+        Arrays.fill(history, historyFrames * channelCount, (historyFrames + halfWidth) * channelCount, 0f);
+        historyFrames += halfWidth;
+
+        int frames = 0;
+        while (position <= lastFrame && position + halfWidth < historyFrames) {
+            convertFrame(output, frames++);
+        }
+        reset();
+        return frames;
+    }
+
+    private int convert(float[] output) {
+        int frames = 0;
+        while (position + halfWidth < historyFrames) {
+            convertFrame(output, frames++);
+        }
+
+        // Keep only the frames the next output frame needs.
+        int discard = position - halfWidth + 1;
+        if (discard > 0) {
+            System.arraycopy(history, discard * channelCount, history, 0, (historyFrames - discard) * channelCount);
+            historyFrames -= discard;
+            position -= discard;
+        }
+        return frames;
+    }
+
+    private void convertFrame(float[] output, int frame) {
+        int outputOffset = frame * channelCount;
+        float fraction = (float) phase / denominator;
+        if (quality == Quality.LINEAR) {
+            int offset = position * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                float a = history[offset + c];
+                float b = history[offset + channelCount + c];
+                output[outputOffset + c] = a + (b - a) * fraction;
+            }
+        } else {
+            int taps = 2 * halfWidth;
+            float weightSum = 0;
+            for (int k = 0; k < taps; k++) {
+                float weight = sinc((k - halfWidth + 1 - fraction) * cutoff);
+                weights[k] = weight;
+                weightSum += weight;
+            }
+            int firstOffset = (position - halfWidth + 1) * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                float sum = 0;
+                int offset = firstOffset + c;
+                for (int k = 0; k < taps; k++) {
+                    sum += history[offset] * weights[k];
+                    offset += channelCount;
+                }
+                // Normalizing keeps the DC gain at 1 for every phase.
+                output[outputOffset + c] = sum / weightSum;
+            }
+        }
+
+        phase += step;
+        position += (int) (phase / denominator);
+        phase %= denominator;
+    }
+
+    /**
+     * Looks up the windowed sinc at {@code t} zero crossings, interpolating between table entries.
+     */
+    private float sinc(double t) {
+        double index = Math.abs(t) * SINC_TABLE_RESOLUTION;
+        int i = (int) index;
+        if (i >= sincTable.length - 1) {
+            return 0;
+        }
+        float fraction = (float) (index - i);
+        return sincTable[i] + (sincTable[i + 1] - sincTable[i]) * fraction;
+    }
+
+    private void ensureHistoryCapacity(int frames) {
+        if (history.length < frames * channelCount) {
+            // Leave some headroom, the chunk sizes vary.
+            history = Arrays.copyOf(history, frames * channelCount * 3 / 2 + channelCount);
+        }
+    }
+
+    private static float[] createSincTable(int zeroCrossings) {
+        float[] table = new float[zeroCrossings * SINC_TABLE_RESOLUTION + 1];
+        for (int i = 0; i < table.length; i++) {
+            double t = (double) i / SINC_TABLE_RESOLUTION;
+            double sinc = i == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+            // Blackman window over [-zeroCrossings, zeroCrossings].
+            double x = t / zeroCrossings;
+            double window = 0.42 + 0.5 * Math.cos(Math.PI * x) + 0.08 * Math.cos(2 * Math.PI * x);
+            table[i] = (float) (sinc * window);
+        }
+        return table;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,58 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the compressed samples of a single playlist item, like {@link android.media.MediaExtractor}
+ * with its audio track selected.
+ */
+public interface SampleSource {
+
+    /**
+     * Opens the sources of playlist items.
+     */
+    interface Factory {
+        SampleSource open(String uri) throws IOException;
+    }
+
+    /**
+     * @return The format, which may be known before the source is prepared.
+     */
+    TrackFormat getFormat();
+
+    /**
+     * Opens the media for reading, unless already done. Sources that know their format without
+     * opening the media, see {@link MediaMetadataIndex}, defer this until it is called or samples
+     * are read.
+     */
+    void prepare() throws IOException;
+
+    /**
+     * Reads the current sample into {@code buffer} at {@code offset}.
+     * @return The sample size in bytes, or -1 if there are no more samples.
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    /**
+     * @return The presentation time of the current sample in microseconds.
+     */
+    long getSampleTime();
+
+    /**
+     * Moves on to the next sample.
+     * @return False if there are no more samples.
+     */
+    boolean advance();
+
+    /**
+     * Moves to the last sync sample at or before {@code timeUs}, the first one if there is none.
+     * Decoding has to start there and discard the PCM before {@code timeUs}. Times are container
+     * times, which include the encoder delay. Containers without a seek table may only approximate
+     * the position and land past it.
+     * @return The presentation time of the sample moved to, in microseconds.
+     */
+    long seekTo(long timeUs);
+
+    void release();
+}
@@ -0,0 +1,52 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * The format of a playlist item's audio track, as reported by a {@link SampleSource}.
+ */
+public final class TrackFormat {
+
+    public final String mime;
+    public final int sampleRate;
+    public final int channelCount;
+    /**
+     * The duration in microseconds, or 0 if unknown.
+     */
+    public final long durationUs;
+    public final GaplessInfo gaplessInfo;
+    /**
+     * The platform specific format a {@link Decoder} is configured with, e.g. an
+     * {@link android.media.MediaFormat}. May be null.
+     */
+    public final Object platformFormat;
+
+    public TrackFormat(String mime, int sampleRate, int channelCount, long durationUs,
+                       GaplessInfo gaplessInfo, Object platformFormat) {
+        this.mime = mime;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.durationUs = durationUs;
+        this.gaplessInfo = gaplessInfo;
+        this.platformFormat = platformFormat;
+    }
+
+    /**
+     * @return The duration without encoder delay and padding, in microseconds, which is what remains of
+     *         the item after {@link PcmTrimmer}, or 0 if unknown.
+     */
+    public long getTrimmedDurationUs() {
+        if (gaplessInfo.totalFrames >= 0) {
+            return gaplessInfo.totalFrames * 1000000L / sampleRate;
+        }
+        if (durationUs <= 0) {
+            return 0;
+        }
+        long trimmedUs = (gaplessInfo.delayFrames + gaplessInfo.paddingFrames) * 1000000L / sampleRate;
+        return Math.max(0, durationUs - trimmedUs);
+    }
+
+    @Override
+    public String toString() {
+        return "TrackFormat{mime=" + mime + ", sampleRate=" + sampleRate + ", channelCount=" + channelCount
+                + ", durationUs=" + durationUs + ", gaplessInfo=" + gaplessInfo + '}';
+    }
+}
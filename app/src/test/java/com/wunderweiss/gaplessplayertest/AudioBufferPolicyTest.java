@@ -0,0 +1,53 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioBufferPolicyTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int MIN_BUFFER_FRAMES = 3840;
+
+    @Test
+    public void lowLatency_usesMinimumBuffer() throws Exception {
+        AudioBufferPolicy policy = new AudioBufferPolicy(AudioBufferPolicy.Mode.LOW_LATENCY);
+        int capacity = policy.getCapacityFrames(MIN_BUFFER_FRAMES, SAMPLE_RATE);
+
+        assertEquals(MIN_BUFFER_FRAMES, capacity);
+        assertEquals(capacity, policy.getInitialSizeFrames(MIN_BUFFER_FRAMES, capacity));
+        assertEquals(capacity, policy.getSizeFramesAfterUnderrun(capacity, capacity));
+    }
+
+    @Test
+    public void adaptive_startsSmallAndDoublesUpToCapacity() throws Exception {
+        AudioBufferPolicy policy = new AudioBufferPolicy(AudioBufferPolicy.Mode.ADAPTIVE);
+        int capacity = policy.getCapacityFrames(MIN_BUFFER_FRAMES, SAMPLE_RATE);
+        assertEquals(4 * MIN_BUFFER_FRAMES, capacity);
+
+        int size = policy.getInitialSizeFrames(MIN_BUFFER_FRAMES, capacity);
+        assertEquals(MIN_BUFFER_FRAMES, size);
+        size = policy.getSizeFramesAfterUnderrun(size, capacity);
+        assertEquals(2 * MIN_BUFFER_FRAMES, size);
+        size = policy.getSizeFramesAfterUnderrun(size, capacity);
+        size = policy.getSizeFramesAfterUnderrun(size, capacity);
+        assertEquals(capacity, size);
+    }
+
+    @Test
+    public void adaptive_clampsCapacityToAppLimits() throws Exception {
+        AudioBufferPolicy policy = new AudioBufferPolicy(AudioBufferPolicy.Mode.ADAPTIVE);
+
+        assertEquals(SAMPLE_RATE / 4, policy.getCapacityFrames(100, SAMPLE_RATE));
+        assertEquals(SAMPLE_RATE * 3 / 4, policy.getCapacityFrames(SAMPLE_RATE / 2, SAMPLE_RATE));
+    }
+
+    @Test
+    public void powerSaving_usesLargeBuffer() throws Exception {
+        AudioBufferPolicy policy = new AudioBufferPolicy(AudioBufferPolicy.Mode.POWER_SAVING);
+        int capacity = policy.getCapacityFrames(MIN_BUFFER_FRAMES, SAMPLE_RATE);
+
+        assertEquals(2 * SAMPLE_RATE, capacity);
+        assertEquals(capacity, policy.getInitialSizeFrames(MIN_BUFFER_FRAMES, capacity));
+    }
+}
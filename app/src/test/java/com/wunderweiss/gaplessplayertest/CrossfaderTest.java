@@ -0,0 +1,116 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CrossfaderTest {
+
+    private final CollectingOutput output = new CollectingOutput();
+
+    @Test
+    public void singleItem_isDelayedUntilFlushed() throws Exception {
+        Crossfader crossfader = new Crossfader(1, PcmEncoding.PCM_16BIT, 4, Crossfader.FadeCurve.LINEAR);
+        process(crossfader, new short[]{1, 2, 3, 4, 5, 6});
+
+        assertArrayEquals(new short[]{1, 2}, output.toSamples());
+
+        crossfader.flush(output);
+        assertArrayEquals(new short[]{1, 2, 3, 4, 5, 6}, output.toSamples());
+        assertEquals(0, crossfader.getMixedFrames());
+    }
+
+    @Test
+    public void linearFade_sumsToConstantLevel() throws Exception {
+        Crossfader crossfader = new Crossfader(2, PcmEncoding.PCM_16BIT, 4, Crossfader.FadeCurve.LINEAR);
+        process(crossfader, filled(2 * 8, (short) 1000));
+        crossfader.startNextItem(output);
+        process(crossfader, filled(2 * 8, (short) 1000));
+        crossfader.flush(output);
+
+        // 8 + 8 frames, overlapping by 4.
+        assertArrayEquals(filled(2 * 12, (short) 1000), output.toSamples());
+        assertEquals(4, crossfader.getMixedFrames());
+    }
+
+    @Test
+    public void fade_movesFromTailToHead() throws Exception {
+        Crossfader crossfader = new Crossfader(1, PcmEncoding.PCM_16BIT, 4, Crossfader.FadeCurve.LINEAR);
+        process(crossfader, filled(4, (short) 4000));
+        crossfader.startNextItem(output);
+        process(crossfader, filled(4, (short) 0));
+        crossfader.flush(output);
+
+        assertArrayEquals(new short[]{4000, 3000, 2000, 1000}, output.toSamples());
+    }
+
+    @Test
+    public void shortItem_isFadedOverItsLength() throws Exception {
+        Crossfader crossfader = new Crossfader(1, PcmEncoding.PCM_16BIT, 4, Crossfader.FadeCurve.LINEAR);
+        process(crossfader, filled(2, (short) 4000));
+        crossfader.startNextItem(output);
+        process(crossfader, filled(6, (short) 0));
+        crossfader.flush(output);
+
+        assertArrayEquals(new short[]{4000, 2000, 0, 0, 0, 0}, output.toSamples());
+    }
+
+    @Test
+    public void itemShorterThanTail_finishesFadeOut() throws Exception {
+        Crossfader crossfader = new Crossfader(1, PcmEncoding.PCM_16BIT, 4, Crossfader.FadeCurve.LINEAR);
+        process(crossfader, filled(4, (short) 4000));
+        crossfader.startNextItem(output);
+        process(crossfader, filled(1, (short) 0));
+        crossfader.flush(output);
+
+        assertArrayEquals(new short[]{4000, 3000, 2000, 1000}, output.toSamples());
+    }
+
+    @Test
+    public void equalPowerFade_keepsPowerOfUnrelatedMaterial() throws Exception {
+        float[] gains = new float[101];
+        for (int i = 0; i <= 100; i++) {
+            gains[i] = Crossfader.FadeCurve.EQUAL_POWER.gain(i / 100.0);
+        }
+        for (int i = 0; i <= 100; i++) {
+            assertEquals(1, gains[i] * gains[i] + gains[100 - i] * gains[100 - i], 0.0001);
+        }
+    }
+
+    private void process(Crossfader crossfader, short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(samples);
+        crossfader.process(buffer, buffer.capacity(), output);
+    }
+
+    private static short[] filled(int length, short value) {
+        short[] samples = new short[length];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+
+    private static final class CollectingOutput implements PcmTrimmer.Output {
+
+        private final ByteBuffer collected = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(view.position() + size);
+            collected.put(view);
+            buffer.position(buffer.position() + size);
+        }
+
+        short[] toSamples() {
+            ByteBuffer data = collected.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            data.flip();
+            short[] samples = new short[data.remaining() / 2];
+            data.asShortBuffer().get(samples);
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.wunderweiss.gaplessplayertest;
+
+import com.google.android.exoplayer2.Player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExoPlayerBoundaryTrackerTest {
+
+    @Test
+    public void firstDiscontinuity_isRecordedAsBoundary() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        ExoPlayerBoundaryTracker tracker = new ExoPlayerBoundaryTracker(metrics, 0);
+        tracker.onPlayerStateChanged(Player.STATE_BUFFERING);
+        tracker.onPlayerStateChanged(Player.STATE_READY);
+
+        tracker.onPositionDiscontinuity(1);
+
+        assertEquals(1, metrics.snapshot().boundaryTransition.count);
+        assertEquals(0, tracker.getBoundaryRebufferCount());
+    }
+
+    @Test
+    public void rebufferAtBoundary_isCounted() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        ExoPlayerBoundaryTracker tracker = new ExoPlayerBoundaryTracker(metrics, 0);
+        tracker.onPlayerStateChanged(Player.STATE_READY);
+        tracker.onPlayerStateChanged(Player.STATE_BUFFERING);
+
+        tracker.onPositionDiscontinuity(1);
+        tracker.onPlayerStateChanged(Player.STATE_READY);
+
+        assertEquals(1, metrics.snapshot().boundaryTransition.count);
+        assertEquals(1, tracker.getBoundaryRebufferCount());
+    }
+}
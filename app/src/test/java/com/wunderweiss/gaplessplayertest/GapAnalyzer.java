@@ -0,0 +1,197 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures what happens at the item boundaries of interleaved 16-bit PCM as a player sends it to
+ * its sink.
+ * <p>
+ * With a {@link Reference} of the expected continuous signal, the analyzer tracks how far the
+ * captured PCM lags behind the reference and reports how that lag changes at each boundary, i.e. how
+ * many frames were inserted or dropped. Silence runs and discontinuities around a boundary are
+ * reported in any case.
+ */
+final class GapAnalyzer {
+
+    /**
+     * The expected signal.
+     */
+    interface Reference {
+        short sample(long frame, int channel);
+    }
+
+    static final class BoundaryReport {
+        int index;
+        /**
+         * Where the boundary is in the reference signal.
+         */
+        long expectedFrame;
+        /**
+         * Where the boundary is in the captured PCM.
+         */
+        long capturedFrame;
+        /**
+         * The length of the longest silence run at the boundary.
+         */
+        int silenceFrames;
+        /**
+         * How much later the captured PCM is after the boundary than before it. Unknown without a
+         * reference.
+         */
+        long timingOffsetFrames;
+        long insertedFrames;
+        long droppedFrames;
+        /**
+         * The largest step between two consecutive samples at the boundary that exceeds the largest
+         * step of the reference there, relative to full scale.
+         */
+        double discontinuity;
+
+        @Override
+        public String toString() {
+            return String.format("boundary %d @ %d (captured @ %d): silence=%d, offset=%d, inserted=%d, dropped=%d, discontinuity=%.4f",
+                    index, expectedFrame, capturedFrame, silenceFrames, timingOffsetFrames, insertedFrames,
+                    droppedFrames, discontinuity);
+        }
+    }
+
+    /**
+     * Samples within this magnitude count as silence.
+     */
+    private static final int SILENCE_THRESHOLD = 8;
+    /**
+     * The number of frames around a boundary searched for silence and discontinuities.
+     */
+    private static final int BOUNDARY_WINDOW_FRAMES = 32;
+    /**
+     * The number of frames compared to estimate the lag.
+     */
+    private static final int LAG_WINDOW_FRAMES = 1024;
+
+    private final int channelCount;
+    private final int maxLagFrames;
+
+    /**
+     * @param maxLagFrames The largest timing offset a single boundary is expected to introduce.
+     */
+    GapAnalyzer(int channelCount, int maxLagFrames) {
+        this.channelCount = channelCount;
+        this.maxLagFrames = maxLagFrames;
+    }
+
+    /**
+     * @param captured The captured interleaved PCM.
+     * @param boundaryFrames The frames at which items 1..n-1 start in the reference.
+     * @param reference The expected signal, or null if unknown.
+     */
+    List<BoundaryReport> analyze(short[] captured, long[] boundaryFrames, Reference reference) {
+        List<BoundaryReport> reports = new ArrayList<>();
+        long lag = reference != null ? estimateLag(captured, 0, reference, 0) : 0;
+
+        for (int i = 0; i < boundaryFrames.length; i++) {
+            BoundaryReport report = new BoundaryReport();
+            report.index = i;
+            report.expectedFrame = boundaryFrames[i];
+            report.capturedFrame = boundaryFrames[i] + lag;
+
+            long silenceEnd = report.capturedFrame;
+            long runStart = -1;
+            for (long frame = report.capturedFrame - BOUNDARY_WINDOW_FRAMES;
+                 frame < report.capturedFrame + BOUNDARY_WINDOW_FRAMES + maxLagFrames && frame < frameCount(captured); frame++) {
+                if (frame >= 0 && isSilent(captured, frame)) {
+                    if (runStart < 0) {
+                        runStart = frame;
+                    }
+                    int run = (int) (frame - runStart + 1);
+                    if (run > report.silenceFrames) {
+                        report.silenceFrames = run;
+                        silenceEnd = frame + 1;
+                    }
+                } else {
+                    runStart = -1;
+                    if (frame > report.capturedFrame + BOUNDARY_WINDOW_FRAMES) {
+                        break;
+                    }
+                }
+            }
+            if (report.silenceFrames < 2) {
+                report.silenceFrames = 0;
+                silenceEnd = report.capturedFrame;
+            }
+
+            if (reference != null) {
+                long newLag = estimateLag(captured, Math.max(report.capturedFrame, silenceEnd), reference, lag);
+                report.timingOffsetFrames = newLag - lag;
+                report.insertedFrames = Math.max(0, report.timingOffsetFrames);
+                report.droppedFrames = Math.max(0, -report.timingOffsetFrames);
+                lag = newLag;
+            }
+
+            double step = maxStep(captured, report.capturedFrame - BOUNDARY_WINDOW_FRAMES,
+                    Math.max(report.capturedFrame, silenceEnd) + BOUNDARY_WINDOW_FRAMES);
+            double expectedStep = reference != null ? maxStep(reference, boundaryFrames[i] - BOUNDARY_WINDOW_FRAMES,
+                    boundaryFrames[i] + BOUNDARY_WINDOW_FRAMES) : 0;
+            report.discontinuity = Math.max(0, step - expectedStep);
+
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    /**
+     * Finds the lag within {@link #maxLagFrames} of {@code initialLag} for which the captured PCM
+     * starting at {@code capturedStart} best matches the reference.
+     */
+    private long estimateLag(short[] captured, long capturedStart, Reference reference, long initialLag) {
+        long end = Math.min(frameCount(captured), capturedStart + LAG_WINDOW_FRAMES);
+        long bestLag = initialLag;
+        double bestError = Double.MAX_VALUE;
+        for (long lag = initialLag - maxLagFrames; lag <= initialLag + maxLagFrames; lag++) {
+            double error = 0;
+            for (long frame = capturedStart; frame < end && error < bestError; frame++) {
+                for (int channel = 0; channel < channelCount; channel++) {
+                    double diff = captured[(int) frame * channelCount + channel] - reference.sample(frame - lag, channel);
+                    error += diff * diff;
+                }
+            }
+            if (error < bestError) {
+                bestError = error;
+                bestLag = lag;
+            }
+        }
+        return bestLag;
+    }
+
+    private boolean isSilent(short[] captured, long frame) {
+        for (int channel = 0; channel < channelCount; channel++) {
+            if (Math.abs(captured[(int) frame * channelCount + channel]) > SILENCE_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double maxStep(final short[] captured, long from, long to) {
+        return maxStep(new Reference() {
+            @Override
+            public short sample(long frame, int channel) {
+                return frame < 0 || frame >= frameCount(captured) ? 0 : captured[(int) frame * channelCount + channel];
+            }
+        }, Math.max(1, from), Math.min(frameCount(captured), to));
+    }
+
+    private double maxStep(Reference signal, long from, long to) {
+        int max = 0;
+        for (long frame = Math.max(1, from); frame < to; frame++) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                max = Math.max(max, Math.abs(signal.sample(frame, channel) - signal.sample(frame - 1, channel)));
+            }
+        }
+        return (double) max / (Short.MAX_VALUE + 1);
+    }
+
+    private long frameCount(short[] captured) {
+        return captured.length / channelCount;
+    }
+}
@@ -0,0 +1,144 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Measures the gaps at playlist item boundaries, on the JVM.
+ * <p>
+ * Without arguments, a continuous {@link SineSweep} is split into items that are played by the real
+ * {@link PlaybackLoop}, with a {@link PassthroughDecoder} adding encoder delay and padding around each
+ * item, and what reaches the sink is analyzed with {@link GapAnalyzer}.
+ * <p>
+ * With arguments {@code <file> <sampleRate> <channelCount> <itemFrames>...}, a raw little endian
+ * 16-bit capture from the device (see {@link PcmCapture}, written by both players if
+ * {@code MainActivity.CAPTURE_PCM} is set) is analyzed instead. As there is no reference for the
+ * assets, only silence and discontinuities can be reported then.
+ */
+final class GapHarness {
+
+    /**
+     * How the PCM of the decoded items reaches the sink.
+     */
+    enum Pipeline {
+        /**
+         * Everything the decoder emits is written, with gapless trimming disabled.
+         */
+        UNTRIMMED,
+        /**
+         * Delay and padding are trimmed by {@link PcmTrimmer}, padding held back at the end.
+         */
+        TRIMMED_PADDING,
+        /**
+         * Delay is trimmed and the exact item length is known, as for Ogg Vorbis.
+         */
+        TRIMMED_TOTAL_FRAMES
+    }
+
+    static final int SAMPLE_RATE = 44100;
+    static final int CHANNEL_COUNT = 2;
+    /**
+     * The size of the buffers the simulated decoder emits, as for MP3.
+     */
+    static final int DECODER_BUFFER_FRAMES = 1152;
+    /**
+     * The size of the samples the simulated source reads.
+     */
+    static final int SAMPLE_FRAMES = 1024;
+
+    private final SineSweep sweep;
+    private final long[] boundaryFrames;
+    private final int delayFrames;
+    private final int paddingFrames;
+
+    /**
+     * @param sweep The signal to play.
+     * @param boundaryFrames The frames at which the sweep is split into items.
+     * @param delayFrames The encoder delay the simulated decoder emits before each item.
+     * @param paddingFrames The padding the simulated decoder emits after each item.
+     */
+    GapHarness(SineSweep sweep, long[] boundaryFrames, int delayFrames, int paddingFrames) {
+        this.sweep = sweep;
+        this.boundaryFrames = boundaryFrames;
+        this.delayFrames = delayFrames;
+        this.paddingFrames = paddingFrames;
+    }
+
+    /**
+     * @return The PCM {@code pipeline} sends to the sink for the whole playlist.
+     */
+    short[] play(Pipeline pipeline) {
+        String[] uris = new String[boundaryFrames.length + 1];
+        PcmSampleSource.Factory sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, CHANNEL_COUNT, SAMPLE_FRAMES);
+        for (int item = 0; item < uris.length; item++) {
+            long start = item == 0 ? 0 : boundaryFrames[item - 1];
+            long end = item == boundaryFrames.length ? sweep.getFrameCount() : boundaryFrames[item];
+            GaplessInfo gaplessInfo = pipeline == Pipeline.TRIMMED_TOTAL_FRAMES
+                    ? new GaplessInfo(delayFrames, 0, end - start)
+                    : new GaplessInfo(delayFrames, paddingFrames, -1);
+            uris[item] = "sweep-" + item;
+            sourceFactory.add(uris[item], sweep.render(start, end), gaplessInfo);
+        }
+
+        SimulatedAudioSink sink = new SimulatedAudioSink(true /* recording */, 0);
+        new PlaybackLoop(uris, sourceFactory,
+                new PassthroughDecoder.Factory(delayFrames, paddingFrames, DECODER_BUFFER_FRAMES), sink)
+                .setGaplessTrimmingEnabled(pipeline != Pipeline.UNTRIMMED)
+                .setRingBufferDurationMs(0)
+                .run();
+        return sink.getRecordedSamples();
+    }
+
+    List<GapAnalyzer.BoundaryReport> analyze(Pipeline pipeline) {
+        return new GapAnalyzer(CHANNEL_COUNT, 2 * (delayFrames + paddingFrames) + 64)
+                .analyze(play(pipeline), boundaryFrames, sweep);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            SineSweep sweep = new SineSweep(SAMPLE_RATE, CHANNEL_COUNT, 5 * SAMPLE_RATE, 100, 8000, 0.5);
+            GapHarness harness = new GapHarness(sweep, new long[]{44100, 100000, 150001, 190000}, 529, 1500);
+            for (Pipeline pipeline : Pipeline.values()) {
+                System.out.println(pipeline);
+                print(harness.analyze(pipeline));
+            }
+            return;
+        }
+
+        File file = new File(args[0]);
+        int channelCount = Integer.parseInt(args[2]);
+        long[] boundaryFrames = new long[args.length - 4];
+        long frame = 0;
+        for (int i = 3; i < args.length - 1; i++) {
+            frame += Long.parseLong(args[i]);
+            boundaryFrames[i - 3] = frame;
+        }
+        System.out.println(file + " @ " + args[1] + " Hz");
+        print(new GapAnalyzer(channelCount, 0).analyze(readPcm(file), boundaryFrames, null));
+    }
+
+    private static void print(List<GapAnalyzer.BoundaryReport> reports) {
+        for (GapAnalyzer.BoundaryReport report : reports) {
+            System.out.println("  " + report);
+        }
+    }
+
+    private static short[] readPcm(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            input.readFully(data);
+        } finally {
+            input.close();
+        }
+        short[] samples = new short[data.length / 2];
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+}
@@ -0,0 +1,52 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keeps the boundary handling gapless, see {@link GapHarness}.
+ */
+public class GapHarnessTest {
+
+    private static final int DELAY_FRAMES = 529;
+    private static final int PADDING_FRAMES = 1500;
+
+    private final GapHarness harness = new GapHarness(
+            new SineSweep(GapHarness.SAMPLE_RATE, GapHarness.CHANNEL_COUNT, 3 * GapHarness.SAMPLE_RATE, 100, 8000, 0.5),
+            new long[]{44100, 70001, 100000},
+            DELAY_FRAMES, PADDING_FRAMES);
+
+    @Test
+    public void trimmedPadding_isGapless() throws Exception {
+        assertGapless(harness.analyze(GapHarness.Pipeline.TRIMMED_PADDING));
+    }
+
+    @Test
+    public void trimmedTotalFrames_isGapless() throws Exception {
+        assertGapless(harness.analyze(GapHarness.Pipeline.TRIMMED_TOTAL_FRAMES));
+    }
+
+    @Test
+    public void untrimmed_insertsDelayAndPadding() throws Exception {
+        List<GapAnalyzer.BoundaryReport> reports = harness.analyze(GapHarness.Pipeline.UNTRIMMED);
+
+        assertEquals(3, reports.size());
+        for (GapAnalyzer.BoundaryReport report : reports) {
+            assertEquals(report.toString(), DELAY_FRAMES + PADDING_FRAMES, report.insertedFrames);
+            assertEquals(report.toString(), DELAY_FRAMES + PADDING_FRAMES, report.silenceFrames);
+            assertTrue(report.toString(), report.discontinuity > 0);
+        }
+    }
+
+    private static void assertGapless(List<GapAnalyzer.BoundaryReport> reports) {
+        assertEquals(3, reports.size());
+        for (GapAnalyzer.BoundaryReport report : reports) {
+            assertEquals(report.toString(), 0, report.timingOffsetFrames);
+            assertEquals(report.toString(), 0, report.silenceFrames);
+            assertEquals(report.toString(), 0, report.discontinuity, 0.001);
+        }
+    }
+}
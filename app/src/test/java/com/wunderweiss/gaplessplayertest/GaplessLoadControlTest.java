@@ -0,0 +1,38 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GaplessLoadControlTest {
+
+    @Test
+    public void loading_resumesBoundaryLeadAboveMinimum() {
+        GaplessLoadControl loadControl = new GaplessLoadControl()
+                .setBufferDurationsMs(15000, 30000, 2500, 5000)
+                .setBoundaryLeadMs(5000);
+        loadControl.onPrepared();
+
+        assertTrue(loadControl.shouldContinueLoading(10000000));
+        assertFalse(loadControl.shouldContinueLoading(30000000));
+        assertFalse(loadControl.shouldContinueLoading(21000000));
+        assertTrue(loadControl.shouldContinueLoading(19000000));
+        assertTrue(loadControl.shouldContinueLoading(25000000));
+    }
+
+    @Test
+    public void newPeriod_isLoadedBeyondMaximum() {
+        GaplessLoadControl loadControl = new GaplessLoadControl()
+                .setBufferDurationsMs(15000, 30000, 2500, 5000)
+                .setBoundaryLeadMs(5000);
+        loadControl.onPrepared();
+        loadControl.onTracksSelected(null, null, null);
+        assertFalse(loadControl.shouldContinueLoading(30000000));
+
+        // The loader reached the end of the first period and prepared the next one.
+        loadControl.onTracksSelected(null, null, null);
+        assertTrue(loadControl.shouldContinueLoading(29000000));
+        assertTrue(loadControl.shouldContinueLoading(33000000));
+        assertFalse(loadControl.shouldContinueLoading(34000000));
+    }
+}
@@ -0,0 +1,50 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void snapshot_reportsCountMeanAndPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.count);
+        assertEquals((99 * 1000 + 1000000) / 100, snapshot.getMeanNs());
+        assertEquals(1000000, snapshot.maxNs);
+        // 1000 falls into [512, 1024).
+        assertEquals(1023, snapshot.getPercentileNs(50));
+        assertEquals(1023, snapshot.getPercentileNs(99));
+        assertEquals(1000000, snapshot.getPercentileNs(100));
+    }
+
+    @Test
+    public void record_fromSeveralThreads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.snapshot().count);
+        assertEquals(9999, histogram.snapshot().maxNs);
+    }
+}
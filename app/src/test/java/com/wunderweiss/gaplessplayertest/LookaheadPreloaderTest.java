@@ -0,0 +1,77 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prepares items of {@link PcmSampleSource} with {@link PassthroughDecoder}, which emits its first PCM
+ * right away.
+ */
+public class LookaheadPreloaderTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int OUTPUT_BUFFER_FRAMES = 1152;
+    /**
+     * The size of the first output buffer, 16-bit stereo.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = OUTPUT_BUFFER_FRAMES * 4;
+
+    private final PcmSampleSource.Factory sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, 2, 1024)
+            .add("a", new short[2 * SAMPLE_RATE], new GaplessInfo(529, 1500, -1))
+            .add("b", new short[2 * SAMPLE_RATE], new GaplessInfo(529, 1500, -1))
+            .add("c", new short[2 * SAMPLE_RATE], new GaplessInfo(529, 1500, -1));
+    private final Playlist.Item[] items = new Playlist(new String[]{"a", "b", "c"}).getItems();
+    private final LookaheadPreloader preloader = new LookaheadPreloader(sourceFactory,
+            new DecoderPool(new PassthroughDecoder.Factory(529, 1500, OUTPUT_BUFFER_FRAMES), false));
+
+    @Test
+    public void bufferedOutput_primesDecoders() throws Exception {
+        preloader.setBudget(2, 10000000, 4 * OUTPUT_BUFFER_SIZE);
+        preloader.maybePrepare(items, 1, 0, 1000000);
+        preloader.maybePrepare(items, 1, 0, 1000000);
+
+        LookaheadPreloader.PreparedItem first = preloader.take(items[1]);
+        LookaheadPreloader.PreparedItem second = preloader.take(items[2]);
+        assertTrue(first.isPrimed());
+        assertTrue(second.isPrimed());
+        assertEquals(2, preloader.getFullyReadyCount());
+    }
+
+    @Test
+    public void primedPcm_sharesOnePreallocatedBuffer() throws Exception {
+        preloader.setBudget(2, 10000000, 4 * OUTPUT_BUFFER_SIZE);
+        preloader.maybePrepare(items, 1, 0, 1000000);
+        preloader.maybePrepare(items, 1, 0, 1000000);
+
+        ByteBuffer first = preloader.take(items[1]).primedPcm;
+        ByteBuffer second = preloader.take(items[2]).primedPcm;
+        assertSame(first.array(), second.array());
+        assertEquals(OUTPUT_BUFFER_SIZE, first.remaining());
+        assertEquals(first.arrayOffset() + first.capacity(), second.arrayOffset());
+    }
+
+    @Test
+    public void withoutBufferedOutput_onlyOpensItems() throws Exception {
+        preloader.maybePrepare(items, 1, 0, 0);
+
+        LookaheadPreloader.PreparedItem item = preloader.take(items[1]);
+        assertNotNull(item);
+        assertNull(item.decoder);
+        assertEquals(1, preloader.getExtractorOnlyCount());
+    }
+
+    @Test
+    public void primedPcmBeyondBudget_leavesItemUnprimedAtStart() throws Exception {
+        preloader.setBudget(2, 10000000, OUTPUT_BUFFER_SIZE / 2);
+        preloader.maybePrepare(items, 1, 0, 1000000);
+
+        LookaheadPreloader.PreparedItem item = preloader.take(items[1]);
+        assertNull(item.decoder);
+        assertNull(item.primedPcm);
+        assertFalse(item.sawInputEOS);
+        assertEquals(0, item.source.getSampleTime());
+    }
+}
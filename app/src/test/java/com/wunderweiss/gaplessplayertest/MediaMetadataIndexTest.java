@@ -0,0 +1,162 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MediaMetadataIndexTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("metadata", ".idx");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void savedEntry_isLoadedAgain() throws Exception {
+        MediaMetadataIndex index = new MediaMetadataIndex(file);
+        index.put("a.m4a", 1000, 42, createEntry());
+        index.save();
+
+        MediaMetadataIndex.Entry entry = new MediaMetadataIndex(file).get("a.m4a", 1000, 42);
+
+        assertNotNull(entry);
+        assertEquals("audio/mp4a-latm", entry.mime);
+        assertEquals(44100, entry.sampleRate);
+        assertEquals(2, entry.channelCount);
+        assertEquals(3000000, entry.durationUs);
+        assertEquals(2112, entry.gaplessInfo.delayFrames);
+        assertEquals(576, entry.gaplessInfo.paddingFrames);
+        assertEquals(-1, entry.gaplessInfo.totalFrames);
+        assertEquals(1, entry.codecSpecificData.length);
+        assertArrayEquals(new byte[]{0x12, 0x10}, entry.codecSpecificData[0]);
+        assertEquals(Integer.valueOf(1024), entry.intKeys.get("max-input-size"));
+        assertArrayEquals(new long[]{0, 1004000, 2008000}, entry.seekTimesUs);
+    }
+
+    @Test
+    public void changedMedia_isInvalidated() throws Exception {
+        MediaMetadataIndex index = new MediaMetadataIndex(file);
+        index.put("a.m4a", 1000, 42, createEntry());
+
+        assertNull(index.get("a.m4a", 1000, 43));
+        assertNull(index.get("a.m4a", 1000, 42));
+        assertEquals(1, index.getInvalidatedCount());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void corruptFile_yieldsEmptyIndex() throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[]{0x47, 0x50, 0x4d, 0x49, 0, 0, 0, 1, 0, 0, 0, 5});
+        output.close();
+
+        MediaMetadataIndex index = new MediaMetadataIndex(file);
+
+        assertNull(index.get("a.m4a", 1000, 42));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void invalidLengths_yieldEmptyIndexAndDeleteFile() throws Exception {
+        MediaMetadataIndex index = new MediaMetadataIndex(file);
+        index.put("a.m4a", 1000, 42, createEntry());
+        index.save();
+        byte[] data = readFile(file);
+        // The length of csd-0, followed by its two bytes.
+        int offset = indexOf(data, new byte[]{0, 0, 0, 2, 0x12, 0x10});
+        assertTrue(offset > 0);
+
+        for (int length : new int[]{-1, Integer.MAX_VALUE}) {
+            data[offset] = (byte) (length >> 24);
+            data[offset + 1] = (byte) (length >> 16);
+            data[offset + 2] = (byte) (length >> 8);
+            data[offset + 3] = (byte) length;
+            FileOutputStream output = new FileOutputStream(file);
+            output.write(data);
+            output.close();
+
+            MediaMetadataIndex corruptIndex = new MediaMetadataIndex(file);
+
+            assertNull(corruptIndex.get("a.m4a", 1000, 42));
+            assertEquals(0, corruptIndex.size());
+            assertFalse(file.exists());
+        }
+    }
+
+    @Test
+    public void resolveSeek_neverLandsBeforePlatformSeek() throws Exception {
+        MediaMetadataIndex.Entry entry = createEntry();
+
+        // A landing between the indexed sync sample and the position is closer already.
+        assertEquals(1500000, entry.resolveSeek(1600000, 1500000));
+        assertEquals(1004000, entry.resolveSeek(1600000, 1004000));
+        // An approximate seek that landed too early or past the position is corrected.
+        assertEquals(1004000, entry.resolveSeek(1600000, 400000));
+        assertEquals(1004000, entry.resolveSeek(1600000, 2100000));
+        assertEquals(0, entry.resolveSeek(500000, -1));
+        for (long landedUs = 0; landedUs <= 2500000; landedUs += 100000) {
+            long resolvedUs = entry.resolveSeek(2500000, landedUs);
+            assertTrue(resolvedUs >= landedUs && resolvedUs <= 2500000);
+        }
+
+        // Without a seek table, the landing is all there is.
+        MediaMetadataIndex.Entry unindexed = entry.withSeekTimes(new long[0]);
+        assertEquals(2100000, unindexed.resolveSeek(1600000, 2100000));
+    }
+
+    @Test
+    public void unchangedIndex_isNotWritten() throws Exception {
+        new MediaMetadataIndex(file).save();
+
+        assertFalse(file.exists());
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            input.readFully(data);
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            boolean found = true;
+            for (int j = 0; j < pattern.length && found; j++) {
+                found = data[i + j] == pattern[j];
+            }
+            if (found) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static MediaMetadataIndex.Entry createEntry() {
+        Map<String, Integer> intKeys = new LinkedHashMap<>();
+        intKeys.put("max-input-size", 1024);
+        return new MediaMetadataIndex.Entry("audio/mp4a-latm", 44100, 2, 3000000, new GaplessInfo(2112, 576, -1),
+                new byte[][]{{0x12, 0x10}}, intKeys, new long[]{0, 1004000, 2008000});
+    }
+}
@@ -0,0 +1,244 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A {@link Decoder} for the JVM that emits the 16-bit PCM of a {@link PcmSampleSource} unchanged, or
+ * converted to another encoding, but surrounded by silent encoder delay and padding frames like a
+ * real decoder would, in output buffers of a fixed size. The delay is only emitted when decoding
+ * starts with the first sample, not after a seek, but output timestamps always include it, like
+ * those of {@code MediaCodec} for MP3 and AAC, see {@link PcmSampleSource}. Reports a format change
+ * before the first output, as {@code MediaCodec} does, and only then its actual encoding.
+ */
+final class PassthroughDecoder implements Decoder {
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Creates decoders adding the same delay and padding to every item.
+     */
+    static final class Factory implements Decoder.Factory {
+
+        private final int delayFrames;
+        private final int paddingFrames;
+        private final int outputBufferFrames;
+        private PcmEncoding outputEncoding = PcmEncoding.PCM_16BIT;
+
+        Factory(int delayFrames, int paddingFrames, int outputBufferFrames) {
+            this.delayFrames = delayFrames;
+            this.paddingFrames = paddingFrames;
+            this.outputBufferFrames = outputBufferFrames;
+        }
+
+        Factory setOutputEncoding(PcmEncoding outputEncoding) {
+            this.outputEncoding = outputEncoding;
+            return this;
+        }
+
+        @Override
+        public Decoder create(TrackFormat format) {
+            return new PassthroughDecoder(format, delayFrames, paddingFrames, outputBufferFrames, outputEncoding);
+        }
+    }
+
+    private final int delayFrames;
+    private final int paddingFrames;
+    private final int outputBufferFrames;
+    private final PcmEncoding outputEncoding;
+    private final ByteBuffer inputBuffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+    private TrackFormat format;
+    private int frameSize;
+    private ByteBuffer outputBuffer;
+    private byte[] pending = new byte[INPUT_BUFFER_SIZE];
+    private int pendingSize;
+    private long outputFrames;
+
+    private boolean formatReported;
+    private boolean sawInput;
+    private boolean inputEOS;
+    private boolean outputEOS;
+    private boolean outputDequeued;
+    private boolean released;
+
+    private PassthroughDecoder(TrackFormat format, int delayFrames, int paddingFrames, int outputBufferFrames,
+                               PcmEncoding outputEncoding) {
+        this.delayFrames = delayFrames;
+        this.paddingFrames = paddingFrames;
+        this.outputBufferFrames = outputBufferFrames;
+        this.outputEncoding = outputEncoding;
+        start(format);
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        checkNotReleased();
+        // Keep a few output buffers worth of PCM at most, like a real decoder with its limited buffers.
+        return inputEOS || pendingSize >= 4 * outputBuffer.capacity() ? INFO_TRY_AGAIN_LATER : 0;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return inputBuffer;
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, boolean endOfStream) {
+        checkNotReleased();
+        if (!sawInput) {
+            sawInput = true;
+            if (presentationTimeUs == 0) {
+                appendSilence(delayFrames);
+            }
+            outputFrames = (presentationTimeUs * format.sampleRate + 500000L) / 1000000L;
+        }
+        ByteBuffer input = inputBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        input.clear();
+        input.limit(size);
+        int samples = size / 2;
+        ensurePendingCapacity(samples * outputEncoding.bytesPerSample);
+        for (int i = 0; i < samples; i++) {
+            appendSample(input.getShort());
+        }
+        if (endOfStream) {
+            inputEOS = true;
+            appendSilence(paddingFrames);
+        }
+    }
+
+    @Override
+    public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+        checkNotReleased();
+        if (!formatReported) {
+            formatReported = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        if (outputDequeued || outputEOS) {
+            return INFO_TRY_AGAIN_LATER;
+        }
+        int size = Math.min(pendingSize, outputBuffer.capacity());
+        if (size < outputBuffer.capacity() && !inputEOS) {
+            return INFO_TRY_AGAIN_LATER;
+        }
+
+        outputBuffer.clear();
+        outputBuffer.put(pending, 0, size);
+        System.arraycopy(pending, size, pending, 0, pendingSize - size);
+        pendingSize -= size;
+
+        info.offset = 0;
+        info.size = size;
+        info.presentationTimeUs = outputFrames * 1000000L / format.sampleRate;
+        info.endOfStream = inputEOS && pendingSize == 0;
+        outputFrames += size / frameSize;
+        outputEOS = info.endOfStream;
+        outputDequeued = true;
+        return 0;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return outputBuffer;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        outputDequeued = false;
+    }
+
+    @Override
+    public int getOutputSampleRate() {
+        return format.sampleRate;
+    }
+
+    @Override
+    public PcmEncoding getOutputEncoding() {
+        return formatReported ? outputEncoding : PcmEncoding.PCM_16BIT;
+    }
+
+    @Override
+    public boolean canFlushFor(TrackFormat format) {
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        checkNotReleased();
+        pendingSize = 0;
+        outputFrames = 0;
+        sawInput = false;
+        inputEOS = false;
+        outputEOS = false;
+        outputDequeued = false;
+    }
+
+    @Override
+    public void reconfigure(TrackFormat format) {
+        checkNotReleased();
+        start(format);
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    private void start(TrackFormat format) {
+        this.format = format;
+        frameSize = outputEncoding.getFrameSize(format.channelCount);
+        outputBuffer = ByteBuffer.allocate(outputBufferFrames * frameSize);
+        formatReported = false;
+        flush();
+    }
+
+    private void appendSilence(int frames) {
+        int size = frames * frameSize;
+        ensurePendingCapacity(size);
+        Arrays.fill(pending, pendingSize, pendingSize + size, (byte) 0);
+        pendingSize += size;
+    }
+
+    private void appendSample(short sample) {
+        int bits;
+        switch (outputEncoding) {
+            case PCM_16BIT:
+                pending[pendingSize++] = (byte) sample;
+                pending[pendingSize++] = (byte) (sample >> 8);
+                return;
+            case PCM_24BIT:
+                bits = sample << 8;
+                pending[pendingSize++] = (byte) bits;
+                pending[pendingSize++] = (byte) (bits >> 8);
+                pending[pendingSize++] = (byte) (bits >> 16);
+                return;
+            case PCM_32BIT:
+                bits = sample << 16;
+                break;
+            default:
+                bits = Float.floatToRawIntBits(sample / 32768f);
+                break;
+        }
+        pending[pendingSize++] = (byte) bits;
+        pending[pendingSize++] = (byte) (bits >> 8);
+        pending[pendingSize++] = (byte) (bits >> 16);
+        pending[pendingSize++] = (byte) (bits >> 24);
+    }
+
+    private void ensurePendingCapacity(int size) {
+        if (pendingSize + size > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + size));
+        }
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Decoder has been released");
+        }
+    }
+}
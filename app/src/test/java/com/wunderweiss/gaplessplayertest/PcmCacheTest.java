@@ -0,0 +1,117 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmCacheTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("pcm", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void committedEntry_isMappedAgain() throws Exception {
+        PcmCache cache = new PcmCache(directory, 1024 * 1024);
+        byte[] pcm = createPcm(100000);
+        write(cache, "a", pcm, true);
+
+        PcmCache.Entry entry = new PcmCache(directory, 1024 * 1024).get("a");
+
+        assertNotNull(entry);
+        assertEquals(44100, entry.sampleRate);
+        assertEquals(2, entry.channelCount);
+        assertEquals(PcmEncoding.PCM_16BIT, entry.encoding);
+        assertEquals(pcm.length / FRAME_SIZE, entry.frameCount);
+        ByteBuffer mapped = entry.getPcm();
+        byte[] read = new byte[mapped.remaining()];
+        mapped.get(read);
+        assertArrayEquals(pcm, read);
+        cache.release();
+    }
+
+    @Test
+    public void abortedEntry_isNotAdded() throws Exception {
+        PcmCache cache = new PcmCache(directory, 1024 * 1024);
+        write(cache, "a", createPcm(1000), false);
+
+        PcmCache.Writer writer = cache.startWriting("b");
+        writer.setFormat(44100, 2, PcmEncoding.PCM_16BIT);
+        writer.write(ByteBuffer.wrap(createPcm(1000)), 1000);
+        writer.setFormat(48000, 2, PcmEncoding.PCM_16BIT);
+        writer.commit();
+        assertTrue(cache.awaitWrites(10000));
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.size());
+        assertEquals(0, directory.listFiles().length);
+        cache.release();
+    }
+
+    @Test
+    public void leastRecentlyUsedEntry_isEvicted() throws Exception {
+        PcmCache cache = new PcmCache(directory, 250000);
+        write(cache, "a", createPcm(100000), true);
+        write(cache, "b", createPcm(100000), true);
+        assertNotNull(cache.get("a"));
+
+        write(cache, "c", createPcm(100000), true);
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(1, cache.getEvictedCount());
+        assertTrue(cache.getTotalBytes() <= 250000);
+        assertNull(cache.startWriting("a"));
+        cache.release();
+    }
+
+    private static void write(PcmCache cache, String key, byte[] pcm, boolean commit) throws Exception {
+        PcmCache.Writer writer = cache.startWriting(key);
+        writer.setFormat(44100, 2, PcmEncoding.PCM_16BIT);
+        ByteBuffer buffer = ByteBuffer.wrap(pcm);
+        // In odd sizes, to cross chunk boundaries anywhere.
+        while (buffer.hasRemaining()) {
+            int size = Math.min(buffer.remaining(), 4 * 1111);
+            writer.write(buffer, size);
+            buffer.position(buffer.position() + size);
+        }
+        if (commit) {
+            writer.commit();
+        } else {
+            writer.abort();
+        }
+        assertTrue(cache.awaitWrites(10000));
+    }
+
+    private static byte[] createPcm(int size) {
+        byte[] pcm = new byte[size];
+        for (int i = 0; i < size; i++) {
+            pcm[i] = (byte) (i * 31 + i / 7);
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,140 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmConverterTest {
+
+    private final CollectingOutput output = new CollectingOutput();
+
+    @Test
+    public void matchingFormat_isPassedThrough() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 44100, 2, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(44100, 2, PcmEncoding.PCM_16BIT, output);
+        ByteBuffer input = toBuffer(new short[]{1, 2, 3, 4});
+        converter.process(input, 8, output);
+
+        assertTrue(converter.isPassthrough());
+        assertSame(input, output.lastBuffer);
+        assertArrayEquals(new short[]{1, 2, 3, 4}, output.toSamples());
+    }
+
+    @Test
+    public void mono_isSpreadToStereo() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 44100, 2, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(44100, 1, PcmEncoding.PCM_16BIT, output);
+        process(converter, new short[]{100, -200, 32767});
+
+        assertArrayEquals(new short[]{100, 100, -200, -200, 32767, 32767}, output.toSamples());
+    }
+
+    @Test
+    public void stereo_isAveragedToMono() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 44100, 1, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(44100, 2, PcmEncoding.PCM_16BIT, output);
+        process(converter, new short[]{100, 300, -32768, -32768});
+
+        assertArrayEquals(new short[]{200, -32768}, output.toSamples());
+    }
+
+    @Test
+    public void surround_isDownmixedToStereo() throws Exception {
+        float[] matrix = PcmConverter.createMixMatrix(6, 2);
+
+        // Left takes front left, center and back left, right the mirrored channels, LFE is dropped.
+        assertTrue(matrix[0] > 0 && matrix[2] > 0 && matrix[4] > 0);
+        assertEquals(0, matrix[1] + matrix[3] + matrix[5], 0);
+        assertTrue(matrix[7] > 0 && matrix[8] > 0 && matrix[11] > 0);
+        assertEquals(0, matrix[6] + matrix[9] + matrix[10], 0);
+        assertEquals(1, matrix[0] + matrix[2] + matrix[4], 0.0001);
+    }
+
+    @Test
+    public void sampleRateChange_drainsPreviousRate() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 48000, 2, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(44100, 2, PcmEncoding.PCM_16BIT, output);
+        process(converter, new short[2 * 44100]);
+        converter.setInputFormat(48000, 2, PcmEncoding.PCM_16BIT, output);
+        process(converter, new short[2 * 48000]);
+
+        assertTrue(converter.isPassthrough());
+        assertEquals(96000, output.frames(), 1);
+    }
+
+    @Test
+    public void highResolution_isRoundedTo16Bit() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 44100, 1, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(44100, 1, PcmEncoding.PCM_24BIT, output);
+        // 0x000180 rounds up to 2, 0x7FFFFF stays at the maximum, 0x800000 is the minimum.
+        byte[] input = {(byte) 0x80, 0x01, 0x00, (byte) 0xFF, (byte) 0xFF, 0x7F, 0x00, 0x00, (byte) 0x80};
+        converter.process(ByteBuffer.wrap(input), input.length, output);
+
+        assertFalse(converter.isPassthrough());
+        assertArrayEquals(new short[]{2, 32767, -32768}, output.toSamples());
+    }
+
+    @Test
+    public void float_isClippedTo16Bit() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 44100, 1, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(44100, 1, PcmEncoding.PCM_FLOAT, output);
+        ByteBuffer input = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        input.asFloatBuffer().put(new float[]{0.5f, 1.5f, -2f});
+        converter.process(input, 12, output);
+
+        assertArrayEquals(new short[]{16384, 32767, -32768}, output.toSamples());
+    }
+
+    @Test
+    public void pcm16_isConvertedToFloat() throws Exception {
+        PcmConverter converter = new PcmConverter(Resampler.Quality.SINC_MEDIUM, 44100, 2, PcmEncoding.PCM_FLOAT);
+        converter.setInputFormat(44100, 1, PcmEncoding.PCM_16BIT, output);
+        process(converter, new short[]{16384, -32768});
+
+        ByteBuffer data = output.collected.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        data.flip();
+        float[] samples = new float[data.remaining() / 4];
+        data.asFloatBuffer().get(samples);
+        assertArrayEquals(new float[]{0.5f, 0.5f, -1f, -1f}, samples, 0);
+    }
+
+    private void process(PcmConverter converter, short[] samples) {
+        converter.process(toBuffer(samples), 2 * samples.length, output);
+    }
+
+    private static ByteBuffer toBuffer(short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(samples);
+        return buffer;
+    }
+
+    private static final class CollectingOutput implements PcmTrimmer.Output {
+
+        private ByteBuffer collected = ByteBuffer.allocate(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer lastBuffer;
+
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            lastBuffer = buffer;
+            ByteBuffer view = buffer.duplicate();
+            view.limit(view.position() + size);
+            collected.put(view);
+            buffer.position(buffer.position() + size);
+        }
+
+        int frames() {
+            return collected.position() / 4;
+        }
+
+        short[] toSamples() {
+            ByteBuffer data = collected.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            data.flip();
+            short[] samples = new short[data.remaining() / 2];
+            data.asShortBuffer().get(samples);
+            return samples;
+        }
+    }
+}
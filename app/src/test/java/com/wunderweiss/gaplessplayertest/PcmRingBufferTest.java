@@ -0,0 +1,137 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void writeAndRead_wrapAround() throws Exception {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(8);
+        byte[] out = new byte[8];
+
+        assertEquals(6, ringBuffer.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertEquals(4, ringBuffer.read(out, 0, 4));
+        assertEquals(6, ringBuffer.write(new byte[]{7, 8, 9, 10, 11, 12, 13}, 0, 7));
+        assertEquals(0, ringBuffer.free());
+        assertEquals(8, ringBuffer.read(out, 0, 8));
+
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, out);
+        assertEquals(0, ringBuffer.available());
+    }
+
+    @Test
+    public void readWithReader_handsOutContiguousRegions() throws Exception {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(8);
+        ringBuffer.write(new byte[6], 0, 6);
+        ringBuffer.read(new byte[6], 0, 6);
+        ringBuffer.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 4);
+
+        final int[] lengths = new int[2];
+        PcmRingBuffer.Reader reader = new PcmRingBuffer.Reader() {
+            int calls;
+
+            @Override
+            public int read(byte[] data, int offset, int length) {
+                lengths[calls++] = length;
+                return length;
+            }
+        };
+
+        assertEquals(2, ringBuffer.read(reader, 100));
+        assertEquals(2, ringBuffer.read(reader, 100));
+        assertEquals(2, lengths[0]);
+        assertEquals(2, lengths[1]);
+    }
+
+    @Test
+    public void awaitSpace_waitsForEnoughRoom() throws Exception {
+        final PcmRingBuffer ringBuffer = new PcmRingBuffer(8);
+        ringBuffer.write(new byte[8], 0, 8);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] out = new byte[2];
+                for (int i = 0; i < 3; i++) {
+                    ringBuffer.read(out, 0, out.length);
+                }
+            }
+        });
+
+        assertFalse(ringBuffer.awaitSpace(6, 1000000));
+        consumer.start();
+
+        assertTrue(ringBuffer.awaitSpace(6, 10000000000L));
+        consumer.join();
+        assertEquals(6, ringBuffer.free());
+    }
+
+    @Test
+    public void producerAndConsumerThreads_transferAllBytesInOrder() throws Exception {
+        final int total = 1 << 20;
+        final PcmRingBuffer ringBuffer = new PcmRingBuffer(4096);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer chunk = ByteBuffer.allocate(1000);
+                int written = 0;
+                while (written < total) {
+                    int size = Math.min(chunk.capacity(), total - written);
+                    chunk.clear();
+                    for (int i = 0; i < size; i++) {
+                        chunk.put((byte) (written + i));
+                    }
+                    chunk.flip();
+                    ringBuffer.writeFully(chunk, size);
+                    written += size;
+                }
+                ringBuffer.setEndOfStream();
+            }
+        });
+        producer.start();
+
+        byte[] out = new byte[777];
+        int read = 0;
+        while (!ringBuffer.isEndOfStream()) {
+            int count = ringBuffer.read(out, 0, out.length);
+            for (int i = 0; i < count; i++) {
+                assertEquals((byte) (read + i), out[i]);
+            }
+            read += count;
+            if (count == 0) {
+                ringBuffer.awaitData(1000000);
+            }
+        }
+        producer.join();
+
+        assertEquals(total, read);
+    }
+
+    @Test
+    public void clear_dropsReadableBytes() throws Exception {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(8);
+        ringBuffer.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+        ringBuffer.read(new byte[2], 0, 2);
+
+        ringBuffer.clear();
+        assertEquals(0, ringBuffer.available());
+        assertEquals(8, ringBuffer.free());
+
+        byte[] out = new byte[3];
+        assertEquals(3, ringBuffer.write(new byte[]{7, 8, 9}, 0, 3));
+        assertEquals(3, ringBuffer.read(out, 0, 3));
+        assertArrayEquals(new byte[]{7, 8, 9}, out);
+    }
+
+    @Test
+    public void close_makesWriteFullyGiveUp() throws Exception {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(4);
+        ringBuffer.close();
+
+        assertFalse(ringBuffer.writeFully(ByteBuffer.allocate(8), 8));
+    }
+}
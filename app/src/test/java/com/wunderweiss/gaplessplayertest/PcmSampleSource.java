@@ -0,0 +1,141 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SampleSource} for the JVM that reads raw 16-bit PCM in fixed size samples, to be "decoded"
+ * by {@link PassthroughDecoder}.
+ * <p>
+ * Sample times are container times, which include the encoder delay of the item's
+ * {@link GaplessInfo} like those of MP3 and AAC files: the first sample at 0 also holds the delay the
+ * decoder adds, so the next one starts at the delay plus the frames of the first.
+ */
+final class PcmSampleSource implements SampleSource {
+
+    static final String MIME = "audio/raw";
+
+    /**
+     * Opens the items added to it by uri.
+     */
+    static final class Factory implements SampleSource.Factory {
+
+        private final int sampleRate;
+        private final int channelCount;
+        private final int sampleFrames;
+        private final Map<String, short[]> items = new HashMap<>();
+        private final Map<String, TrackFormat> formats = new HashMap<>();
+        private long seekOvershootUs;
+
+        /**
+         * @param sampleRate The default sample rate of the items.
+         * @param channelCount The default channel count of the items.
+         * @param sampleFrames The number of frames per sample.
+         */
+        Factory(int sampleRate, int channelCount, int sampleFrames) {
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.sampleFrames = sampleFrames;
+        }
+
+        Factory add(String uri, short[] pcm, GaplessInfo gaplessInfo) {
+            return add(uri, pcm, gaplessInfo, sampleRate, channelCount);
+        }
+
+        Factory add(String uri, short[] pcm, GaplessInfo gaplessInfo, int sampleRate, int channelCount) {
+            // Like a container, the duration includes the delay and padding the decoder adds.
+            long frameCount = pcm.length / channelCount + gaplessInfo.delayFrames + gaplessInfo.paddingFrames;
+            items.put(uri, pcm);
+            formats.put(uri, new TrackFormat(MIME, sampleRate, channelCount,
+                    frameCount * 1000000L / sampleRate, gaplessInfo, null));
+            return this;
+        }
+
+        /**
+         * Makes seeks to positions after 0 land on the sample {@code seekOvershootUs} after the
+         * position instead of the one before it, like the approximate seek in a VBR MP3 file without
+         * a table of contents.
+         */
+        Factory setSeekOvershootUs(long seekOvershootUs) {
+            this.seekOvershootUs = seekOvershootUs;
+            return this;
+        }
+
+        @Override
+        public SampleSource open(String uri) {
+            short[] pcm = items.get(uri);
+            if (pcm == null) {
+                throw new IllegalArgumentException("Unknown uri: " + uri);
+            }
+            return new PcmSampleSource(formats.get(uri), pcm, sampleFrames, seekOvershootUs);
+        }
+    }
+
+    private final TrackFormat format;
+    private final short[] pcm;
+    private final int sampleLength;
+    private final long seekOvershootUs;
+
+    private int position;
+
+    private PcmSampleSource(TrackFormat format, short[] pcm, int sampleFrames, long seekOvershootUs) {
+        this.format = format;
+        this.pcm = pcm;
+        this.sampleLength = sampleFrames * format.channelCount;
+        this.seekOvershootUs = seekOvershootUs;
+    }
+
+    @Override
+    public TrackFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public void prepare() {
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (position >= pcm.length) {
+            return -1;
+        }
+        int length = Math.min(sampleLength, pcm.length - position);
+        ByteBuffer target = buffer.duplicate().order(ByteOrder.nativeOrder());
+        target.clear();
+        target.position(offset);
+        target.asShortBuffer().put(pcm, position, length);
+        return length * 2;
+    }
+
+    @Override
+    public long getSampleTime() {
+        long frame = position / format.channelCount;
+        return frame == 0 ? 0 : (format.gaplessInfo.delayFrames + frame) * 1000000L / format.sampleRate;
+    }
+
+    @Override
+    public boolean advance() {
+        position += sampleLength;
+        return position < pcm.length;
+    }
+
+    @Override
+    public long seekTo(long timeUs) {
+        // Every sample is a sync sample.
+        int sampleFrames = sampleLength / format.channelCount;
+        if (timeUs > 0) {
+            timeUs += seekOvershootUs;
+        }
+        long frame = (timeUs * format.sampleRate + 500000L) / 1000000L - format.gaplessInfo.delayFrames;
+        long sampleIndex = Math.max(0, frame) / sampleFrames;
+        position = (int) Math.min(sampleIndex * sampleLength, pcm.length);
+        return getSampleTime();
+    }
+
+    @Override
+    public void release() {
+        position = pcm.length;
+    }
+}
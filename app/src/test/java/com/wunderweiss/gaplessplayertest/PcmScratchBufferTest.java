@@ -0,0 +1,68 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds {@link PcmScratchBuffer} the way {@link CustomPlayer} does over a playlist.
+ */
+public class PcmScratchBufferTest {
+
+    private static final int BUFFERS_PER_ASSET = 500;
+
+    @Test
+    public void multiAssetRun_allocatesOnlyOnce() throws Exception {
+        PcmScratchBuffer scratchBuffer = new PcmScratchBuffer();
+        ByteBuffer codecBuffer = ByteBuffer.allocateDirect(8192);
+
+        // Three assets, each ending with a shorter buffer, as decoders usually emit them.
+        for (int asset = 0; asset < 3; asset++) {
+            for (int i = 0; i < BUFFERS_PER_ASSET; i++) {
+                int size = i == BUFFERS_PER_ASSET - 1 ? 1234 : 4096;
+                feed(scratchBuffer, codecBuffer, size);
+            }
+        }
+
+        assertEquals(1, scratchBuffer.getAllocationCount());
+    }
+
+    @Test
+    public void multiAssetRun_growsOnlyForLargerBuffers() throws Exception {
+        PcmScratchBuffer scratchBuffer = new PcmScratchBuffer();
+        ByteBuffer codecBuffer = ByteBuffer.allocateDirect(8192);
+
+        int[] assetBufferSizes = new int[]{2048, 4096, 4096, 2048, 8192, 4096};
+        for (int size : assetBufferSizes) {
+            for (int i = 0; i < BUFFERS_PER_ASSET; i++) {
+                feed(scratchBuffer, codecBuffer, size);
+            }
+        }
+
+        // 2048 -> 4096 -> 8192
+        assertEquals(3, scratchBuffer.getAllocationCount());
+    }
+
+    @Test
+    public void copyFrom_copiesFromCurrentPosition() throws Exception {
+        PcmScratchBuffer scratchBuffer = new PcmScratchBuffer(16);
+        ByteBuffer codecBuffer = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4, 5});
+        codecBuffer.position(2);
+
+        byte[] data = scratchBuffer.copyFrom(codecBuffer, 3);
+
+        assertEquals(2, data[0]);
+        assertEquals(3, data[1]);
+        assertEquals(4, data[2]);
+        assertEquals(5, codecBuffer.position());
+        assertEquals(1, scratchBuffer.getAllocationCount());
+    }
+
+    private static void feed(PcmScratchBuffer scratchBuffer, ByteBuffer codecBuffer, int size) {
+        codecBuffer.clear();
+        codecBuffer.limit(size);
+        scratchBuffer.copyFrom(codecBuffer, size);
+    }
+}
@@ -0,0 +1,88 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmTrimmerTest {
+
+    private static final int FRAME_SIZE = 4;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final PcmTrimmer.Output output = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            for (int i = 0; i < size; i++) {
+                out.write(buffer.get());
+            }
+        }
+    };
+
+    @Test
+    public void delayAndPadding_areDroppedAcrossBuffers() throws Exception {
+        PcmTrimmer trimmer = new PcmTrimmer();
+        trimmer.reset(FRAME_SIZE, new GaplessInfo(3, 5, -1));
+
+        // 20 frames in buffers of 4, 8 and 8 frames.
+        trimmer.process(frames(0, 4), output);
+        trimmer.process(frames(4, 8), output);
+        trimmer.process(frames(12, 8), output);
+        trimmer.reset(FRAME_SIZE, GaplessInfo.NONE);
+
+        assertArrayEquals(frames(3, 12).array(), out.toByteArray());
+        assertEquals(3, trimmer.getTrimmedStartFrames());
+        assertEquals(5, trimmer.getTrimmedEndFrames());
+    }
+
+    @Test
+    public void totalFrames_cutsWithoutHoldingBack() throws Exception {
+        PcmTrimmer trimmer = new PcmTrimmer();
+        trimmer.reset(FRAME_SIZE, new GaplessInfo(0, 0, 10));
+
+        trimmer.process(frames(0, 8), output);
+        // Everything kept so far has been output right away.
+        assertEquals(8 * FRAME_SIZE, out.size());
+        trimmer.process(frames(8, 8), output);
+
+        assertArrayEquals(frames(0, 10).array(), out.toByteArray());
+        assertEquals(6, trimmer.getTrimmedEndFrames());
+    }
+
+    @Test
+    public void none_passesEverythingThrough() throws Exception {
+        PcmTrimmer trimmer = new PcmTrimmer();
+        trimmer.reset(FRAME_SIZE, GaplessInfo.NONE);
+
+        ByteBuffer buffer = frames(0, 6);
+        trimmer.process(buffer, output);
+
+        assertArrayEquals(frames(0, 6).array(), out.toByteArray());
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void parseOpusPreSkip() throws Exception {
+        byte[] opusHead = new byte[19];
+        opusHead[10] = 0x38;
+        opusHead[11] = 0x01;
+
+        assertEquals(312, GaplessInfo.parseOpusPreSkip(ByteBuffer.wrap(opusHead)));
+    }
+
+    /**
+     * Frames whose bytes all hold the frame index.
+     */
+    private static ByteBuffer frames(int first, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * FRAME_SIZE);
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < FRAME_SIZE; j++) {
+                buffer.put((byte) (first + i));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
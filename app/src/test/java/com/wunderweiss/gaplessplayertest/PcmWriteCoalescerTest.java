@@ -0,0 +1,71 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PcmWriteCoalescerTest {
+
+    @Test
+    public void smallChunks_areMergedInOrder() throws Exception {
+        PcmWriteCoalescer coalescer = new PcmWriteCoalescer(1000);
+        RecordingOutput output = new RecordingOutput();
+        byte[] pcm = createPcm(3000);
+        ByteBuffer buffer = ByteBuffer.wrap(pcm);
+
+        while (buffer.hasRemaining()) {
+            coalescer.process(buffer, Math.min(buffer.remaining(), 300), output);
+        }
+        coalescer.flush(output);
+
+        assertArrayEquals(new Integer[]{1200, 1200, 600}, output.sizes.toArray());
+        assertArrayEquals(pcm, output.data.toByteArray());
+        assertEquals(2, coalescer.getMergedWriteCount());
+        assertEquals(0, coalescer.getPendingSize());
+    }
+
+    @Test
+    public void largeChunk_isPassedThroughWithoutCopying() throws Exception {
+        PcmWriteCoalescer coalescer = new PcmWriteCoalescer(1000);
+        RecordingOutput output = new RecordingOutput();
+        ByteBuffer buffer = ByteBuffer.wrap(createPcm(4000));
+
+        coalescer.process(buffer, 2000, output);
+        coalescer.process(buffer, 100, output);
+        coalescer.reset();
+        coalescer.process(buffer, 1900, output);
+
+        assertArrayEquals(new Integer[]{2000, 1900}, output.sizes.toArray());
+        assertSame(buffer, output.buffers.get(0));
+        assertEquals(4000, buffer.position());
+        assertEquals(0, coalescer.getMergedWriteCount());
+    }
+
+    private static byte[] createPcm(int size) {
+        byte[] pcm = new byte[size];
+        for (int i = 0; i < size; i++) {
+            pcm[i] = (byte) (i * 31 + i / 7);
+        }
+        return pcm;
+    }
+
+    private static final class RecordingOutput implements PcmTrimmer.Output {
+        final List<Integer> sizes = new ArrayList<>();
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            sizes.add(size);
+            buffers.add(buffer);
+            byte[] bytes = new byte[size];
+            buffer.duplicate().get(bytes);
+            data.write(bytes, 0, size);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackClockTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final long MS = 1000000;
+
+    private SimulatedAudioSink sink;
+    private PlaybackClock clock;
+
+    @Before
+    public void setUp() throws Exception {
+        sink = new SimulatedAudioSink(false /* recording */, 0);
+        sink.configure(SAMPLE_RATE, 2, PcmEncoding.PCM_16BIT);
+        clock = new PlaybackClock(sink);
+        clock.reset(SAMPLE_RATE);
+    }
+
+    @Test
+    public void headPosition_isExtendedPastWraparound() throws Exception {
+        sink.setHeadPosition(0xFFFFF000L);
+        assertEquals(0xFFFFF000L, clock.getPositionFrames(0));
+
+        sink.setHeadPosition(0x100000100L);
+        assertEquals(0x100000100L, clock.getPositionFrames(20 * MS));
+    }
+
+    @Test
+    public void positionBetweenHeadSamples_isInterpolatedWithoutPolling() throws Exception {
+        sink.setHeadPosition(0);
+        clock.getPositionFrames(0);
+        sink.setHeadPosition(4800);
+        assertEquals(4800, clock.getPositionFrames(100 * MS));
+        int headCalls = sink.getHeadPositionCallCount();
+
+        assertEquals(4800 + 48 * 5, clock.getPositionFrames(105 * MS));
+        assertEquals(headCalls, sink.getHeadPositionCallCount());
+    }
+
+    @Test
+    public void stalledHead_isNotExtrapolated() throws Exception {
+        sink.setHeadPosition(1000);
+        clock.getPositionFrames(0);
+
+        assertEquals(1000, clock.getPositionFrames(5 * MS));
+        assertEquals(1000, clock.getPositionFrames(50 * MS));
+    }
+
+    @Test
+    public void timestamp_isPreferredWhilePlaying() throws Exception {
+        sink.setHeadPosition(0);
+        clock.getPositionFrames(0);
+        sink.setHeadPosition(24000);
+        sink.setTimestamp(23500, 490 * MS);
+
+        assertEquals(23500 + 480, clock.getPositionFrames(500 * MS));
+        assertEquals(23500 + 48 * 15, clock.getPositionFrames(505 * MS));
+        assertEquals(2, sink.getTimestampCallCount());
+    }
+
+    @Test
+    public void position_neverGoesBackwards() throws Exception {
+        sink.setHeadPosition(0);
+        clock.getPositionFrames(0);
+        sink.setHeadPosition(960);
+        assertEquals(960, clock.getPositionFrames(20 * MS));
+        assertEquals(960 + 48 * 9, clock.getPositionFrames(29 * MS));
+
+        sink.setHeadPosition(1000);
+        assertEquals(960 + 48 * 9, clock.getPositionFrames(40 * MS));
+    }
+
+    @Test
+    public void position_isMappedToItem() throws Exception {
+        clock.onItemStarted(0, 0);
+        clock.onItemStarted(1, 48000);
+        clock.onItemStarted(2, 96000);
+        sink.setHeadPosition(72000);
+
+        PlaybackClock.Position position = new PlaybackClock.Position();
+        assertTrue(clock.getPosition(0, position));
+        assertEquals(72000, position.framePosition);
+        assertEquals(1, position.itemIndex);
+        assertEquals(500000, position.mediaTimeUs);
+    }
+}
@@ -0,0 +1,545 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link PlaybackLoop} on the JVM, with {@link PcmSampleSource}, {@link PassthroughDecoder}
+ * and {@link SimulatedAudioSink}.
+ */
+public class PlaybackLoopTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int DELAY_FRAMES = 529;
+    private static final int PADDING_FRAMES = 1500;
+    private static final int[] ITEM_FRAMES = new int[]{30000, 1000, 44100};
+
+    private final SineSweep sweep = new SineSweep(SAMPLE_RATE, CHANNEL_COUNT, sum(ITEM_FRAMES), 100, 8000, 0.5);
+    private final String[] uris = new String[ITEM_FRAMES.length];
+    private final PcmSampleSource.Factory sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, CHANNEL_COUNT, 1024);
+    private final SimulatedAudioSink sink = new SimulatedAudioSink(true /* recording */, 4096);
+
+    public PlaybackLoopTest() {
+        long start = 0;
+        for (int i = 0; i < ITEM_FRAMES.length; i++) {
+            uris[i] = "item-" + i;
+            sourceFactory.add(uris[i], sweep.render(start, start + ITEM_FRAMES[i]),
+                    new GaplessInfo(DELAY_FRAMES, PADDING_FRAMES, -1));
+            start += ITEM_FRAMES[i];
+        }
+    }
+
+    @Test
+    public void ringBuffer_playsPlaylistExactly() throws Exception {
+        createLoop().run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+        assertTrue(sink.isReleased());
+    }
+
+    @Test
+    public void inlineWrites_playPlaylistExactly() throws Exception {
+        createLoop().setRingBufferDurationMs(0).run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void polling_playsPlaylistExactly() throws Exception {
+        createLoop().setSchedulingMode(PlaybackLoop.SchedulingMode.POLLING).run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void batched_playsPlaylistExactlyInFewerWrites() throws Exception {
+        PlaybackLoop blockingLoop = new PlaybackLoop(uris, sourceFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152),
+                new SimulatedAudioSink(false /* recording */, 4096)).setRingBufferDurationMs(0);
+        blockingLoop.run();
+        PlaybackLoop batchedLoop = createLoop()
+                .setSchedulingMode(PlaybackLoop.SchedulingMode.BATCHED)
+                .setRingBufferDurationMs(0)
+                .setMinWriteDurationMs(100);
+        batchedLoop.run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+        PipelineMetrics.Snapshot blocking = blockingLoop.getMetrics().snapshot();
+        PipelineMetrics.Snapshot batched = batchedLoop.getMetrics().snapshot();
+        assertTrue(batched.sinkWrite.count < blocking.sinkWrite.count);
+        assertTrue(batched.codecCallCount > 0);
+        // At least 100 ms each, but the last one flushed at the end.
+        assertTrue(batched.sinkWrite.count <= sweep.getFrameCount() / (SAMPLE_RATE / 10) + 1);
+    }
+
+    @Test
+    public void batchedWithRingBuffer_playsPlaylistExactly() throws Exception {
+        createLoop().setSchedulingMode(PlaybackLoop.SchedulingMode.BATCHED).setMinWriteDurationMs(100).run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void powerSaving_playsPlaylistExactly() throws Exception {
+        PlaybackLoop loop = createLoop().setPowerSaving(true, 20);
+        loop.run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+        assertTrue(loop.getMetrics().snapshot().wakeupCount > 0);
+    }
+
+    @Test
+    public void withoutTrimming_playsDelayAndPadding() throws Exception {
+        createLoop().setGaplessTrimmingEnabled(false).run();
+
+        assertEquals(sweep.getFrameCount() + ITEM_FRAMES.length * (DELAY_FRAMES + PADDING_FRAMES),
+                sink.getWrittenFrames());
+    }
+
+    @Test
+    public void decoderReuse_createsOneDecoder() throws Exception {
+        PlaybackLoop loop = createLoop().setLookahead(0, 0, 0, false);
+        loop.run();
+
+        assertEquals(1, loop.getDecoderPool().getCreatedCount());
+        assertEquals(ITEM_FRAMES.length - 1, loop.getDecoderPool().getFlushedCount());
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void withoutDecoderReuse_createsDecoderPerItem() throws Exception {
+        PlaybackLoop loop = createLoop().setLookahead(0, 0, 0, false).setDecoderReuseEnabled(false);
+        loop.run();
+
+        assertEquals(ITEM_FRAMES.length, loop.getDecoderPool().getCreatedCount());
+        assertEquals(0, loop.getDecoderPool().getFlushedCount());
+    }
+
+    @Test
+    public void mixedFormats_areConvertedToFirstItemFormat() throws Exception {
+        PcmSampleSource.Factory mixedFactory = new PcmSampleSource.Factory(SAMPLE_RATE, CHANNEL_COUNT, 1024)
+                .add("stereo-44100", new short[2 * 44100], GaplessInfo.NONE)
+                .add("mono-48000", new short[48000], GaplessInfo.NONE, 48000, 1)
+                .add("stereo-22050", new short[2 * 22050], GaplessInfo.NONE, 22050, 2);
+        new PlaybackLoop(new String[]{"stereo-44100", "mono-48000", "stereo-22050"}, mixedFactory,
+                new PassthroughDecoder.Factory(0, 0, 1152), sink).run();
+
+        assertEquals(3 * SAMPLE_RATE, sink.getWrittenFrames(), 2);
+    }
+
+    @Test
+    public void highResolutionDecoder_playsPlaylistExactlyIn16Bit() throws Exception {
+        new PlaybackLoop(uris, sourceFactory, new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152)
+                .setOutputEncoding(PcmEncoding.PCM_24BIT), sink).run();
+
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void floatOutput_playsPlaylistExactly() throws Exception {
+        new PlaybackLoop(uris, sourceFactory, new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152)
+                .setOutputEncoding(PcmEncoding.PCM_FLOAT), sink)
+                .setOutputEncoding(PcmEncoding.PCM_FLOAT)
+                .run();
+
+        short[] expected = sweep.render(0, sweep.getFrameCount());
+        float[] played = sink.getRecordedFloatSamples();
+        assertEquals(expected.length, played.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] / 32768f, played[i], 0);
+        }
+    }
+
+    @Test
+    public void crossfade_overlapsConsecutiveItems() throws Exception {
+        createLoop().setCrossfade(100, Crossfader.FadeCurve.EQUAL_POWER).run();
+
+        // The 1000 frame item is shorter than the fade and overlaps its predecessor completely, the
+        // last item overlaps the whole fade.
+        assertEquals(sum(ITEM_FRAMES) - 1000 - SAMPLE_RATE / 10, sink.getWrittenFrames());
+    }
+
+    @Test
+    public void seekBeforeRun_startsAtExactFrame() throws Exception {
+        PlaybackLoop loop = createLoop();
+        assertTrue(loop.seekTo(0, 500000));
+        loop.run();
+
+        // Seeks to 22050 + 529 frames in container time, lands on the sync sample at 529 + 21504 and
+        // discards the 546 frames in between.
+        assertArrayEquals(sweep.render(SAMPLE_RATE / 2, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void seekLandingPastTarget_seeksAgainEarlier() throws Exception {
+        sourceFactory.setSeekOvershootUs(200000);
+        PlaybackLoop loop = createLoop();
+        assertTrue(loop.seekTo(0, 500000));
+        loop.run();
+
+        assertArrayEquals(sweep.render(SAMPLE_RATE / 2, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void seekToUnplayedItem_needsTimeline() throws Exception {
+        PlaylistProber prober = new PlaylistProber(uris, sourceFactory, 2);
+        prober.start(null);
+        assertTrue(prober.awaitCompletion(1000));
+        PlaybackLoop loop = createLoop();
+        assertFalse(loop.seekTo(2, 10000));
+
+        loop.setTimeline(prober.getTimeline());
+        assertTrue(loop.seekTo(2, 10000));
+        loop.run();
+
+        int start = ITEM_FRAMES[0] + ITEM_FRAMES[1] + SAMPLE_RATE / 100;
+        assertArrayEquals(sweep.render(start, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void seekToAbsolutePosition_countsTrimmedFrames() throws Exception {
+        PlaylistProber prober = new PlaylistProber(uris, sourceFactory, 2);
+        prober.start(null);
+        assertTrue(prober.awaitCompletion(1000));
+        PlaybackLoop loop = createLoop().setTimeline(prober.getTimeline());
+
+        // Item 2 starts after the trimmed frames of items 0 and 1, not after their container durations.
+        long itemStartUs = ITEM_FRAMES[0] * 1000000L / SAMPLE_RATE + ITEM_FRAMES[1] * 1000000L / SAMPLE_RATE;
+        assertTrue(loop.seekTo(itemStartUs + 10000));
+        loop.run();
+
+        int start = ITEM_FRAMES[0] + ITEM_FRAMES[1] + SAMPLE_RATE / 100;
+        assertArrayEquals(sweep.render(start, sweep.getFrameCount()), sink.getRecordedSamples());
+    }
+
+    @Test
+    public void seekToAbsolutePositionWithoutTimeline_usesPlayedOffsets() throws Exception {
+        final String[] repeatedUris = new String[]{uris[0], uris[1], uris[2], uris[0]};
+        final PlaybackLoop[] loop = new PlaybackLoop[1];
+        // The offset of item 1 is the trimmed length of item 0.
+        final long itemStartUs = ITEM_FRAMES[0] * 1000000L / SAMPLE_RATE;
+        SampleSource.Factory seekingFactory = new SampleSource.Factory() {
+            private int openCount;
+
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (++openCount == repeatedUris.length) {
+                    // Items 0 to 2 were played, so their offsets are known without a timeline.
+                    assertTrue(loop[0].seekTo(itemStartUs + 10000));
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        loop[0] = new PlaybackLoop(repeatedUris, seekingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink)
+                .setRingBufferDurationMs(0)
+                .setLookahead(0, 0, 0, false);
+        loop[0].run();
+
+        long frameCount = sweep.getFrameCount();
+        short[] played = sweep.render(0, frameCount - 4096);
+        short[] afterSeek = sweep.render(ITEM_FRAMES[0] + SAMPLE_RATE / 100, frameCount);
+        short[] repeated = sweep.render(0, ITEM_FRAMES[0]);
+        short[] expected = Arrays.copyOf(played, played.length + afterSeek.length + repeated.length);
+        System.arraycopy(afterSeek, 0, expected, played.length, afterSeek.length);
+        System.arraycopy(repeated, 0, expected, played.length + afterSeek.length, repeated.length);
+        assertArrayEquals(expected, sink.getRecordedSamples());
+    }
+
+    @Test
+    public void seekDuringPlayback_dropsBufferedPcm() throws Exception {
+        final PlaybackLoop[] loop = new PlaybackLoop[1];
+        SampleSource.Factory seekingFactory = new SampleSource.Factory() {
+            private boolean seeked;
+
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (uri.equals(uris[1]) && !seeked) {
+                    // The first item was written completely, its last 4096 frames are still buffered.
+                    seeked = true;
+                    assertTrue(loop[0].seekTo(0, 500000));
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        loop[0] = new PlaybackLoop(uris, seekingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink)
+                .setRingBufferDurationMs(0)
+                .setLookahead(0, 0, 0, false);
+        loop[0].run();
+
+        short[] played = sweep.render(0, ITEM_FRAMES[0] - 4096);
+        short[] afterSeek = sweep.render(SAMPLE_RATE / 2, sweep.getFrameCount());
+        short[] expected = Arrays.copyOf(played, played.length + afterSeek.length);
+        System.arraycopy(afterSeek, 0, expected, played.length, afterSeek.length);
+        assertArrayEquals(expected, sink.getRecordedSamples());
+        assertEquals(1, loop[0].getMetrics().snapshot().seek.count);
+    }
+
+    @Test
+    public void seekDuringPlaybackWithRingBuffer_dropsBufferedPcm() throws Exception {
+        final PlaybackLoop[] loop = new PlaybackLoop[1];
+        SampleSource.Factory seekingFactory = new SampleSource.Factory() {
+            private boolean seeked;
+
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (uri.equals(uris[1]) && !seeked) {
+                    seeked = true;
+                    assertTrue(loop[0].seekTo(0, 500000));
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        loop[0] = new PlaybackLoop(uris, seekingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink)
+                .setLookahead(0, 0, 0, false);
+        loop[0].run();
+
+        // How much of the first item got played before the seek depends on the writer thread.
+        short[] recorded = sink.getRecordedSamples();
+        short[] afterSeek = sweep.render(SAMPLE_RATE / 2, sweep.getFrameCount());
+        int playedLength = recorded.length - afterSeek.length;
+        assertTrue(playedLength >= 0 && playedLength <= ITEM_FRAMES[0] * CHANNEL_COUNT);
+        assertArrayEquals(sweep.render(0, playedLength / CHANNEL_COUNT), Arrays.copyOf(recorded, playedLength));
+        assertArrayEquals(afterSeek, Arrays.copyOfRange(recorded, playedLength, recorded.length));
+        assertEquals(1, loop[0].getMetrics().snapshot().seek.count);
+    }
+
+    @Test
+    public void skipToNext_dropsRestOfItem() throws Exception {
+        final PlaybackLoop[] loop = new PlaybackLoop[1];
+        SampleSource.Factory skippingFactory = new SampleSource.Factory() {
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (uri.equals(uris[1])) {
+                    loop[0].skipToNext();
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        loop[0] = new PlaybackLoop(uris, skippingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink)
+                .setRingBufferDurationMs(0)
+                .setLookahead(0, 0, 0, false);
+        loop[0].run();
+
+        short[] played = sweep.render(0, ITEM_FRAMES[0] - 4096);
+        short[] lastItem = sweep.render(ITEM_FRAMES[0] + ITEM_FRAMES[1], sweep.getFrameCount());
+        short[] expected = Arrays.copyOf(played, played.length + lastItem.length);
+        System.arraycopy(lastItem, 0, expected, played.length, lastItem.length);
+        assertArrayEquals(expected, sink.getRecordedSamples());
+    }
+
+    @Test
+    public void pause_holdsOutputUntilPlay() throws Exception {
+        final PlaybackLoop[] loop = new PlaybackLoop[1];
+        SampleSource.Factory pausingFactory = new SampleSource.Factory() {
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (uri.equals(uris[1])) {
+                    loop[0].pause();
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        loop[0] = new PlaybackLoop(uris, pausingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink)
+                .setLookahead(0, 0, 0, false);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop[0].run();
+            }
+        });
+        thread.start();
+
+        while (sink.getWrittenFrames() == 0 || sink.isPlaying()) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        long pausedFrames = sink.getWrittenFrames();
+        Thread.sleep(50);
+        assertEquals(pausedFrames, sink.getWrittenFrames());
+        assertTrue(thread.isAlive());
+
+        loop[0].play();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertArrayEquals(sweep.render(0, sweep.getFrameCount()), sink.getRecordedSamples());
+        assertEquals(2, loop[0].getMetrics().snapshot().command.count);
+    }
+
+    @Test
+    public void playlistChange_replacesPreparedSuccessor() throws Exception {
+        final Playlist playlist = new Playlist(uris);
+        SampleSource.Factory changingFactory = new SampleSource.Factory() {
+            private boolean changed;
+
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (uri.equals(uris[1]) && !changed) {
+                    // The preloader prepares the successor while the first item is playing.
+                    changed = true;
+                    playlist.remove(1);
+                    playlist.add(uris[0]);
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        new PlaybackLoop(playlist, changingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink).run();
+
+        short[] first = sweep.render(0, ITEM_FRAMES[0]);
+        short[] last = sweep.render(ITEM_FRAMES[0] + ITEM_FRAMES[1], sweep.getFrameCount());
+        short[] expected = Arrays.copyOf(first, 2 * first.length + last.length);
+        System.arraycopy(last, 0, expected, first.length, last.length);
+        System.arraycopy(first, 0, expected, first.length + last.length, first.length);
+        assertArrayEquals(expected, sink.getRecordedSamples());
+    }
+
+    @Test
+    public void pcmCache_replaysPlaylistWithoutDecoding() throws Exception {
+        File directory = createTempDirectory();
+        PcmCache cache = new PcmCache(directory, 10 * 1024 * 1024);
+        try {
+            createLoop().setPcmCache(cache).run();
+            assertTrue(cache.awaitWrites(10000));
+            assertEquals(ITEM_FRAMES.length, cache.size());
+
+            SimulatedAudioSink replaySink = new SimulatedAudioSink(true, 4096);
+            PlaybackLoop loop = new PlaybackLoop(uris, createFailingFactory(),
+                    new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), replaySink)
+                    .setPcmCache(cache);
+            loop.run();
+
+            assertArrayEquals(sweep.render(0, sweep.getFrameCount()), replaySink.getRecordedSamples());
+            assertEquals(0, loop.getDecoderPool().getCreatedCount());
+            assertEquals(ITEM_FRAMES.length, cache.getHitCount());
+        } finally {
+            cache.release();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void pcmCache_seeksToExactFrame() throws Exception {
+        File directory = createTempDirectory();
+        PcmCache cache = new PcmCache(directory, 10 * 1024 * 1024);
+        try {
+            createLoop().setPcmCache(cache).run();
+            assertTrue(cache.awaitWrites(10000));
+
+            SimulatedAudioSink replaySink = new SimulatedAudioSink(true, 4096);
+            PlaybackLoop loop = new PlaybackLoop(uris, createFailingFactory(),
+                    new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), replaySink)
+                    .setPcmCache(cache);
+            assertTrue(loop.seekTo(0, 500000));
+            loop.run();
+
+            // No sync samples to land on, the cached PCM starts right at the position.
+            assertArrayEquals(sweep.render(SAMPLE_RATE / 2, sweep.getFrameCount()), replaySink.getRecordedSamples());
+        } finally {
+            cache.release();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void inlineWrites_reuseArraysAfterFirstRound() throws Exception {
+        assertReusesArraysAfterFirstRound(0);
+    }
+
+    @Test
+    public void ringBuffer_reusesArraysAfterFirstRound() throws Exception {
+        assertReusesArraysAfterFirstRound(PlaybackLoop.DEFAULT_RING_BUFFER_DURATION_MS);
+    }
+
+    @Test
+    public void cancel_stopsBeforeFirstItem() throws Exception {
+        PlaybackLoop loop = createLoop();
+        loop.cancel();
+        loop.run();
+
+        assertEquals(0, sink.getWrittenFrames());
+        assertTrue(sink.isReleased());
+    }
+
+    private PlaybackLoop createLoop() {
+        return new PlaybackLoop(uris, sourceFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink);
+    }
+
+    /**
+     * Plays the playlist several times over and checks that the sink is written from the same arrays
+     * in later rounds as in the first one, so the loop doesn't allocate per buffer.
+     */
+    private void assertReusesArraysAfterFirstRound(int ringBufferDurationMs) throws Exception {
+        final int rounds = 10;
+        String[] repeatedUris = new String[rounds * uris.length];
+        for (int i = 0; i < repeatedUris.length; i++) {
+            repeatedUris[i] = uris[i % uris.length];
+        }
+        final int[] arraysAfterFirstRound = new int[]{-1};
+        SampleSource.Factory countingFactory = new SampleSource.Factory() {
+            private int openCount;
+
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                if (++openCount == uris.length + 1) {
+                    arraysAfterFirstRound[0] = sink.getInputArrayCount();
+                }
+                return sourceFactory.open(uri);
+            }
+        };
+        new PlaybackLoop(repeatedUris, countingFactory,
+                new PassthroughDecoder.Factory(DELAY_FRAMES, PADDING_FRAMES, 1152), sink)
+                .setRingBufferDurationMs(ringBufferDurationMs)
+                .setLookahead(0, 0, 0, false)
+                .run();
+
+        assertTrue(arraysAfterFirstRound[0] > 0);
+        assertEquals(arraysAfterFirstRound[0], sink.getInputArrayCount());
+        assertTrue(sink.getWriteCount() > rounds * sink.getInputArrayCount());
+    }
+
+    private static SampleSource.Factory createFailingFactory() {
+        return new SampleSource.Factory() {
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                throw new IOException("Not cached: " + uri);
+            }
+        };
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("pcm", "");
+        directory.delete();
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,163 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PlaylistProberTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void allItems_areResolvedIntoTimeline() throws Exception {
+        PcmSampleSource.Factory sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, 1, 1024);
+        String[] uris = new String[20];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "item-" + i;
+            sourceFactory.add(uris[i], new short[SAMPLE_RATE * (i + 1) / 10], GaplessInfo.NONE);
+        }
+        final AtomicInteger resolvedCount = new AtomicInteger();
+        final AtomicInteger completeCount = new AtomicInteger();
+        PlaylistProber prober = new PlaylistProber(uris, sourceFactory, 4);
+        prober.start(new PlaylistProber.Listener() {
+            @Override
+            public void onItemResolved(PlaylistTimeline timeline, String uri) {
+                resolvedCount.incrementAndGet();
+            }
+
+            @Override
+            public void onComplete(PlaylistTimeline timeline) {
+                completeCount.incrementAndGet();
+            }
+        });
+
+        assertTrue(prober.awaitCompletion(10000));
+        PlaylistTimeline timeline = prober.getTimeline();
+        assertEquals(20, resolvedCount.get());
+        assertEquals(1, completeCount.get());
+        assertEquals(1000000, timeline.getFormat(9).durationUs);
+        // 100 ms, 200 ms, ... 2 s.
+        assertEquals(1500000, timeline.getStartOffsetUs(5));
+        assertEquals(21000000, timeline.getTotalDurationUs());
+    }
+
+    @Test
+    public void failedItem_countsAsEmpty() throws Exception {
+        PcmSampleSource.Factory sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, 1, 1024)
+                .add("a", new short[SAMPLE_RATE], GaplessInfo.NONE)
+                .add("c", new short[SAMPLE_RATE], GaplessInfo.NONE);
+        PlaylistProber prober = new PlaylistProber(new String[]{"a", "b", "c"}, sourceFactory, 2);
+        prober.start(null);
+
+        assertTrue(prober.awaitCompletion(10000));
+        PlaylistTimeline timeline = prober.getTimeline();
+        assertNull(timeline.getFormat(1));
+        assertNotNull(timeline.getError(1));
+        assertEquals(1000000, timeline.getStartOffsetUs(2));
+        assertEquals(2000000, timeline.getTotalDurationUs());
+    }
+
+    @Test
+    public void concurrency_isBounded() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final PcmSampleSource.Factory items = new PcmSampleSource.Factory(SAMPLE_RATE, 1, 1024)
+                .add("item", new short[SAMPLE_RATE], GaplessInfo.NONE);
+        SampleSource.Factory slowFactory = new SampleSource.Factory() {
+            @Override
+            public SampleSource open(String uri) throws IOException {
+                int count = active.incrementAndGet();
+                while (true) {
+                    int max = maxActive.get();
+                    if (count <= max || maxActive.compareAndSet(max, count)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return items.open("item");
+            }
+        };
+        String[] uris = new String[32];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "item";
+        }
+        PlaylistProber prober = new PlaylistProber(uris, slowFactory, 3);
+        prober.start(null);
+
+        assertTrue(prober.awaitCompletion(10000));
+        assertTrue(maxActive.get() <= 3);
+    }
+
+    @Test
+    public void addedItem_isProbed() throws Exception {
+        PcmSampleSource.Factory sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, 1, 1024)
+                .add("a", new short[SAMPLE_RATE], GaplessInfo.NONE)
+                .add("b", new short[SAMPLE_RATE / 2], GaplessInfo.NONE);
+        Playlist playlist = new Playlist(new String[]{"a"});
+        final AtomicInteger completeCount = new AtomicInteger();
+        PlaylistProber prober = new PlaylistProber(playlist, sourceFactory, 2);
+        prober.start(new PlaylistProber.Listener() {
+            @Override
+            public void onItemResolved(PlaylistTimeline timeline, String uri) {
+            }
+
+            @Override
+            public void onComplete(PlaylistTimeline timeline) {
+                completeCount.incrementAndGet();
+            }
+        });
+        assertTrue(prober.awaitCompletion(10000));
+
+        playlist.add(0, "b");
+        assertTrue(prober.awaitCompletion(10000));
+        PlaylistTimeline timeline = prober.getTimeline();
+        assertEquals(500000, timeline.getStartOffsetUs(1));
+        assertEquals(1500000, timeline.getTotalDurationUs());
+        assertEquals(2, completeCount.get());
+    }
+
+    @Test
+    public void unresolvedItem_hidesLaterOffsets() throws Exception {
+        PlaylistTimeline timeline = new PlaylistTimeline(new Playlist(new String[]{"a", "b", "c"}));
+        timeline.setFormat("a", new TrackFormat("audio/raw", SAMPLE_RATE, 1, 1000, GaplessInfo.NONE, null));
+        timeline.setFormat("c", new TrackFormat("audio/raw", SAMPLE_RATE, 1, 3000, GaplessInfo.NONE, null));
+
+        assertEquals(1000, timeline.getStartOffsetUs(1));
+        assertEquals(-1, timeline.getStartOffsetUs(2));
+        assertEquals(-1, timeline.getTotalDurationUs());
+
+        timeline.setFormat("b", new TrackFormat("audio/raw", SAMPLE_RATE, 1, 2000, GaplessInfo.NONE, null));
+        assertEquals(3000, timeline.getStartOffsetUs(2));
+        assertEquals(6000, timeline.getTotalDurationUs());
+
+        timeline.getPlaylist().move(2, 0);
+        assertEquals(4000, timeline.getStartOffsetUs(2));
+    }
+
+    @Test
+    public void startOffsets_excludeDelayAndPadding() throws Exception {
+        PlaylistTimeline timeline = new PlaylistTimeline(new Playlist(new String[]{"a", "b", "c"}));
+        // 480 frames of delay and 960 of padding are 30 ms at 48 kHz.
+        timeline.setFormat("a", new TrackFormat("audio/raw", SAMPLE_RATE, 1, 1030000,
+                new GaplessInfo(480, 960, -1), null));
+        timeline.setFormat("b", new TrackFormat("audio/raw", SAMPLE_RATE, 1, 530000,
+                new GaplessInfo(480, 960, SAMPLE_RATE / 4), null));
+        timeline.setFormat("c", new TrackFormat("audio/raw", SAMPLE_RATE, 1, 1000, GaplessInfo.NONE, null));
+
+        assertEquals(1000000, timeline.getStartOffsetUs(1));
+        assertEquals(1250000, timeline.getStartOffsetUs(2));
+        assertEquals(1251000, timeline.getTotalDurationUs());
+
+        timeline.setGaplessTrimmingEnabled(false);
+        assertEquals(1560000, timeline.getStartOffsetUs(2));
+    }
+}
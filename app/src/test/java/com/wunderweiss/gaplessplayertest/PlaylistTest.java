@@ -0,0 +1,67 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PlaylistTest {
+
+    @Test
+    public void changes_publishNewSnapshots() {
+        Playlist playlist = new Playlist(new String[]{"a", "b"});
+        Playlist.Item[] before = playlist.getItems();
+
+        Playlist.Item c = playlist.add("c");
+        Playlist.Item d = playlist.add(0, "d");
+        Playlist.Item a = playlist.remove(1);
+
+        assertEquals(2, before.length);
+        assertSame(before[0], a);
+        assertArrayEquals(new Playlist.Item[]{d, before[1], c}, playlist.getItems());
+    }
+
+    @Test
+    public void move_keepsItemIdentity() {
+        Playlist playlist = new Playlist(new String[]{"a", "b", "c", "d"});
+        Playlist.Item[] items = playlist.getItems();
+
+        playlist.move(0, 2);
+        assertArrayEquals(new Playlist.Item[]{items[1], items[2], items[0], items[3]}, playlist.getItems());
+        playlist.move(3, 1);
+        assertArrayEquals(new Playlist.Item[]{items[1], items[3], items[2], items[0]}, playlist.getItems());
+        assertEquals(3, Playlist.indexOf(playlist.getItems(), items[0]));
+    }
+
+    @Test
+    public void sameUri_makesDistinctItems() {
+        Playlist playlist = new Playlist(new String[]{"a"});
+        Playlist.Item second = playlist.add("a");
+
+        assertNotSame(playlist.get(0), second);
+        assertNotEquals(playlist.get(0).id, second.id);
+    }
+
+    @Test
+    public void listener_isNotifiedAfterChange() {
+        final Playlist playlist = new Playlist(new String[0]);
+        final AtomicInteger sizes = new AtomicInteger();
+        playlist.addListener(new Playlist.Listener() {
+            @Override
+            public void onPlaylistChanged(Playlist changed) {
+                sizes.addAndGet(changed.size());
+            }
+        });
+
+        playlist.add("a");
+        playlist.add("b");
+        playlist.remove(0);
+        assertEquals(1 + 2 + 1, sizes.get());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void add_rejectsIndexBeyondEnd() {
+        new Playlist(new String[]{"a"}).add(2, "b");
+    }
+}
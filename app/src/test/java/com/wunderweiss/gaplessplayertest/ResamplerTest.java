@@ -0,0 +1,108 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResamplerTest {
+
+    private static final int INPUT_RATE = 44100;
+    private static final int OUTPUT_RATE = 48000;
+    private static final int FRAMES = 44100;
+
+    @Test
+    public void linear_convertsSine() throws Exception {
+        assertSineConverted(Resampler.Quality.LINEAR, 0.005);
+    }
+
+    @Test
+    public void sincMedium_convertsSine() throws Exception {
+        assertSineConverted(Resampler.Quality.SINC_MEDIUM, 0.001);
+    }
+
+    @Test
+    public void sincHigh_convertsSine() throws Exception {
+        assertSineConverted(Resampler.Quality.SINC_HIGH, 0.0002);
+    }
+
+    @Test
+    public void downsampling_convertsSine() throws Exception {
+        Resampler resampler = new Resampler(Resampler.Quality.SINC_MEDIUM, 1);
+        resampler.setRates(OUTPUT_RATE, INPUT_RATE);
+        float[] output = convert(resampler, sine(1000, OUTPUT_RATE, FRAMES), 1, 4096);
+
+        assertEquals((long) FRAMES * INPUT_RATE / OUTPUT_RATE, output.length, 1);
+        assertTrue(maxError(output, 1000, INPUT_RATE) < 0.001);
+    }
+
+    @Test
+    public void chunkedInput_matchesSingleChunk() throws Exception {
+        float[] mono = sine(5000, INPUT_RATE, FRAMES);
+        float[] input = new float[2 * FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            input[2 * i] = mono[i];
+            input[2 * i + 1] = -mono[i];
+        }
+        Resampler resampler = new Resampler(Resampler.Quality.SINC_MEDIUM, 2);
+        resampler.setRates(INPUT_RATE, OUTPUT_RATE);
+
+        float[] expected = convert(resampler, input, 2, FRAMES);
+        float[] actual = convert(resampler, input, 2, 777);
+
+        assertArrayEquals(expected, actual, 0f);
+    }
+
+    private static void assertSineConverted(Resampler.Quality quality, double maxError) {
+        Resampler resampler = new Resampler(quality, 1);
+        resampler.setRates(INPUT_RATE, OUTPUT_RATE);
+        float[] output = convert(resampler, sine(1000, INPUT_RATE, FRAMES), 1, 4096);
+
+        assertEquals((long) FRAMES * OUTPUT_RATE / INPUT_RATE, output.length, 1);
+        double error = maxError(output, 1000, OUTPUT_RATE);
+        assertTrue(quality + " error: " + error, error < maxError);
+    }
+
+    /**
+     * Converts all of {@code input} in chunks, including the drained tail.
+     */
+    private static float[] convert(Resampler resampler, float[] input, int channelCount, int chunkFrames) {
+        int inputFrames = input.length / channelCount;
+        float[] result = new float[channelCount * resampler.getMaxOutputFrames(inputFrames)];
+        float[] chunk = new float[channelCount * chunkFrames];
+        float[] output = new float[channelCount * resampler.getMaxOutputFrames(chunkFrames)];
+        int outputFrames = 0;
+        for (int frame = 0; frame < inputFrames; frame += chunkFrames) {
+            int frames = Math.min(chunkFrames, inputFrames - frame);
+            System.arraycopy(input, channelCount * frame, chunk, 0, channelCount * frames);
+            int converted = resampler.process(chunk, frames, output);
+            System.arraycopy(output, 0, result, channelCount * outputFrames, channelCount * converted);
+            outputFrames += converted;
+        }
+        int drained = resampler.drain(output);
+        System.arraycopy(output, 0, result, channelCount * outputFrames, channelCount * drained);
+        outputFrames += drained;
+        float[] trimmed = new float[channelCount * outputFrames];
+        System.arraycopy(result, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    private static float[] sine(double frequency, int sampleRate, int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) Math.sin(2 * Math.PI * frequency * i / sampleRate);
+        }
+        return samples;
+    }
+
+    /**
+     * @return The maximum deviation from the ideal sine, away from the edges the filter sees silence at.
+     */
+    private static double maxError(float[] output, double frequency, int sampleRate) {
+        double maxError = 0;
+        for (int i = 100; i < output.length - 100; i++) {
+            double expected = Math.sin(2 * Math.PI * frequency * i / sampleRate);
+            maxError = Math.max(maxError, Math.abs(output[i] - expected));
+        }
+        return maxError;
+    }
+}
@@ -0,0 +1,224 @@
+package com.wunderweiss.gaplessplayertest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * An {@link AudioSink} for the JVM that accepts writes immediately and optionally records them. Its
+ * playback head trails the written frames by the simulated buffer size.
+ */
+final class SimulatedAudioSink implements AudioSink {
+
+    private final boolean recording;
+    private final int bufferFrames;
+    private final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+    private final Set<Object> inputArrays =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+    private volatile int writeCount;
+
+    private int sampleRate;
+    private int frameSize;
+    private volatile long writtenFrames;
+    private volatile boolean playing;
+    private boolean released;
+
+    private long headPositionOverride = -1;
+    private boolean timestampAvailable;
+    private long timestampFramePosition;
+    private long timestampNanoTime;
+    private int headPositionCallCount;
+    private int timestampCallCount;
+
+    /**
+     * @param recording Whether to keep everything written, see {@link #getRecordedSamples()}.
+     * @param bufferFrames The simulated buffer size, in frames.
+     */
+    SimulatedAudioSink(boolean recording, int bufferFrames) {
+        this.recording = recording;
+        this.bufferFrames = bufferFrames;
+    }
+
+    /**
+     * Supports the same encodings as an {@link android.media.AudioTrack} on API 21+.
+     */
+    @Override
+    public boolean isEncodingSupported(PcmEncoding encoding) {
+        return encoding == PcmEncoding.PCM_16BIT || encoding == PcmEncoding.PCM_FLOAT;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount, PcmEncoding encoding) {
+        if (frameSize != 0) {
+            throw new IllegalStateException("Already configured");
+        }
+        this.sampleRate = sampleRate;
+        this.frameSize = encoding.getFrameSize(channelCount);
+    }
+
+    @Override
+    public void play() {
+        playing = true;
+    }
+
+    @Override
+    public void pause() {
+        playing = false;
+    }
+
+    /**
+     * Drops the frames within the simulated buffer, also from the recording.
+     */
+    @Override
+    public void flush() {
+        long unplayedFrames = Math.min(writtenFrames, bufferFrames);
+        if (recording) {
+            byte[] data = recorded.toByteArray();
+            recorded.reset();
+            recorded.write(data, 0, data.length - (int) unplayedFrames * frameSize);
+        }
+        writtenFrames = 0;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, int size) {
+        addInputArray(buffer.hasArray() ? buffer.array() : buffer);
+        if (recording) {
+            byte[] data = new byte[size];
+            buffer.get(data);
+            recorded.write(data, 0, size);
+        } else {
+            buffer.position(buffer.position() + size);
+        }
+        writtenFrames += size / frameSize;
+        return size;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int size) {
+        addInputArray(data);
+        if (recording) {
+            recorded.write(data, offset, size);
+        }
+        writtenFrames += size / frameSize;
+        return size;
+    }
+
+    /**
+     * Accepts everything, like {@link #write(byte[], int, int)}.
+     */
+    @Override
+    public int writeNonBlocking(byte[] data, int offset, int size) {
+        return write(data, offset, size);
+    }
+
+    @Override
+    public long getPlaybackHeadPosition() {
+        headPositionCallCount++;
+        long position = headPositionOverride >= 0 ? headPositionOverride : Math.max(0, writtenFrames - bufferFrames);
+        return position & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public boolean getTimestamp(Timestamp timestamp) {
+        timestampCallCount++;
+        if (!timestampAvailable) {
+            return false;
+        }
+        timestamp.framePosition = timestampFramePosition;
+        timestamp.nanoTime = timestampNanoTime;
+        return true;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getUnderrunCount() {
+        return -1;
+    }
+
+    @Override
+    public void onWriterThreadStarted() {
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        playing = false;
+    }
+
+    boolean isPlaying() {
+        return playing;
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Makes the sink report {@code position} as its playback head instead of the simulated one.
+     */
+    void setHeadPosition(long position) {
+        headPositionOverride = position;
+    }
+
+    void setTimestamp(long framePosition, long nanoTime) {
+        timestampAvailable = true;
+        timestampFramePosition = framePosition;
+        timestampNanoTime = nanoTime;
+    }
+
+    int getHeadPositionCallCount() {
+        return headPositionCallCount;
+    }
+
+    int getTimestampCallCount() {
+        return timestampCallCount;
+    }
+
+    long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return How many distinct arrays, or buffers without an array, were written from so far.
+     */
+    int getInputArrayCount() {
+        return inputArrays.size();
+    }
+
+    private void addInputArray(Object array) {
+        inputArrays.add(array);
+        writeCount++;
+    }
+
+    /**
+     * @return Everything written so far. Only call this after the writing thread has finished.
+     */
+    short[] getRecordedSamples() {
+        ByteBuffer buffer = ByteBuffer.wrap(recorded.toByteArray()).order(ByteOrder.nativeOrder());
+        short[] samples = new short[buffer.remaining() / 2];
+        buffer.asShortBuffer().get(samples);
+        return samples;
+    }
+
+    /**
+     * Like {@link #getRecordedSamples()}, for a sink configured with {@link PcmEncoding#PCM_FLOAT}.
+     */
+    float[] getRecordedFloatSamples() {
+        ByteBuffer buffer = ByteBuffer.wrap(recorded.toByteArray()).order(ByteOrder.nativeOrder());
+        float[] samples = new float[buffer.remaining() / 4];
+        buffer.asFloatBuffer().get(samples);
+        return samples;
+    }
+}
@@ -0,0 +1,57 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * A continuous linear sine sweep, used as the reference signal for {@link GapAnalyzer}. Splitting it
+ * at arbitrary frames and playing the parts back to back must reproduce it exactly.
+ */
+final class SineSweep implements GapAnalyzer.Reference {
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final long frameCount;
+    private final double startHz;
+    private final double endHz;
+    private final double amplitude;
+
+    SineSweep(int sampleRate, int channelCount, long frameCount, double startHz, double endHz, double amplitude) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.frameCount = frameCount;
+        this.startHz = startHz;
+        this.endHz = endHz;
+        this.amplitude = amplitude;
+    }
+
+    long getFrameCount() {
+        return frameCount;
+    }
+
+    int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public short sample(long frame, int channel) {
+        if (frame < 0 || frame >= frameCount) {
+            return 0;
+        }
+        double t = (double) frame / sampleRate;
+        double duration = (double) frameCount / sampleRate;
+        double phase = 2 * Math.PI * (startHz * t + (endHz - startHz) * t * t / (2 * duration));
+        // Offset the channels by a quarter period, so that they are not identical.
+        return (short) Math.round(amplitude * Short.MAX_VALUE * Math.sin(phase + channel * Math.PI / 2));
+    }
+
+    /**
+     * Renders interleaved frames {@code [from, to)}.
+     */
+    short[] render(long from, long to) {
+        short[] samples = new short[(int) (to - from) * channelCount];
+        for (long frame = from; frame < to; frame++) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                samples[(int) (frame - from) * channelCount + channel] = sample(frame, channel);
+            }
+        }
+        return samples;
+    }
+}
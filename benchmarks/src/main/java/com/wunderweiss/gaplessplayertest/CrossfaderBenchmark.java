@@ -0,0 +1,66 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the gain stage of the {@link Crossfader} per buffer of 1024 stereo frames. Items are as
+ * long as the fade, so that every buffer is mixed with the tail of the previous item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrossfaderBenchmark {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BUFFER_FRAMES = 1024;
+    private static final int BUFFERS_PER_ITEM = 2 * SAMPLE_RATE / BUFFER_FRAMES;
+
+    private static final PcmTrimmer.Output DISCARDING_OUTPUT = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            buffer.position(buffer.position() + size);
+        }
+    };
+
+    @Param({"PCM_16BIT", "PCM_FLOAT"})
+    public PcmEncoding encoding;
+
+    @Param
+    public Crossfader.FadeCurve curve;
+
+    private Crossfader crossfader;
+    private ByteBuffer input;
+    private int bufferCount;
+
+    @Setup
+    public void setUp() {
+        crossfader = new Crossfader(CHANNEL_COUNT, encoding, BUFFERS_PER_ITEM * BUFFER_FRAMES, curve);
+        input = PcmConverterBenchmark.createNoise(BUFFER_FRAMES * CHANNEL_COUNT, encoding);
+    }
+
+    @Benchmark
+    public void process() {
+        if (++bufferCount % BUFFERS_PER_ITEM == 0) {
+            crossfader.startNextItem(DISCARDING_OUTPUT);
+        }
+        input.rewind();
+        crossfader.process(input, input.capacity(), DISCARDING_OUTPUT);
+    }
+}
@@ -0,0 +1,66 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a per-buffer log call of the decode loop costs in the ways {@link L} can be set up:
+ * dropped below the minimum priority, recorded into the hot path ring, or formatted right away. The
+ * message is handed to a {@code android.util.Log} that drops it, so printing isn't included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+    private static final String TAG = LogBenchmark.class.getSimpleName();
+
+    public enum LogMode {
+        DROPPED, HOT_PATH, FORMATTED
+    }
+
+    @Param
+    public LogMode mode;
+
+    private long presentationTimeUs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        L.setMinPriority(mode == LogMode.DROPPED ? L.INFO : L.VERBOSE);
+        L.setHotPathMode(mode == LogMode.HOT_PATH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        L.setHotPathMode(false);
+    }
+
+    @Benchmark
+    public void longArguments() {
+        presentationTimeUs += 26122;
+        L.d(TAG, "got frame, size %d/%d (absoluteDecodedPositionUs: %d, track pos: %d)",
+                4608, presentationTimeUs, presentationTimeUs, presentationTimeUs - 500000);
+    }
+
+    @Benchmark
+    public void objectArguments() {
+        presentationTimeUs += 26122;
+        L.d(TAG, "Source - asset: %s (prepared: %s)", TAG, presentationTimeUs > 0);
+    }
+}
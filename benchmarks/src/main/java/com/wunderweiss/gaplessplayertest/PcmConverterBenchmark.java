@@ -0,0 +1,77 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting one decoder output buffer of 1152 stereo frames to the 48 kHz stereo 16-bit
+ * output format with the {@link PcmConverter}, which resamples with the {@link Resampler} if the
+ * rates differ.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmConverterBenchmark {
+
+    private static final int BUFFER_FRAMES = 1152;
+    private static final int CHANNEL_COUNT = 2;
+
+    private static final PcmTrimmer.Output DISCARDING_OUTPUT = new PcmTrimmer.Output() {
+        @Override
+        public void output(ByteBuffer buffer, int size) {
+            buffer.position(buffer.position() + size);
+        }
+    };
+
+    @Param({"44100", "48000"})
+    public int inputSampleRate;
+
+    @Param({"PCM_16BIT", "PCM_FLOAT"})
+    public PcmEncoding inputEncoding;
+
+    @Param({"LINEAR", "SINC_MEDIUM", "SINC_HIGH"})
+    public Resampler.Quality quality;
+
+    private PcmConverter converter;
+    private ByteBuffer input;
+
+    @Setup
+    public void setUp() {
+        converter = new PcmConverter(quality, 48000, CHANNEL_COUNT, PcmEncoding.PCM_16BIT);
+        converter.setInputFormat(inputSampleRate, CHANNEL_COUNT, inputEncoding, DISCARDING_OUTPUT);
+        input = createNoise(BUFFER_FRAMES * CHANNEL_COUNT, inputEncoding);
+    }
+
+    @Benchmark
+    public void process() {
+        input.rewind();
+        converter.process(input, input.capacity(), DISCARDING_OUTPUT);
+    }
+
+    static ByteBuffer createNoise(int samples, PcmEncoding encoding) {
+        float[] noise = new float[samples];
+        Random random = new Random(0);
+        for (int i = 0; i < samples; i++) {
+            noise[i] = random.nextFloat() - 0.5f;
+        }
+        byte[] data = new byte[samples * encoding.bytesPerSample];
+        PcmConverter.encode(noise, data, samples, encoding);
+        return ByteBuffer.wrap(data);
+    }
+}
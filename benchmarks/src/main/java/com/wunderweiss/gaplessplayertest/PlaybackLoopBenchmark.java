@@ -0,0 +1,77 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the whole per-buffer work of the {@link PlaybackLoop} by playing a playlist of three
+ * 10 second items through it, with the JVM stand-ins {@link PcmSampleSource},
+ * {@link PassthroughDecoder} and {@link SimulatedAudioSink}, which cost next to nothing themselves.
+ * Dividing the time per playlist by 30 seconds gives the CPU share playback takes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaybackLoopBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int ITEM_COUNT = 3;
+
+    /**
+     * The depth of the ring buffer in milliseconds, 0 writes to the sink on the decode thread.
+     */
+    @Param({"0", "500"})
+    public int ringBufferDurationMs;
+
+    @Param({"0", "2000"})
+    public int crossfadeDurationMs;
+
+    @Param({"BLOCKING", "BATCHED"})
+    public PlaybackLoop.SchedulingMode schedulingMode;
+
+    @Param({"0", "20"})
+    public int minWriteDurationMs;
+
+    private final String[] uris = new String[ITEM_COUNT];
+    private PcmSampleSource.Factory sourceFactory;
+    private PassthroughDecoder.Factory decoderFactory;
+
+    @Setup
+    public void setUp() {
+        sourceFactory = new PcmSampleSource.Factory(SAMPLE_RATE, CHANNEL_COUNT, 1024);
+        SineSweep sweep = new SineSweep(SAMPLE_RATE, CHANNEL_COUNT, ITEM_COUNT * 10 * SAMPLE_RATE, 100, 8000, 0.5);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            uris[i] = "item-" + i;
+            sourceFactory.add(uris[i], sweep.render(i * 10 * SAMPLE_RATE, (i + 1) * 10 * SAMPLE_RATE),
+                    new GaplessInfo(529, 1500, -1));
+        }
+        decoderFactory = new PassthroughDecoder.Factory(529, 1500, 1152);
+    }
+
+    @Benchmark
+    public long playPlaylist() {
+        SimulatedAudioSink sink = new SimulatedAudioSink(false, 4096);
+        new PlaybackLoop(uris, sourceFactory, decoderFactory, sink)
+                .setRingBufferDurationMs(ringBufferDurationMs)
+                .setCrossfade(crossfadeDurationMs, Crossfader.FadeCurve.EQUAL_POWER)
+                .setSchedulingMode(schedulingMode)
+                .setMinWriteDurationMs(minWriteDurationMs)
+                .run();
+        return sink.getWrittenFrames();
+    }
+}
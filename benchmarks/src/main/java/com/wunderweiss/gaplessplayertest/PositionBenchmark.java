@@ -0,0 +1,66 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the position arithmetic done per buffer: the {@link PlaybackClock} queries behind
+ * {@code PlaybackLoop.getPlaybackPositionUs()}, which only poll the sink every few milliseconds, and
+ * the duration to frame conversions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private final PlaybackClock.Position position = new PlaybackClock.Position();
+    private PlaybackClock clock;
+    private long durationUs;
+
+    @Setup
+    public void setUp() {
+        SimulatedAudioSink sink = new SimulatedAudioSink(false, 4096);
+        sink.configure(SAMPLE_RATE, 2, PcmEncoding.PCM_16BIT);
+        sink.play();
+        // Puts the playback head a few seconds in.
+        sink.write(ByteBuffer.allocate(10 * SAMPLE_RATE * 4), 10 * SAMPLE_RATE * 4);
+        clock = new PlaybackClock(sink);
+        clock.reset(SAMPLE_RATE);
+        clock.onItemStarted(0, 0);
+        clock.onItemStarted(1, 3 * SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public long playbackPositionUs() {
+        return clock.getPositionUs(System.nanoTime());
+    }
+
+    @Benchmark
+    public boolean itemPosition() {
+        return clock.getPosition(System.nanoTime(), position);
+    }
+
+    @Benchmark
+    public long durationUsToFrames() {
+        // Varies the input, so that the conversion isn't folded into a constant.
+        durationUs += 20000;
+        return PlaybackLoop.durationUsToFrames(durationUs, SAMPLE_RATE)
+                + PlaybackLoop.durationUsToNearestFrame(durationUs, SAMPLE_RATE);
+    }
+}
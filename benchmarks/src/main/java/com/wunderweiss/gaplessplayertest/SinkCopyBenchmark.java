@@ -0,0 +1,76 @@
+package com.wunderweiss.gaplessplayertest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying one decoder output buffer of PCM on its way into the sink: into the
+ * {@link PcmScratchBuffer} that {@link AudioTrackSink} uses before API 21, and through the
+ * {@link PcmRingBuffer} that {@link AudioSinkWriter} drains into the sink's memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkCopyBenchmark {
+
+    /**
+     * The size of a decoder output buffer, 1152 and 4096 stereo 16-bit frames.
+     */
+    @Param({"4608", "16384"})
+    public int bufferSize;
+
+    private ByteBuffer decoderOutput;
+    private PcmScratchBuffer scratchBuffer;
+    private PcmRingBuffer ringBuffer;
+    private byte[] sinkMemory;
+    private PcmRingBuffer.Reader sinkReader;
+
+    @Setup
+    public void setUp() {
+        decoderOutput = ByteBuffer.allocateDirect(bufferSize);
+        scratchBuffer = new PcmScratchBuffer(bufferSize);
+        // Like the ring buffer of the default depth at 44.1 kHz.
+        ringBuffer = new PcmRingBuffer(88200 * 2);
+        sinkMemory = new byte[bufferSize];
+        sinkReader = new PcmRingBuffer.Reader() {
+            @Override
+            public int read(byte[] data, int offset, int length) {
+                int size = Math.min(length, sinkMemory.length);
+                System.arraycopy(data, offset, sinkMemory, 0, size);
+                return size;
+            }
+        };
+    }
+
+    @Benchmark
+    public byte[] scratchBufferCopy() {
+        decoderOutput.clear();
+        return scratchBuffer.copyFrom(decoderOutput, bufferSize);
+    }
+
+    @Benchmark
+    public int ringBufferToSink() {
+        decoderOutput.clear();
+        ringBuffer.write(decoderOutput, bufferSize);
+        int read = 0;
+        while (read < bufferSize) {
+            read += ringBuffer.read(sinkReader, bufferSize - read);
+        }
+        return read;
+    }
+}
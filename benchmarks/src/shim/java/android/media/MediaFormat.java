@@ -0,0 +1,37 @@
+package android.media;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The part of the framework class that {@link com.wunderweiss.gaplessplayertest.GaplessInfo} reads.
+ */
+public final class MediaFormat {
+
+    public static final String KEY_MIME = "mime";
+    public static final String KEY_SAMPLE_RATE = "sample-rate";
+    public static final String KEY_DURATION = "durationUs";
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    public boolean containsKey(String name) {
+        return values.containsKey(name);
+    }
+
+    public String getString(String name) {
+        return (String) values.get(name);
+    }
+
+    public int getInteger(String name) {
+        return (Integer) values.get(name);
+    }
+
+    public long getLong(String name) {
+        return (Long) values.get(name);
+    }
+
+    public ByteBuffer getByteBuffer(String name) {
+        return (ByteBuffer) values.get(name);
+    }
+}
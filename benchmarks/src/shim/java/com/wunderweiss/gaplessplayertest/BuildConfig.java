@@ -0,0 +1,9 @@
+package com.wunderweiss.gaplessplayertest;
+
+/**
+ * Stands in for the generated class of a release build.
+ */
+public final class BuildConfig {
+
+    public static final boolean DEBUG = false;
+}